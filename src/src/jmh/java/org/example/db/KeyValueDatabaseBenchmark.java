@@ -0,0 +1,99 @@
+package org.example.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Read-mostly mix (90% get / 10% set) over a pre-populated key set, at 1/4/16/64 threads.
+ *   globalLock - the HashMap-backed database behind one lock, which is how callers share it today
+ *   striped    - the same database on StripedEngine with no external lock
+ *
+ *   mvn -Pjmh -Dmaven.test.skip=true package && java -jar target/benchmarks.jar KeyValueDatabaseBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyValueDatabaseBenchmark {
+    private static final int KEYS = 1 << 16;
+    private static final int WRITE_PERCENT = 10;
+
+    @Param({"globalLock", "striped"})
+    public String mode;
+
+    private KeyValueDatabase<String, Long> db;
+    private String[] keys;
+    private boolean locked;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        db = new KeyValueDatabase<>();
+        locked = mode.equals("globalLock");
+        db.init(locked ? new HashMapEngine<>() : new StripedEngine<>());
+        keys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "key:" + i;
+            db.set(keys[i], (long) i);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Long readMostly01() {
+        return operation();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Long readMostly04() {
+        return operation();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Long readMostly16() {
+        return operation();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Long readMostly64() {
+        return operation();
+    }
+
+    private Long operation() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String key = keys[random.nextInt(KEYS)];
+        boolean write = random.nextInt(100) < WRITE_PERCENT;
+        if (locked) {
+            synchronized (db) {
+                return apply(key, write);
+            }
+        }
+        return apply(key, write);
+    }
+
+    private Long apply(String key, boolean write) {
+        if (write) {
+            db.set(key, 1L);
+            return null;
+        }
+        return db.get(key);
+    }
+}
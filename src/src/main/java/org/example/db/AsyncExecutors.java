@@ -0,0 +1,79 @@
+package org.example.db;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Executors for KeyValueDatabase's async API. Blocking calls (an fsync, a table read) each hold a thread
+ * until they're done, so a thread per task suits them best: virtual threads where the JDK has them,
+ * looked up reflectively since this code compiles for Java 11, and otherwise a cached pool of daemon
+ * threads that grows with the number of calls in flight and shrinks when idle.
+ */
+public final class AsyncExecutors {
+    private static final Method VIRTUAL_THREAD_PER_TASK = virtualThreadFactoryMethod();
+    private static volatile Executor shared;
+
+    private AsyncExecutors() {
+    }
+
+    public static boolean hasVirtualThreads() {
+        return VIRTUAL_THREAD_PER_TASK != null;
+    }
+
+    // A new executor starting a virtual thread per task; needs Java 21 or later.
+    public static ExecutorService virtualThreadPerTask() {
+        if (VIRTUAL_THREAD_PER_TASK == null) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later, running "
+                    + System.getProperty("java.version"));
+        }
+        try {
+            return (ExecutorService) VIRTUAL_THREAD_PER_TASK.invoke(null);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new UnsupportedOperationException("Virtual threads unavailable", e);
+        }
+    }
+
+    // A new cached pool of daemon threads named prefix-N.
+    public static ExecutorService cachedDaemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                task -> {
+                    Thread thread = new Thread(task, prefix + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    // Shared by every database that wasn't given an executor: virtual threads if available, otherwise
+    // cached daemon threads. Never shut down.
+    public static Executor defaultExecutor() {
+        Executor executor = shared;
+        if (executor == null) {
+            synchronized (AsyncExecutors.class) {
+                executor = shared;
+                if (executor == null) {
+                    executor = hasVirtualThreads() ? virtualThreadPerTask() : cachedDaemonThreads("kv-async");
+                    shared = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    private static Method virtualThreadFactoryMethod() {
+        try {
+            Method method = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            // on 19 and 20 it exists but throws unless preview features are enabled
+            ((ExecutorService) method.invoke(null)).shutdown();
+            return method;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package org.example.db;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/*
+ * Concurrent engine that stays under a memory budget using W-TinyLFU. New entries go into a small LRU
+ * window (1% of the budget); entries leaving the window must beat the probation segment's LRU victim
+ * on estimated access frequency (FrequencySketch) to be admitted to the main space, which is a
+ * segmented LRU whose protected part holds entries read again while on probation. One-hit wonders
+ * are therefore filtered out instead of flushing the hot set.
+ *
+ * The map is a ConcurrentHashMap, so get/put/remove never wait on the policy. Reads are recorded in
+ * lossy striped ring buffers and writes in a queue; whichever thread wins a tryLock on the eviction
+ * lock replays them into the LRU lists and evicts, so each operation pays O(1) amortized and no
+ * caller blocks on another's eviction work unless the write queue is backing up.
+ */
+public class BoundedEngine<K,V> implements StorageEngine<K,V> {
+    // ConcurrentHashMap node plus our Node
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final Object NULL_KEY = new Object();
+    private static final int READ_STRIPES = 16;
+    private static final int READ_BUFFER_SIZE = 32;
+    private static final int READ_DRAIN_THRESHOLD = 16;
+    private static final int WRITE_BACKPRESSURE = 1024;
+
+    private static final byte NONE = 0;
+    private static final byte WINDOW = 1;
+    private static final byte PROBATION = 2;
+    private static final byte PROTECTED = 3;
+
+    // Estimated heap footprint of one entry, in bytes.
+    public interface Weigher<K,V> {
+        long weigh(K key, V value);
+    }
+
+    private final ConcurrentHashMap<Object, Node> map = new ConcurrentHashMap<>();
+    private final Weigher<? super K, ? super V> weigher;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final ReadBuffer[] readBuffers = new ReadBuffer[READ_STRIPES];
+    private final ConcurrentLinkedQueue<Node> writeBuffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile BiConsumer<? super K, ? super V> evictionListener;
+
+    // guarded by evictionLock
+    private final long maxWeight;
+    private final long windowMax;
+    private final long protectedMax;
+    private final Node window = Node.sentinel();
+    private final Node probation = Node.sentinel();
+    private final Node protectedQueue = Node.sentinel();
+    private final FrequencySketch sketch;
+    private long weightedSize;
+    private long windowWeight;
+    private long protectedWeight;
+
+    public BoundedEngine(long maxBytes) {
+        this(maxBytes, BoundedEngine::estimate);
+    }
+
+    public BoundedEngine(long maxBytes, Weigher<? super K, ? super V> weigher) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive: " + maxBytes);
+        }
+        this.maxWeight = maxBytes;
+        this.windowMax = Math.max(1, maxBytes / 100);
+        this.protectedMax = (maxBytes - windowMax) * 8 / 10;
+        this.weigher = weigher;
+        this.sketch = new FrequencySketch(1024);
+        for (int i = 0; i < READ_STRIPES; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    @Override
+    public V get(K key) {
+        Node node = map.get(mask(key));
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        recordRead(node);
+        return value(node);
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        return map.containsKey(mask(key));
+    }
+
+    @Override
+    public void put(K key, V value) {
+        int weight = (int) Math.min(Integer.MAX_VALUE, ENTRY_OVERHEAD + weigher.weigh(key, value));
+        Node node = map.compute(mask(key), (k, existing) -> {
+            if (existing == null) {
+                return new Node(k, value, weight);
+            }
+            existing.value = value;
+            existing.weight = weight;
+            return existing;
+        });
+        recordWrite(node);
+    }
+
+    @Override
+    public void remove(K key) {
+        Node[] removed = new Node[1];
+        map.computeIfPresent(mask(key), (k, node) -> {
+            node.dead = true;
+            removed[0] = node;
+            return null;
+        });
+        if (removed[0] != null) {
+            recordWrite(removed[0]);
+        }
+    }
+
+    @Override
+    public long size() {
+        return map.size();
+    }
+
+    // Visits every entry without counting as reads, so a full scan doesn't skew the eviction policy.
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        map.forEach((key, node) -> action.accept(key == NULL_KEY ? null : (K) key, value(node)));
+    }
+
+    @Override
+    public void setEvictionListener(BiConsumer<? super K, ? super V> listener) {
+        evictionListener = listener;
+    }
+
+    public long maxWeight() {
+        return maxWeight;
+    }
+
+    // Estimated bytes held, as of the last time the policy caught up.
+    public long weightedSize() {
+        evictionLock.lock();
+        try {
+            return weightedSize;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    public double hitRatio() {
+        long hitCount = hits.sum();
+        long requests = hitCount + misses.sum();
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    // Applies all buffered reads and writes and evicts down to the budget.
+    public void cleanUp() {
+        evictionLock.lock();
+        try {
+            drain();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    // Rough heap sizes for common key/value types; supply a Weigher for anything else.
+    public static long estimate(Object key, Object value) {
+        return estimate(key) + estimate(value);
+    }
+
+    private static long estimate(Object object) {
+        if (object == null) {
+            return 0;
+        }
+        if (object instanceof String) {
+            return 40 + 2L * ((String) object).length();
+        }
+        if (object instanceof byte[]) {
+            return 16 + ((byte[]) object).length;
+        }
+        if (object instanceof long[]) {
+            return 16 + 8L * ((long[]) object).length;
+        }
+        if (object instanceof Number || object instanceof Boolean || object instanceof Character) {
+            return 16;
+        }
+        return 64;
+    }
+
+    private void recordRead(Node node) {
+        int stripe = (int) (Thread.currentThread().getId() * 0x9E3779B9L) & (READ_STRIPES - 1);
+        ReadBuffer buffer = readBuffers[stripe];
+        if (buffer.offer(node) >= READ_DRAIN_THRESHOLD && evictionLock.tryLock()) {
+            try {
+                drain();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void recordWrite(Node node) {
+        writeBuffer.add(node);
+        if (pendingWrites.incrementAndGet() > WRITE_BACKPRESSURE) {
+            // writers are outrunning the policy; make this one wait so memory can't run away
+            evictionLock.lock();
+        } else if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            drain();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    // evictionLock held
+    private void drain() {
+        for (ReadBuffer buffer : readBuffers) {
+            buffer.drainTo(this);
+        }
+        Node node;
+        while ((node = writeBuffer.poll()) != null) {
+            pendingWrites.decrementAndGet();
+            reconcile(node);
+        }
+        sketch.ensureCapacity(map.size());
+        evict();
+    }
+
+    // Brings the policy in line with what a write did to the node.
+    private void reconcile(Node node) {
+        if (node.dead) {
+            if (node.queue != NONE) {
+                unlink(node);
+            }
+            return;
+        }
+        int weight = node.weight;
+        if (node.queue == NONE) {
+            node.policyWeight = weight;
+            weightedSize += weight;
+            windowWeight += weight;
+            node.queue = WINDOW;
+            linkLast(window, node);
+            sketch.increment(node.key);
+            return;
+        }
+        int delta = weight - node.policyWeight;
+        node.policyWeight = weight;
+        weightedSize += delta;
+        if (node.queue == WINDOW) {
+            windowWeight += delta;
+        } else if (node.queue == PROTECTED) {
+            protectedWeight += delta;
+        }
+        onAccess(node);
+    }
+
+    private void onAccess(Node node) {
+        if (node.queue == NONE) {
+            return;
+        }
+        sketch.increment(node.key);
+        if (node.queue == PROBATION) {
+            unlinkFromList(node);
+            node.queue = PROTECTED;
+            protectedWeight += node.policyWeight;
+            linkLast(protectedQueue, node);
+            while (protectedWeight > protectedMax) {
+                // demote the protected LRU back to probation to make room
+                Node demoted = protectedQueue.next;
+                unlinkFromList(demoted);
+                protectedWeight -= demoted.policyWeight;
+                demoted.queue = PROBATION;
+                linkLast(probation, demoted);
+            }
+        } else {
+            unlinkFromList(node);
+            linkLast(node.queue == WINDOW ? window : protectedQueue, node);
+        }
+    }
+
+    private void evict() {
+        // entries pushed out of the window become admission candidates at the tail of probation
+        Node candidate = null;
+        while (windowWeight > windowMax && window.next != window) {
+            Node node = window.next;
+            unlinkFromList(node);
+            windowWeight -= node.policyWeight;
+            node.queue = PROBATION;
+            linkLast(probation, node);
+            if (candidate == null) {
+                candidate = node;
+            }
+        }
+        while (weightedSize > maxWeight) {
+            Node victim = first(probation);
+            if (victim == null || victim == candidate) {
+                // nothing older to compete with: evict in LRU order, probation first
+                Node node = victim != null ? victim : first(protectedQueue) != null ? first(protectedQueue) : first(window);
+                if (node == null) {
+                    break;
+                }
+                if (node == candidate) {
+                    candidate = next(candidate, probation);
+                }
+                evictNode(node);
+            } else if (candidate == null) {
+                evictNode(victim);
+            } else if (candidate.policyWeight > maxWeight
+                    || sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                Node rejected = candidate;
+                candidate = next(candidate, probation);
+                evictNode(rejected);
+            } else {
+                evictNode(victim);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void evictNode(Node node) {
+        unlink(node);
+        map.computeIfPresent(node.key, (k, current) -> {
+            if (current != node) {
+                return current;
+            }
+            node.dead = true;
+            BiConsumer<? super K, ? super V> listener = evictionListener;
+            if (listener != null) {
+                // inside the compute, so the listener hears of it before a put can store the key again
+                listener.accept(k == NULL_KEY ? null : (K) k, value(node));
+            }
+            return null;
+        });
+        evictions.increment();
+    }
+
+    private void unlink(Node node) {
+        unlinkFromList(node);
+        weightedSize -= node.policyWeight;
+        if (node.queue == WINDOW) {
+            windowWeight -= node.policyWeight;
+        } else if (node.queue == PROTECTED) {
+            protectedWeight -= node.policyWeight;
+        }
+        node.queue = NONE;
+    }
+
+    private static Node first(Node head) {
+        return head.next == head ? null : head.next;
+    }
+
+    private static Node next(Node node, Node head) {
+        return node.next == head ? null : node.next;
+    }
+
+    private static void linkLast(Node head, Node node) {
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+    }
+
+    private static void unlinkFromList(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(Node node) {
+        return (V) node.value;
+    }
+
+    private static Object mask(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    private static final class Node {
+        final Object key;
+        volatile Object value;
+        volatile int weight;
+        // set inside the map's atomic section that removes the node
+        volatile boolean dead;
+
+        // guarded by evictionLock
+        byte queue;
+        int policyWeight;
+        Node prev;
+        Node next;
+
+        Node(Object key, Object value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+
+        static Node sentinel() {
+            Node head = new Node(null, null, 0);
+            head.prev = head;
+            head.next = head;
+            return head;
+        }
+    }
+
+    // Lossy ring of recently read nodes; a full buffer drops the read, which only skews the LRU slightly.
+    private static final class ReadBuffer {
+        private final AtomicReferenceArray<Node> slots = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        private final AtomicLong writeCount = new AtomicLong();
+        private volatile long readCount;
+
+        // Returns the number of pending reads, or 0 if the read was dropped.
+        int offer(Node node) {
+            long head = readCount;
+            long tail = writeCount.get();
+            if (tail - head >= READ_BUFFER_SIZE || !writeCount.compareAndSet(tail, tail + 1)) {
+                return 0;
+            }
+            slots.lazySet((int) (tail & (READ_BUFFER_SIZE - 1)), node);
+            return (int) (tail + 1 - head);
+        }
+
+        // evictionLock held
+        void drainTo(BoundedEngine<?, ?> engine) {
+            long head = readCount;
+            long tail = writeCount.get();
+            for (; head < tail; head++) {
+                int index = (int) (head & (READ_BUFFER_SIZE - 1));
+                Node node = slots.getAndSet(index, null);
+                if (node == null) {
+                    // claimed but not yet published; pick it up next time
+                    break;
+                }
+                engine.onAccess(node);
+            }
+            readCount = head;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.example.db;
+
+// One mutation of a KeyValueDatabase as published to its ChangeFeed and to key watchers.
+public final class Change<K,V> {
+    public enum Type {
+        SET,
+        DELETE,
+        // a ttl was set; deadline() says when the key expires
+        EXPIRE,
+        // the key's ttl ran out and it was removed
+        EXPIRED,
+        // the engine dropped the key to stay within its memory budget
+        EVICTED
+    }
+
+    private final long offset;
+    private final Type type;
+    private final K key;
+    private final V value;
+    private final long deadline;
+
+    Change(long offset, Type type, K key, V value, long deadline) {
+        this.offset = offset;
+        this.type = type;
+        this.key = key;
+        this.value = value;
+        this.deadline = deadline;
+    }
+
+    // Position in the change feed, or -1 if the database has no feed and this went to a watcher only.
+    public long offset() {
+        return offset;
+    }
+
+    public Type type() {
+        return type;
+    }
+
+    public K key() {
+        return key;
+    }
+
+    // The new value of a SET, otherwise null.
+    public V value() {
+        return value;
+    }
+
+    // Expiry time in epoch millis for EXPIRE, otherwise 0.
+    public long deadline() {
+        return deadline;
+    }
+
+    @Override
+    public String toString() {
+        return offset + " " + type + " " + key + (type == Type.SET ? "=" + value : "")
+                + (type == Type.EXPIRE ? " at " + deadline : "");
+    }
+}
@@ -0,0 +1,143 @@
+package org.example.db;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * Bounded ring buffer of a database's changes, each with its offset: 0 for the first change after the
+ * feed was enabled, then one higher for every change. Writers claim an offset and store the change
+ * under the key's stripe, so a key's changes appear in the order they were applied; writers never wait
+ * for readers. Once more than capacity changes have followed one, it is overwritten, and a subscriber
+ * that hadn't read it yet gets an IllegalStateException and has to resynchronize from the database.
+ *
+ * Log replay and snapshot hydration on startup aren't published; the feed describes changes made
+ * through this instance's API.
+ */
+public class ChangeFeed<K,V> {
+    private final AtomicReferenceArray<Change<K,V>> slots;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+    // subscribers blocked in poll; writers only take the monitor to wake them when there are any
+    private final Object signal = new Object();
+    private volatile int waiting;
+
+    ChangeFeed(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid change feed capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+
+    // Offset the next change will get.
+    public long nextOffset() {
+        return next.get();
+    }
+
+    // Oldest offset that may still be read.
+    public long oldestOffset() {
+        return Math.max(0, next.get() - slots.length());
+    }
+
+    // Reads from offset on; nextOffset() for only what happens from now.
+    public Subscription<K,V> subscribe(long offset) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Negative offset: " + offset);
+        }
+        return new Subscription<>(this, offset);
+    }
+
+    Change<K,V> publish(Change.Type type, K key, V value, long deadline) {
+        long offset = next.getAndIncrement();
+        Change<K,V> change = new Change<>(offset, type, key, value, deadline);
+        int slot = (int) (offset & mask);
+        while (true) {
+            Change<K,V> current = slots.get(slot);
+            if (current != null && current.offset() > offset) {
+                // lapped while we were between claiming and storing; the change is already lost
+                break;
+            }
+            if (slots.compareAndSet(slot, current, change)) {
+                break;
+            }
+        }
+        if (waiting > 0) {
+            synchronized (signal) {
+                signal.notifyAll();
+            }
+        }
+        return change;
+    }
+
+    // A reader's position in the feed. Use one from a single thread.
+    public static final class Subscription<K,V> {
+        private final ChangeFeed<K,V> feed;
+        private long offset;
+
+        private Subscription(ChangeFeed<K,V> feed, long offset) {
+            this.feed = feed;
+            this.offset = offset;
+        }
+
+        // Offset of the next change this subscription will return.
+        public long offset() {
+            return offset;
+        }
+
+        // Up to max changes from the current offset, in offset order; empty if there are none yet.
+        // Stops early at an offset that was claimed but isn't stored yet.
+        public List<Change<K,V>> poll(int max) {
+            List<Change<K,V>> batch = new ArrayList<>(Math.min(max, 256));
+            while (batch.size() < max) {
+                Change<K,V> change = feed.slots.get((int) (offset & feed.mask));
+                if (change == null || change.offset() < offset) {
+                    break;
+                }
+                if (change.offset() > offset) {
+                    throw new IllegalStateException("Change " + offset + " was overwritten; the oldest kept is "
+                            + feed.oldestOffset());
+                }
+                batch.add(change);
+                offset++;
+            }
+            return batch;
+        }
+
+        // As poll(max), but waits up to timeout for a first change. Empty only on timeout.
+        public List<Change<K,V>> poll(int max, Duration timeout) throws InterruptedException {
+            long deadline = System.nanoTime() + timeout.toNanos();
+            List<Change<K,V>> batch = poll(max);
+            if (!batch.isEmpty()) {
+                return batch;
+            }
+            synchronized (feed.signal) {
+                // counted before looking again, so a writer either is seen or sees us
+                feed.waiting++;
+                try {
+                    while ((batch = poll(max)).isEmpty()) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(feed.signal, remaining);
+                    }
+                } finally {
+                    feed.waiting--;
+                }
+            }
+            return batch;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.example.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * A value kept as CHUNK_SIZE arrays instead of one, written and read through streams, so no step needs
+ * an allocation the size of the value. G1 puts any object of half a region or more (512 KB with the
+ * smallest regions) in humongous regions of its own, which fragment the heap and are only reclaimed by
+ * particular collections; 64 KB chunks stay well clear of that. Immutable once built: readers keep
+ * reading the value they opened even if the key is overwritten meanwhile.
+ */
+final class ChunkedValue {
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    // every chunk full except the last, which is trimmed to what was written
+    final byte[][] chunks;
+    final long length;
+
+    ChunkedValue(byte[][] chunks, long length) {
+        this.chunks = chunks;
+        this.length = length;
+    }
+
+    static int chunkCount(long length) {
+        return (int) ((length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    InputStream open() {
+        return new Reader();
+    }
+
+    private final class Reader extends InputStream {
+        private int chunk;
+        private int offset;
+        private long remaining = length;
+
+        @Override
+        public int read() {
+            if (remaining == 0) {
+                return -1;
+            }
+            int b = chunks[chunk][offset] & 0xFF;
+            advance(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining == 0) {
+                return -1;
+            }
+            int n = Math.min(len, chunks[chunk].length - offset);
+            System.arraycopy(chunks[chunk], offset, b, off, n);
+            advance(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = 0;
+            while (skipped < n && remaining > 0) {
+                int step = (int) Math.min(n - skipped, chunks[chunk].length - offset);
+                advance(step);
+                skipped += step;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+
+        private void advance(int n) {
+            offset += n;
+            remaining -= n;
+            if (offset == chunks[chunk].length && remaining > 0) {
+                chunk++;
+                offset = 0;
+            }
+        }
+    }
+
+    /*
+     * Collects written bytes into chunks; close() hands the finished value to the database, which stores
+     * it under the key in one step. Nothing is visible before close(), and a stream that is never closed
+     * leaves the key alone. Not thread-safe.
+     */
+    static final class Writer<K> extends OutputStream {
+        private final KeyValueDatabase<K,?> database;
+        private final K key;
+        private final Durability durability;
+        private final List<byte[]> chunks = new ArrayList<>();
+        private byte[] current = new byte[CHUNK_SIZE];
+        private int position;
+        private long length;
+        private boolean closed;
+
+        Writer(KeyValueDatabase<K,?> database, K key, Durability durability) {
+            this.database = database;
+            this.key = key;
+            this.durability = durability;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            checkOpen();
+            if (position == CHUNK_SIZE) {
+                nextChunk();
+            }
+            current[position++] = (byte) b;
+            length++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkOpen();
+            while (len > 0) {
+                if (position == CHUNK_SIZE) {
+                    nextChunk();
+                }
+                int n = Math.min(len, CHUNK_SIZE - position);
+                System.arraycopy(b, off, current, position, n);
+                position += n;
+                off += n;
+                len -= n;
+                length += n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (position > 0) {
+                chunks.add(position == CHUNK_SIZE ? current : Arrays.copyOf(current, position));
+            }
+            current = null;
+            database.commitStream(key, new ChunkedValue(chunks.toArray(new byte[0][]), length), durability);
+        }
+
+        private void nextChunk() {
+            chunks.add(current);
+            current = new byte[CHUNK_SIZE];
+            position = 0;
+        }
+
+        private void checkOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Value stream already closed");
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.example.db;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Binary encoding of keys or values, chosen per database instance. Callers size the target with
+ * encodedSize() and then have encode() write straight into their buffer (a log buffer, a mapped file),
+ * so no intermediate byte[] is made. decode() gets a buffer holding exactly one encoded value between
+ * position and limit. Built-in codecs are in Codecs.
+ */
+public interface Codec<T> {
+    // Exact number of bytes encode(value, ...) will write. Never called with null.
+    int encodedSize(T value);
+
+    // Writes the value at the buffer's position and advances it. Never called with null.
+    void encode(T value, ByteBuffer out);
+
+    // Reads the value from position to limit.
+    T decode(ByteBuffer in);
+}
@@ -0,0 +1,454 @@
+package org.example.db;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Built-in codecs. utf8() and int64() encode so that unsigned byte order matches the natural order of
+ * the values (for longs, the sign bit is flipped), which keeps snapshot files and SSTables sorted
+ * sensibly. serializable() is Java serialization, the default, so logs written before codecs existed
+ * still replay.
+ */
+public final class Codecs {
+    private static final Codec<String> UTF8 = new Utf8Codec();
+    private static final Codec<Long> INT64 = new Int64Codec();
+    private static final Codec<byte[]> BYTES = new BytesCodec();
+    private static final Codec<Object> SERIALIZABLE = new SerializableCodec();
+
+    private Codecs() {
+    }
+
+    public static Codec<String> utf8() {
+        return UTF8;
+    }
+
+    public static Codec<Long> int64() {
+        return INT64;
+    }
+
+    public static Codec<byte[]> bytes() {
+        return BYTES;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> Codec<T> serializable() {
+        return (Codec<T>) SERIALIZABLE;
+    }
+
+    // Codec for a record whose components are primitives, boxed primitives, Strings, byte[]s or records
+    // of the same kind. Components are written in declaration order: primitives as fixed-size fields,
+    // everything else as int length (-1 for null) | encoding. Needs Java 16 or later at runtime.
+    public static <R> Codec<R> record(Class<R> type) {
+        return new RecordCodec<>(type);
+    }
+
+    // Heap copy of an encoding, for the places that store keys as byte[] (snapshot files, SSTables).
+    public static <T> byte[] toBytes(Codec<? super T> codec, T value) {
+        ByteBuffer buffer = ByteBuffer.allocate(codec.encodedSize(value));
+        codec.encode(value, buffer);
+        return buffer.array();
+    }
+
+    public static <T> T fromBytes(Codec<T> codec, byte[] bytes) {
+        return codec.decode(ByteBuffer.wrap(bytes));
+    }
+
+    private static final class Utf8Codec implements Codec<String> {
+        @Override
+        public int encodedSize(String value) {
+            int size = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    size++;
+                } else if (c < 0x800) {
+                    size += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    size += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    // unpaired surrogate, replaced by '?' as String.getBytes does
+                    size++;
+                } else {
+                    size += 3;
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public void encode(String value, ByteBuffer out) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    out.put((byte) c);
+                } else if (c < 0x800) {
+                    out.put((byte) (0xC0 | (c >> 6)));
+                    out.put((byte) (0x80 | (c & 0x3F)));
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    out.put((byte) (0xF0 | (codePoint >> 18)));
+                    out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                    out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                    out.put((byte) (0x80 | (codePoint & 0x3F)));
+                } else if (Character.isSurrogate(c)) {
+                    out.put((byte) '?');
+                } else {
+                    out.put((byte) (0xE0 | (c >> 12)));
+                    out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                    out.put((byte) (0x80 | (c & 0x3F)));
+                }
+            }
+        }
+
+        @Override
+        public String decode(ByteBuffer in) {
+            int length = in.remaining();
+            String value;
+            if (in.hasArray()) {
+                value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+                in.position(in.limit());
+            } else {
+                // String has no constructor taking a direct buffer
+                byte[] bytes = new byte[length];
+                in.get(bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return value;
+        }
+    }
+
+    private static final class Int64Codec implements Codec<Long> {
+        @Override
+        public int encodedSize(Long value) {
+            return Long.BYTES;
+        }
+
+        @Override
+        public void encode(Long value, ByteBuffer out) {
+            out.putLong(value ^ Long.MIN_VALUE);
+        }
+
+        @Override
+        public Long decode(ByteBuffer in) {
+            return in.getLong() ^ Long.MIN_VALUE;
+        }
+    }
+
+    private static final class BytesCodec implements Codec<byte[]> {
+        @Override
+        public int encodedSize(byte[] value) {
+            return value.length;
+        }
+
+        @Override
+        public void encode(byte[] value, ByteBuffer out) {
+            out.put(value);
+        }
+
+        @Override
+        public byte[] decode(ByteBuffer in) {
+            byte[] value = new byte[in.remaining()];
+            in.get(value);
+            return value;
+        }
+    }
+
+    private static final class SerializableCodec implements Codec<Object> {
+        // Larger serializations aren't remembered: every thread that ever logged one would keep it alive,
+        // and serializing them twice costs little next to writing them out.
+        private static final int CACHE_LIMIT = 4096;
+
+        // Callers size a key and a value, then encode both; remember the last two serializations so
+        // each object is serialized once. Slots hold object, bytes, object, bytes.
+        private final ThreadLocal<Object[]> recent = ThreadLocal.withInitial(() -> new Object[4]);
+
+        @Override
+        public int encodedSize(Object value) {
+            byte[] bytes = Serialization.toBytes(value);
+            if (bytes.length > CACHE_LIMIT) {
+                return bytes.length;
+            }
+            Object[] cached = recent.get();
+            cached[2] = cached[0];
+            cached[3] = cached[1];
+            cached[0] = value;
+            cached[1] = bytes;
+            return bytes.length;
+        }
+
+        @Override
+        public void encode(Object value, ByteBuffer out) {
+            Object[] cached = recent.get();
+            byte[] bytes;
+            if (cached[1] != null && cached[0] == value) {
+                bytes = (byte[]) cached[1];
+                cached[0] = null;
+                cached[1] = null;
+            } else if (cached[3] != null && cached[2] == value) {
+                bytes = (byte[]) cached[3];
+                cached[2] = null;
+                cached[3] = null;
+            } else {
+                bytes = Serialization.toBytes(value);
+            }
+            out.put(bytes);
+        }
+
+        @Override
+        public Object decode(ByteBuffer in) {
+            byte[] bytes = new byte[in.remaining()];
+            in.get(bytes);
+            return Serialization.fromBytes(bytes);
+        }
+    }
+
+    private static final class RecordCodec<R> implements Codec<R> {
+        private final Constructor<R> constructor;
+        private final Method[] accessors;
+        // Primitive for primitive components, written without a length; a codec for everything else
+        private final Object[] components;
+
+        RecordCodec(Class<R> type) {
+            Object[] recordComponents;
+            Method getType;
+            Method getAccessor;
+            try {
+                // through reflection, since the build targets Java 11
+                recordComponents = (Object[]) Class.class.getMethod("getRecordComponents").invoke(type);
+                Class<?> component = Class.forName("java.lang.reflect.RecordComponent");
+                getType = component.getMethod("getType");
+                getAccessor = component.getMethod("getAccessor");
+            } catch (NoSuchMethodException | ClassNotFoundException e) {
+                throw new UnsupportedOperationException("Record codecs need Java 16 or later", e);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException(e);
+            }
+            if (recordComponents == null) {
+                throw new IllegalArgumentException(type.getName() + " is not a record");
+            }
+            Class<?>[] types = new Class<?>[recordComponents.length];
+            accessors = new Method[recordComponents.length];
+            components = new Object[recordComponents.length];
+            try {
+                for (int i = 0; i < recordComponents.length; i++) {
+                    types[i] = (Class<?>) getType.invoke(recordComponents[i]);
+                    accessors[i] = (Method) getAccessor.invoke(recordComponents[i]);
+                    accessors[i].setAccessible(true);
+                    components[i] = componentCodec(types[i]);
+                }
+                constructor = type.getDeclaredConstructor(types);
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalArgumentException("Cannot use record " + type.getName(), e);
+            }
+        }
+
+        private static Object componentCodec(Class<?> type) {
+            if (type.isPrimitive()) {
+                return Primitive.of(type);
+            }
+            if (type == String.class) {
+                return UTF8;
+            }
+            if (type == byte[].class) {
+                return BYTES;
+            }
+            Class<?> unboxed = Primitive.unboxed(type);
+            if (unboxed != null) {
+                return Primitive.of(unboxed);
+            }
+            return new RecordCodec<>(type);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public int encodedSize(R value) {
+            int size = 0;
+            for (int i = 0; i < components.length; i++) {
+                Object component = get(i, value);
+                boolean inline = accessors[i].getReturnType().isPrimitive();
+                if (!inline) {
+                    size += 4;
+                }
+                if (component == null) {
+                    continue;
+                }
+                if (components[i] instanceof Primitive) {
+                    size += ((Primitive) components[i]).size;
+                } else {
+                    size += ((Codec<Object>) components[i]).encodedSize(component);
+                }
+            }
+            return size;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void encode(R value, ByteBuffer out) {
+            for (int i = 0; i < components.length; i++) {
+                Object component = get(i, value);
+                boolean inline = accessors[i].getReturnType().isPrimitive();
+                if (!inline && component == null) {
+                    out.putInt(-1);
+                } else if (components[i] instanceof Primitive) {
+                    Primitive primitive = (Primitive) components[i];
+                    if (!inline) {
+                        out.putInt(primitive.size);
+                    }
+                    primitive.put(component, out);
+                } else {
+                    Codec<Object> codec = (Codec<Object>) components[i];
+                    out.putInt(codec.encodedSize(component));
+                    codec.encode(component, out);
+                }
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public R decode(ByteBuffer in) {
+            Object[] arguments = new Object[components.length];
+            for (int i = 0; i < components.length; i++) {
+                boolean inline = accessors[i].getReturnType().isPrimitive();
+                int length = inline ? 0 : in.getInt();
+                if (length < 0) {
+                    continue;
+                }
+                if (components[i] instanceof Primitive) {
+                    arguments[i] = ((Primitive) components[i]).get(in);
+                } else {
+                    ByteBuffer field = in.duplicate();
+                    field.limit(in.position() + length);
+                    arguments[i] = ((Codec<Object>) components[i]).decode(field);
+                    in.position(in.position() + length);
+                }
+            }
+            try {
+                return constructor.newInstance(arguments);
+            } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException("Cannot create " + constructor.getDeclaringClass().getName(), e);
+            }
+        }
+
+        private Object get(int component, R value) {
+            try {
+                return accessors[component].invoke(value);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException("Cannot read " + accessors[component].getName(), e);
+            }
+        }
+    }
+
+    private enum Primitive {
+        LONG(long.class, Long.class, 8) {
+            void put(Object value, ByteBuffer out) {
+                out.putLong((Long) value);
+            }
+
+            Object get(ByteBuffer in) {
+                return in.getLong();
+            }
+        },
+        INT(int.class, Integer.class, 4) {
+            void put(Object value, ByteBuffer out) {
+                out.putInt((Integer) value);
+            }
+
+            Object get(ByteBuffer in) {
+                return in.getInt();
+            }
+        },
+        SHORT(short.class, Short.class, 2) {
+            void put(Object value, ByteBuffer out) {
+                out.putShort((Short) value);
+            }
+
+            Object get(ByteBuffer in) {
+                return in.getShort();
+            }
+        },
+        BYTE(byte.class, Byte.class, 1) {
+            void put(Object value, ByteBuffer out) {
+                out.put((Byte) value);
+            }
+
+            Object get(ByteBuffer in) {
+                return in.get();
+            }
+        },
+        CHAR(char.class, Character.class, 2) {
+            void put(Object value, ByteBuffer out) {
+                out.putChar((Character) value);
+            }
+
+            Object get(ByteBuffer in) {
+                return in.getChar();
+            }
+        },
+        BOOLEAN(boolean.class, Boolean.class, 1) {
+            void put(Object value, ByteBuffer out) {
+                out.put((byte) ((Boolean) value ? 1 : 0));
+            }
+
+            Object get(ByteBuffer in) {
+                return in.get() != 0;
+            }
+        },
+        DOUBLE(double.class, Double.class, 8) {
+            void put(Object value, ByteBuffer out) {
+                out.putDouble((Double) value);
+            }
+
+            Object get(ByteBuffer in) {
+                return in.getDouble();
+            }
+        },
+        FLOAT(float.class, Float.class, 4) {
+            void put(Object value, ByteBuffer out) {
+                out.putFloat((Float) value);
+            }
+
+            Object get(ByteBuffer in) {
+                return in.getFloat();
+            }
+        };
+
+        final Class<?> type;
+        final Class<?> boxed;
+        final int size;
+
+        Primitive(Class<?> type, Class<?> boxed, int size) {
+            this.type = type;
+            this.boxed = boxed;
+            this.size = size;
+        }
+
+        abstract void put(Object value, ByteBuffer out);
+
+        abstract Object get(ByteBuffer in);
+
+        static Primitive of(Class<?> type) {
+            for (Primitive primitive : values()) {
+                if (primitive.type == type) {
+                    return primitive;
+                }
+            }
+            throw new IllegalArgumentException("Unsupported record component type " + type);
+        }
+
+        static Class<?> unboxed(Class<?> type) {
+            for (Primitive primitive : values()) {
+                if (primitive.boxed == type) {
+                    return primitive.type;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package org.example.db;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Optional LZ4 compression of the values in snapshot files and SSTables, plus the counters that report
+ * what it saves and costs. One instance is shared by everything that writes or reads a database's files.
+ *
+ * Values are compressed one by one so a lookup still decodes a single value, but each against the
+ * dictionary of its block: the first value in the block that is worth compressing, stored as is. Values
+ * in one database tend to share their field names and structure, so later values mostly become
+ * references into it. Values shorter than minValueBytes, or that don't get smaller, are stored as is.
+ *
+ * A value is stored as one of
+ *   int length | bytes                                   plain (length >= 0)
+ *   int DICTIONARY | int length | bytes                  plain, and the dictionary for the rest of the block
+ *   int COMPRESSED | int length | int stored | bytes     LZ4 against the block's dictionary
+ * where the negative markers don't clash with the -1/-2 the files already use.
+ */
+public final class Compression {
+    public static final int DEFAULT_MIN_VALUE_BYTES = 64;
+    public static final int DEFAULT_BLOCK_SIZE = 16 * 1024;
+    static final int DICTIONARY = -3;
+    static final int COMPRESSED = -4;
+    // a match can't reach further back than LZ4's 64 KB window anyway
+    private static final int MAX_DICTIONARY = 64 * 1024;
+
+    private final int minValueBytes;
+    private final int blockSize;
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressed = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    public Compression() {
+        this(DEFAULT_MIN_VALUE_BYTES, DEFAULT_BLOCK_SIZE);
+    }
+
+    // Larger blocks let more values share a dictionary, but a lookup scans a whole block.
+    public Compression(int minValueBytes, int blockSize) {
+        if (minValueBytes < 0 || blockSize <= 0) {
+            throw new IllegalArgumentException("Invalid compression settings: " + minValueBytes + ", " + blockSize);
+        }
+        this.minValueBytes = minValueBytes;
+        this.blockSize = blockSize;
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    public Encoder encoder() {
+        return new Encoder(this);
+    }
+
+    // Value bytes written, before and after compression, including those too small to compress.
+    public long rawBytes() {
+        return rawBytes.sum();
+    }
+
+    public long storedBytes() {
+        return storedBytes.sum();
+    }
+
+    // rawBytes / storedBytes, 1.0 before anything was written.
+    public double ratio() {
+        long stored = storedBytes.sum();
+        return stored == 0 ? 1.0 : (double) rawBytes.sum() / stored;
+    }
+
+    public long compressedValues() {
+        return compressed.sum();
+    }
+
+    // Values stored as is: below the threshold, or not smaller when compressed.
+    public long skippedValues() {
+        return skipped.sum();
+    }
+
+    public long compressNanos() {
+        return compressNanos.sum();
+    }
+
+    public long decompressedValues() {
+        return decompressed.sum();
+    }
+
+    public long decompressNanos() {
+        return decompressNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        long values = compressed.sum();
+        long reads = decompressed.sum();
+        return String.format("ratio=%.2f raw=%d stored=%d compressed=%d skipped=%d compress=%dns/value"
+                        + " decompress=%dns/value",
+                ratio(), rawBytes(), storedBytes(), values, skippedValues(),
+                values == 0 ? 0 : compressNanos() / values, reads == 0 ? 0 : decompressNanos() / reads);
+    }
+
+    // Steps over the value following a length field of valueLength.
+    public static void skip(ByteBuffer data, int valueLength) {
+        if (valueLength >= 0) {
+            data.position(data.position() + valueLength);
+        } else if (valueLength == DICTIONARY) {
+            int length = data.getInt();
+            data.position(data.position() + length);
+        } else if (valueLength == COMPRESSED) {
+            data.getInt();
+            int stored = data.getInt();
+            data.position(data.position() + stored);
+        }
+    }
+
+    // The block's dictionary after reading a value's length field: the value about to be read if it is
+    // one, otherwise the current one. Leaves the position alone.
+    public static ByteBuffer dictionary(ByteBuffer data, int valueLength, ByteBuffer current) {
+        if (valueLength != DICTIONARY) {
+            return current;
+        }
+        int start = data.position() + 4;
+        ByteBuffer dictionary = data.duplicate();
+        dictionary.limit(start + data.getInt(data.position())).position(start);
+        return dictionary;
+    }
+
+    // Reads the value following a length field of valueLength >= 0, DICTIONARY or COMPRESSED. stats may
+    // be null: a file written with compression is readable without it.
+    public static byte[] read(ByteBuffer data, int valueLength, ByteBuffer dictionary, Compression stats) {
+        if (valueLength == COMPRESSED) {
+            long start = stats == null ? 0 : System.nanoTime();
+            byte[] value = new byte[data.getInt()];
+            int stored = data.getInt();
+            Lz4.decompress(data, stored, dictionary, value);
+            if (stats != null) {
+                stats.decompressNanos.add(System.nanoTime() - start);
+                stats.decompressed.increment();
+            }
+            return value;
+        }
+        byte[] value = new byte[valueLength == DICTIONARY ? data.getInt() : valueLength];
+        data.get(value);
+        return value;
+    }
+
+    /*
+     * Per-writer state: the current block's dictionary and scratch buffers. encode() a value, then
+     * writeTo() the output; call newBlock() whenever the writer starts a block. Not thread-safe.
+     */
+    public static final class Encoder {
+        private final Compression settings;
+        private final int[] table = new int[1 << Lz4.HASH_BITS];
+        private final int[] seeded = new int[1 << Lz4.HASH_BITS];
+        // the dictionary followed by the value being compressed
+        private byte[] window = new byte[0];
+        private int dictionaryLength;
+        private boolean hasDictionary;
+        private byte[] output = new byte[0];
+        private int outputLength;
+        private int marker;
+        private byte[] value;
+
+        private Encoder(Compression settings) {
+            this.settings = settings;
+        }
+
+        public int blockSize() {
+            return settings.blockSize;
+        }
+
+        public void newBlock() {
+            hasDictionary = false;
+            dictionaryLength = 0;
+        }
+
+        // Chooses how to store the value and returns the number of bytes writeTo() will write, the
+        // length field included.
+        public int encode(byte[] value) {
+            this.value = value;
+            settings.rawBytes.add(value.length);
+            if (value.length < settings.minValueBytes) {
+                return plain();
+            }
+            if (!hasDictionary && value.length <= MAX_DICTIONARY) {
+                hasDictionary = true;
+                dictionaryLength = value.length;
+                window = grow(window, value.length);
+                System.arraycopy(value, 0, window, 0, value.length);
+                Lz4.seed(window, value.length, seeded);
+                marker = DICTIONARY;
+                settings.storedBytes.add(value.length + 4);
+                settings.skipped.increment();
+                return 8 + value.length;
+            }
+            long start = System.nanoTime();
+            if (!hasDictionary) {
+                // too big to be a dictionary; compressed on its own
+                hasDictionary = true;
+                dictionaryLength = 0;
+                Lz4.seed(window, 0, seeded);
+            }
+            window = grow(window, dictionaryLength + value.length);
+            System.arraycopy(value, 0, window, dictionaryLength, value.length);
+            System.arraycopy(seeded, 0, table, 0, table.length);
+            output = grow(output, Lz4.maxCompressedLength(value.length));
+            outputLength = Lz4.compress(window, dictionaryLength, dictionaryLength + value.length, table, output);
+            settings.compressNanos.add(System.nanoTime() - start);
+            if (outputLength + 8 >= value.length) {
+                return plain();
+            }
+            marker = COMPRESSED;
+            settings.storedBytes.add(outputLength + 8);
+            settings.compressed.increment();
+            return 12 + outputLength;
+        }
+
+        public void writeTo(DataOutput out) throws IOException {
+            if (marker == COMPRESSED) {
+                out.writeInt(COMPRESSED);
+                out.writeInt(value.length);
+                out.writeInt(outputLength);
+                out.write(output, 0, outputLength);
+            } else {
+                if (marker == DICTIONARY) {
+                    out.writeInt(DICTIONARY);
+                }
+                out.writeInt(value.length);
+                out.write(value);
+            }
+            value = null;
+        }
+
+        private int plain() {
+            marker = 0;
+            settings.storedBytes.add(value.length);
+            settings.skipped.increment();
+            return 4 + value.length;
+        }
+
+        private static byte[] grow(byte[] buffer, int length) {
+            return buffer.length >= length ? buffer : new byte[Math.max(length, buffer.length * 2)];
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.example.db;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*
+ * Live counters of a database, meant to be polled by a metrics reporter. Recording is a few LongAdder
+ * increments and nothing allocates; reading sums the adders, so values are only loosely consistent
+ * with each other while operations are in flight.
+ *
+ * Misses aren't logged unless setMissLogSampling(n) is called, and then only about 1 in n of them.
+ */
+public class DatabaseStats {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder sets = new LongAdder();
+    private final LongAdder deletes = new LongAdder();
+    private final LongAdder deleteMisses = new LongAdder();
+    private final LatencyHistogram getLatency = new LatencyHistogram();
+    private final LatencyHistogram setLatency = new LatencyHistogram();
+    private final LatencyHistogram deleteLatency = new LatencyHistogram();
+    private final LongSupplier size;
+    private volatile int missLogSampling;
+    private volatile Compression compression;
+
+    public DatabaseStats(LongSupplier size) {
+        this.size = size;
+    }
+
+    public void recordHit(long startNanos) {
+        hits.increment();
+        getLatency.record(System.nanoTime() - startNanos);
+    }
+
+    public void recordMiss(Object key, long startNanos) {
+        misses.increment();
+        getLatency.record(System.nanoTime() - startNanos);
+        logMiss(key);
+    }
+
+    public void recordSet(long startNanos) {
+        sets.increment();
+        setLatency.record(System.nanoTime() - startNanos);
+    }
+
+    public void recordDelete(long startNanos) {
+        deletes.increment();
+        deleteLatency.record(System.nanoTime() - startNanos);
+    }
+
+    public void recordDeleteMiss(Object key, long startNanos) {
+        deleteMisses.increment();
+        deleteLatency.record(System.nanoTime() - startNanos);
+        logMiss(key);
+    }
+
+    // Counts a batch's mutations; batches have no per-key latency.
+    public void recordBatch(int setCount, int deleteCount) {
+        sets.add(setCount);
+        deletes.add(deleteCount);
+    }
+
+    // Log about one in every n misses; 0 turns miss logging off (the default).
+    public void setMissLogSampling(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Sampling rate must not be negative: " + n);
+        }
+        missLogSampling = n;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public double hitRatio() {
+        long hitCount = hits.sum();
+        long requests = hitCount + misses.sum();
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    public long sets() {
+        return sets.sum();
+    }
+
+    public long deletes() {
+        return deletes.sum();
+    }
+
+    public long deleteMisses() {
+        return deleteMisses.sum();
+    }
+
+    // Number of keys, or -1 if the backend can't tell cheaply.
+    public long size() {
+        return size.getAsLong();
+    }
+
+    public LatencyHistogram getLatency() {
+        return getLatency;
+    }
+
+    public LatencyHistogram setLatency() {
+        return setLatency;
+    }
+
+    public LatencyHistogram deleteLatency() {
+        return deleteLatency;
+    }
+
+    // Ratio and cost of value compression, or null if the database doesn't compress.
+    public Compression compression() {
+        return compression;
+    }
+
+    void reportCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + hits() + " misses=" + misses() + " sets=" + sets() + " deletes=" + deletes()
+                + " deleteMisses=" + deleteMisses() + " size=" + size()
+                + "\n  get: " + getLatency + "\n  set: " + setLatency + "\n  delete: " + deleteLatency
+                + (compression == null ? "" : "\n  compression: " + compression);
+    }
+
+    private void logMiss(Object key) {
+        int sampling = missLogSampling;
+        if (sampling > 0 && ThreadLocalRandom.current().nextInt(sampling) == 0) {
+            System.out.println("Key doesn't exist in db: " + key);
+        }
+    }
+}
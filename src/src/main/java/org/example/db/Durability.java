@@ -0,0 +1,10 @@
+package org.example.db;
+
+public enum Durability {
+    // wait until the record is fsynced; concurrent writers share one fsync (group commit)
+    FSYNC,
+    // wait until the record is handed to the OS page cache, no fsync
+    BUFFERED,
+    // return immediately; a background flusher writes and fsyncs shortly after
+    ASYNC
+}
@@ -0,0 +1,39 @@
+package org.example.db;
+
+import java.util.HashMap;
+import java.util.function.BiConsumer;
+
+// The original single-threaded in-memory store.
+public class HashMapEngine<K,V> implements StorageEngine<K,V> {
+    private final HashMap<K,V> map = new HashMap<>();
+
+    @Override
+    public V get(K key) {
+        return map.get(key);
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public void put(K key, V value) {
+        map.put(key, value);
+    }
+
+    @Override
+    public void remove(K key) {
+        map.remove(key);
+    }
+
+    @Override
+    public long size() {
+        return map.size();
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        map.forEach(action);
+    }
+}
@@ -0,0 +1,306 @@
+package org.example.db;
+
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/*
+ * Single-threaded chained hash table that grows Redis-style: when it passes its load factor it
+ * allocates a table twice the size and keeps both, and every get/put/remove moves a few buckets from
+ * the old table to the new one. No call ever rehashes the whole table, so there is no latency spike
+ * at resize time; the cost is spread over the next few thousand operations.
+ *
+ * While a rehash is running, new keys go to the new table and lookups check both. A step migrates at
+ * most REHASH_BUCKETS non-empty buckets and looks at no more than REHASH_EMPTY_VISITS empty ones.
+ * Since the new table only fills up after another 0.75 * capacity inserts and each insert migrates
+ * several buckets, a rehash is always finished long before the next one is due.
+ *
+ * Bucket arrays are split into chunks of CHUNK_SIZE allocated on first write, because zeroing one
+ * array of tens of millions of slots is itself a stall of tens of milliseconds.
+ *
+ * Even get() moves buckets, so the table must only be used by one thread at a time. It may be handed
+ * from thread to thread, but two calls that overlap fail with ConcurrentModificationException rather
+ * than corrupt the table; use StripedEngine or MvccEngine for shared access.
+ */
+public class IncrementalHashEngine<K,V> implements StorageEngine<K,V> {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int REHASH_BUCKETS = 4;
+    private static final int REHASH_EMPTY_VISITS = 10 * REHASH_BUCKETS;
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private Table<K,V> table;
+    // old table while rehashing, otherwise null
+    private Table<K,V> draining;
+    // next bucket of draining to migrate
+    private int rehashIndex;
+    private int size;
+    private int threshold;
+    // thread inside a call, null between calls; the handover also publishes one caller's writes to the next
+    private final AtomicReference<Thread> user = new AtomicReference<>();
+
+    public IncrementalHashEngine() {
+        table = new Table<>(INITIAL_CAPACITY);
+        threshold = (int) (INITIAL_CAPACITY * LOAD_FACTOR);
+    }
+
+    @Override
+    public V get(K key) {
+        boolean entered = enter();
+        try {
+            Node<K,V> node = find(key);
+            return node == null ? null : node.value;
+        } finally {
+            exit(entered);
+        }
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        boolean entered = enter();
+        try {
+            return find(key) != null;
+        } finally {
+            exit(entered);
+        }
+    }
+
+    @Override
+    public void put(K key, V value) {
+        boolean entered = enter();
+        try {
+            insert(key, value);
+        } finally {
+            exit(entered);
+        }
+    }
+
+    private void insert(K key, V value) {
+        int hash = hash(key);
+        if (draining != null) {
+            rehashStep();
+        }
+        Node<K,V> node = findIn(draining, key, hash);
+        if (node == null) {
+            node = findIn(table, key, hash);
+        }
+        if (node != null) {
+            node.value = value;
+            return;
+        }
+        int index = hash & table.mask;
+        table.set(index, new Node<>(key, hash, value, table.get(index)));
+        if (++size > threshold) {
+            startRehash();
+        }
+    }
+
+    @Override
+    public void remove(K key) {
+        boolean entered = enter();
+        try {
+            int hash = hash(key);
+            if (draining != null) {
+                rehashStep();
+            }
+            if (!removeFrom(draining, key, hash)) {
+                removeFrom(table, key, hash);
+            }
+        } finally {
+            exit(entered);
+        }
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        boolean entered = enter();
+        try {
+            forEachIn(draining, action);
+            forEachIn(table, action);
+        } finally {
+            exit(entered);
+        }
+    }
+
+    public boolean isRehashing() {
+        return draining != null;
+    }
+
+    // Claims the table for the calling thread; false if it already holds it, as in a forEach callback.
+    private boolean enter() {
+        Thread current = Thread.currentThread();
+        if (user.get() == current) {
+            return false;
+        }
+        if (!user.compareAndSet(null, current)) {
+            throw new ConcurrentModificationException("IncrementalHashEngine is single-threaded but was called from "
+                    + current.getName() + " while " + user.get() + " was using it");
+        }
+        return true;
+    }
+
+    private void exit(boolean entered) {
+        if (entered) {
+            user.set(null);
+        }
+    }
+
+    private Node<K,V> find(K key) {
+        int hash = hash(key);
+        if (draining != null) {
+            rehashStep();
+            Node<K,V> node = findIn(draining, key, hash);
+            if (node != null) {
+                return node;
+            }
+        }
+        return findIn(table, key, hash);
+    }
+
+    private static <K,V> Node<K,V> findIn(Table<K,V> table, K key, int hash) {
+        if (table == null) {
+            return null;
+        }
+        for (Node<K,V> node = table.get(hash & table.mask); node != null; node = node.next) {
+            if (node.hash == hash && (node.key == key || (key != null && key.equals(node.key)))) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private static <K,V> void forEachIn(Table<K,V> table, BiConsumer<? super K, ? super V> action) {
+        if (table == null) {
+            return;
+        }
+        for (int i = 0; i < table.capacity(); i++) {
+            for (Node<K,V> node = table.get(i); node != null; node = node.next) {
+                action.accept(node.key, node.value);
+            }
+        }
+    }
+
+    private boolean removeFrom(Table<K,V> table, K key, int hash) {
+        if (table == null) {
+            return false;
+        }
+        int index = hash & table.mask;
+        Node<K,V> previous = null;
+        for (Node<K,V> node = table.get(index); node != null; previous = node, node = node.next) {
+            if (node.hash == hash && (node.key == key || (key != null && key.equals(node.key)))) {
+                if (previous == null) {
+                    table.set(index, node.next);
+                } else {
+                    previous.next = node.next;
+                }
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void startRehash() {
+        if (draining != null) {
+            // only reachable if a rehash is outpaced, which the step sizes rule out; finish it rather than nest
+            while (draining != null) {
+                rehashStep();
+            }
+        }
+        draining = table;
+        table = new Table<>(draining.capacity() << 1);
+        threshold = (int) (table.capacity() * LOAD_FACTOR);
+        rehashIndex = 0;
+    }
+
+    // Moves up to REHASH_BUCKETS buckets from the old table into the new one.
+    private void rehashStep() {
+        int migrated = 0;
+        int emptyVisits = 0;
+        int capacity = draining.capacity();
+        while (migrated < REHASH_BUCKETS && rehashIndex < capacity) {
+            Node<K,V> node = draining.get(rehashIndex);
+            if (node == null) {
+                rehashIndex++;
+                if (++emptyVisits == REHASH_EMPTY_VISITS) {
+                    break;
+                }
+                continue;
+            }
+            draining.set(rehashIndex++, null);
+            while (node != null) {
+                Node<K,V> next = node.next;
+                int index = node.hash & table.mask;
+                node.next = table.get(index);
+                table.set(index, node);
+                node = next;
+            }
+            migrated++;
+        }
+        if (rehashIndex == capacity) {
+            draining = null;
+        }
+    }
+
+    private static int hash(Object key) {
+        if (key == null) {
+            return 0;
+        }
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    // Bucket array split into lazily allocated chunks.
+    private static final class Table<K,V> {
+        final int mask;
+        private final Node<K,V>[][] chunks;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Table(int capacity) {
+            mask = capacity - 1;
+            chunks = (Node<K,V>[][]) new Node[(capacity + CHUNK_SIZE - 1) >>> CHUNK_BITS][];
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+
+        Node<K,V> get(int index) {
+            Node<K,V>[] chunk = chunks[index >>> CHUNK_BITS];
+            return chunk == null ? null : chunk[index & (CHUNK_SIZE - 1)];
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        void set(int index, Node<K,V> node) {
+            Node<K,V>[] chunk = chunks[index >>> CHUNK_BITS];
+            if (chunk == null) {
+                if (node == null) {
+                    return;
+                }
+                chunk = (Node<K,V>[]) new Node[Math.min(CHUNK_SIZE, capacity())];
+                chunks[index >>> CHUNK_BITS] = chunk;
+            }
+            chunk[index & (CHUNK_SIZE - 1)] = node;
+        }
+    }
+
+    private static final class Node<K,V> {
+        final K key;
+        final int hash;
+        V value;
+        Node<K,V> next;
+
+        Node(K key, int hash, V value, Node<K,V> next) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+            this.next = next;
+        }
+    }
+}
@@ -1,33 +1,1803 @@
 package org.example.db;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class KeyValueDatabase<K,V> {
-    HashMap<K,V> database;
+    private static final int WRITE_STRIPES = 64;
+    private static final long TTL_TICK_MILLIS = 10;
+    private static final int HYDRATE_BATCH = 1024;
+    // entry versions are kept per key hash slot; a slot's keys all fall in one write stripe
+    private static final int VERSION_SLOTS = 1 << 14;
+    // entries a single-threaded engine copies in per operation while it hydrates
+    private static final int HYDRATE_STEP = 16;
+    // plain 8-byte expiry time, the format OP_EXPIRE records have always used
+    private static final Codec<Long> DEADLINE = new Codec<Long>() {
+        @Override
+        public int encodedSize(Long value) {
+            return Long.BYTES;
+        }
+
+        @Override
+        public void encode(Long value, ByteBuffer out) {
+            out.putLong(value);
+        }
+
+        @Override
+        public Long decode(ByteBuffer in) {
+            return in.getLong();
+        }
+    };
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".kvs";
+    private static final String LOG_PREFIX = "wal-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String STREAMS_PREFIX = "streams-";
+
+    StorageEngine<K,V> database;
+    private WriteAheadLog log;
+    private Durability defaultDurability = Durability.FSYNC;
+    // Orders log appends with engine updates per key; a single stripe unless the engine is concurrent.
+    private ReentrantLock[] stripes;
+    // Keys with a TTL and their timers; the wheel fires them, get() also drops them lazily. Concurrent
+    // engines are swept by a background ticker, others on the caller's thread at the next operation.
+    private final ConcurrentHashMap<K, TimingWheel.Timer<K>> expirations = new ConcurrentHashMap<>();
+    private TimingWheel<K> wheel;
+    private volatile ScheduledExecutorService expirer;
+    private volatile boolean expiring;
+    private final DatabaseStats stats = new DatabaseStats(() -> database == null ? 0 : database.size());
+    // how keys and values are written to the log and snapshot files
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    // compresses values in snapshot files; null stores them as is
+    private volatile Compression compression;
+    // Directory mode: snapshot-N.kvs holds the state when wal-N.log was started. generation is the
+    // current log's N and only changes with all stripes held.
+    private Path directory;
+    private long generation;
+    private long persistedGeneration;
+    private final Object checkpointLock = new Object();
+    private ScheduledExecutorService checkpointer;
+    private volatile boolean checkpointDue;
+    private volatile Exception lastCheckpointError;
+    // The snapshot the database started from, while its entries are still being copied into the engine.
+    // Reads fall through to it; keys removed since startup are shadowed so they aren't brought back.
+    private volatile SnapshotFile hydrating;
+    private SnapshotFile.Cursor hydrationCursor;
+    private final Set<K> shadowed = ConcurrentHashMap.newKeySet();
+    private Thread hydrator;
+    // Secondary indexes by name, and the same indexes as a list for the write path. The list is only
+    // replaced with every stripe held, so a writer sees the same indexes for its whole update.
+    private final Map<String, SecondaryIndex<K,V>> indexes = new ConcurrentHashMap<>();
+    private volatile List<SecondaryIndex<K,V>> indexList = Collections.emptyList();
+    // Bumped after every change to a key in the slot, by a writer holding its stripe. Two keys sharing a
+    // slot only costs a transaction a spurious retry.
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_SLOTS);
+    // null until enableChangeFeed(); watchers by key, each woken by the key's next change
+    private volatile ChangeFeed<K,V> changeFeed;
+    // Pending increments of counter keys, on top of their stored values; counting once there's been one.
+    private final ConcurrentHashMap<K, Counter> counters = new ConcurrentHashMap<>();
+    private volatile boolean counting;
+    private ScheduledExecutorService counterFlusher;
+    private volatile boolean counterFlushDue;
+    // Values written with writeValueStream(), kept in chunks beside the engine; streaming once there's one.
+    private final ConcurrentHashMap<K, ChunkedValue> streamed = new ConcurrentHashMap<>();
+    private volatile boolean streaming;
+    // chunks read from the log whose end record hasn't been reached yet; only used while replaying
+    private final Map<K, List<byte[]>> replayedChunks = new HashMap<>();
+    // null for AsyncExecutors.defaultExecutor()
+    private volatile Executor asyncExecutor;
+    // One thread for the async calls of an engine that isn't thread-safe, created on first use, and how
+    // many of its calls haven't finished.
+    private ExecutorService serialExecutor;
+    private final AtomicInteger serialPending = new AtomicInteger();
+    private final ConcurrentHashMap<K, Watch<K,V>> watchers = new ConcurrentHashMap<>();
+    // Entries the engine dropped to stay within its budget, cleaned up by the next operation.
+    private final ConcurrentLinkedQueue<Map.Entry<K,V>> evicted = new ConcurrentLinkedQueue<>();
+
+    // Java serialization for keys and values, which every existing log was written with.
+    public KeyValueDatabase() {
+        this(Codecs.serializable(), Codecs.serializable());
+    }
+
+    public KeyValueDatabase(Codec<K> keyCodec, Codec<V> valueCodec) {
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+    }
+
+    // Compresses the values of snapshot files written from now on and reports the savings in stats().
+    // Set it before init(directory ...) so the startup snapshot's reads are counted too; files are
+    // readable with or without it. Pass the same instance to an LsmEngine to cover its tables.
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+        stats.reportCompression(compression);
+    }
+
+    // In-memory with the default IncrementalHashEngine, which is single-threaded: use the database from one
+    // thread at a time (handing it between threads is fine). Overlapping calls fail fast with
+    // ConcurrentModificationException; pass a StripedEngine or MvccEngine to share it between threads.
     public void init() {
-         database = new HashMap<>();
+        init(new IncrementalHashEngine<>());
+    }
+
+    public void init(StorageEngine<K,V> engine) {
+        database = engine;
+        stripes = new ReentrantLock[engine.isConcurrent() ? WRITE_STRIPES : 1];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        wheel = new TimingWheel<>(TTL_TICK_MILLIS, System.currentTimeMillis());
+        // the listener runs inside the engine's locks, so the stripes are only taken later, in runPending()
+        engine.setEvictionListener((key, value) -> evicted.add(new AbstractMap.SimpleImmutableEntry<>(key, value)));
+    }
+
+    // Durable mode: replays the log into memory, then logs every mutation before applying it. Same
+    // single-threaded default engine as init().
+    public void init(Path logFile) throws IOException {
+        init(logFile, Durability.FSYNC);
+    }
+
+    public void init(Path logFile, Durability defaultDurability) throws IOException {
+        init(new IncrementalHashEngine<>(), logFile, defaultDurability);
+    }
+
+    public void init(StorageEngine<K,V> engine, Path logFile, Durability defaultDurability) throws IOException {
+        init(engine);
+        this.defaultDurability = defaultDurability;
+        log = WriteAheadLog.open(logFile, this::replay);
+        // chunks of a stream that was being logged when the process stopped
+        replayedChunks.clear();
+    }
+
+    // Directory mode: maps the newest snapshot in the directory and serves reads from it straight away
+    // while its entries are copied into the engine, replays only the log written since, and checkpoints
+    // every checkpointInterval (null to only checkpoint on request).
+    public void init(StorageEngine<K,V> engine, Path directory, Durability defaultDurability,
+                     Duration checkpointInterval) throws IOException {
+        init(engine);
+        this.defaultDurability = defaultDurability;
+        this.directory = directory;
+        Files.createDirectories(directory);
+        long snapshot = -1;
+        List<Long> logs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    // a checkpoint that didn't finish
+                    Files.delete(file);
+                } else if (generationOf(name, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) >= 0) {
+                    snapshot = Math.max(snapshot, generationOf(name, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX));
+                } else if (generationOf(name, LOG_PREFIX, LOG_SUFFIX) >= 0) {
+                    logs.add(generationOf(name, LOG_PREFIX, LOG_SUFFIX));
+                }
+            }
+        }
+        if (snapshot >= 0) {
+            // snapshots are renamed into place once complete, so a broken one is real damage, not a crash
+            startHydration(SnapshotFile.open(snapshotPath(snapshot), compression));
+            if (Files.exists(streamsPath(snapshot))) {
+                WriteAheadLog.open(streamsPath(snapshot), this::replay).close();
+            }
+        }
+        long start = Math.max(snapshot, 0);
+        persistedGeneration = start;
+        logs.removeIf(g -> g < start);
+        if (logs.isEmpty()) {
+            logs.add(start);
+        }
+        Collections.sort(logs);
+        // a crash between switching logs and finishing the snapshot leaves more than one log to replay
+        for (int i = 0; i < logs.size() - 1; i++) {
+            WriteAheadLog.open(logPath(logs.get(i)), this::replay).close();
+        }
+        generation = logs.get(logs.size() - 1);
+        log = WriteAheadLog.open(logPath(generation), this::replay);
+        replayedChunks.clear();
+        deleteBefore(start);
+
+        if (hydrating != null && engine.isConcurrent()) {
+            hydrator = new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted() && hydrateStep(HYDRATE_BATCH)) {
+                    // keep going
+                }
+            }, "kv-hydrator");
+            hydrator.setDaemon(true);
+            hydrator.start();
+        }
+        if (checkpointInterval != null) {
+            checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "kv-checkpointer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = checkpointInterval.toMillis();
+            checkpointer.scheduleWithFixedDelay(this::scheduledCheckpoint, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Writes the current state to a new snapshot file and drops the files it supersedes. Writers wait
+    // only while the log is switched and the view taken: an MvccEngine snapshot, otherwise a copy of
+    // the entry references. Serializing, sorting and writing happen without any lock.
+    public void checkpoint() throws IOException {
+        if (directory == null) {
+            throw new IllegalStateException("Checkpoints need a database opened on a directory");
+        }
+        persist(capture());
+    }
+
+    // The last error that made a scheduled checkpoint give up, or null; the log still holds every write
+    // and the checkpoint is tried again.
+    public Exception lastCheckpointError() {
+        return lastCheckpointError;
     }
+
+    // Whether reads may still be served from the snapshot the database started from.
+    public boolean isHydrating() {
+        return hydrating != null;
+    }
+
     public void set(K key,V value) {
-        database.put(key, value);
+        set(key, value, defaultDurability);
+    }
+
+    public void set(K key, V value, Durability durability) {
+        write(key, value, 0, durability);
+    }
+
+    // Stores the value and expires it after ttl; a later set without a ttl makes the key persistent again.
+    public void set(K key, V value, Duration ttl) {
+        write(key, value, deadline(ttl), defaultDurability);
+    }
+
+    // Sets a ttl on an existing key. Returns false if the key doesn't exist.
+    public boolean expire(K key, Duration ttl) {
+        long deadline = deadline(ttl);
+        long seq = 0;
+        ReentrantLock stripe = stripeFor(key);
+        stripe.lock();
+        try {
+            if (!containsLive(key)) {
+                return false;
+            }
+            if (log != null) {
+                seq = appendExpire(key, deadline);
+            }
+            reschedule(key, deadline);
+            publish(Change.Type.EXPIRE, key, null, deadline);
+        } finally {
+            stripe.unlock();
+        }
+        if (log != null) {
+            await(seq, defaultDurability);
+        }
+        return true;
     }
+
+    private void write(K key, V value, long deadline, Durability durability) {
+        long start = System.nanoTime();
+        database.checkValue(value);
+        if (log == null && deadline == 0 && !expiring && !database.isConcurrent()) {
+            // nothing to order a single-threaded engine's writes with
+            putEntry(key, value);
+            publish(Change.Type.SET, key, value, 0);
+            stats.recordSet(start);
+            return;
+        }
+        runPending();
+        long seq = 0;
+        ReentrantLock stripe = stripeFor(key);
+        stripe.lock();
+        try {
+            if (log != null) {
+                seq = append(WriteAheadLog.OP_SET, key, value);
+                if (deadline != 0) {
+                    seq = appendExpire(key, deadline);
+                }
+            }
+            putEntry(key, value);
+            reschedule(key, deadline);
+            publish(Change.Type.SET, key, value, 0);
+            if (deadline != 0) {
+                publish(Change.Type.EXPIRE, key, null, deadline);
+            }
+        } finally {
+            stripe.unlock();
+        }
+        if (log != null) {
+            await(seq, durability);
+        }
+        stats.recordSet(start);
+    }
+
     public V get(K key) {
-        V value = null;
-        if(!database.containsKey(key)) {
-            System.out.println("Key doesn't exist in db: "+ key);
-        } else {
+        long start = System.nanoTime();
+        runPending();
+        if (expiring) {
+            TimingWheel.Timer<K> timer = expirations.get(key);
+            if (timer != null && timer.deadline <= System.currentTimeMillis()) {
+                expireEntry(timer);
+                stats.recordMiss(key, start);
+                return null;
+            }
+        }
+        // read first: the hydrator may copy the key in and finish between the engine's miss and this
+        boolean hydrated = hydrating == null;
+        V value = database.get(key);
+        if(value == null && !database.containsKey(key)) {
+            if (hydrated || !hydrate(key)) {
+                stats.recordMiss(key, start);
+                return null;
+            }
             value = database.get(key);
-        } 
+        }
+        stats.recordHit(start);
         return value;
     }
-    
-    public boolean delete(K key) {
-        if(!database.containsKey(key)) {
-            System.out.println("Key doesn't exist in db: "+ key);
+
+    // Values of the keys that exist, in the collection's order.
+    public Map<K,V> multiGet(Collection<? extends K> keys) {
+        Map<K,V> result = new LinkedHashMap<>();
+        for (K key : keys) {
+            V value = get(key);
+            if (value != null || database.containsKey(key)) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    public void multiSet(Map<? extends K, ? extends V> entries) {
+        WriteBatch<K,V> batch = new WriteBatch<>();
+        for (Map.Entry<? extends K, ? extends V> entry : entries.entrySet()) {
+            batch.put(entry.getKey(), entry.getValue());
+        }
+        write(batch);
+    }
+
+    public void write(WriteBatch<K,V> batch) {
+        write(batch, defaultDurability);
+    }
+
+    // Applies the batch in order under each touched stripe, locked once each in ascending order.
+    public void write(WriteBatch<K,V> batch, Durability durability) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        apply(batch, null, durability);
+    }
+
+    // Sets the key only if its current value equals expected; null expects no value (or a null one).
+    public boolean compareAndSet(K key, V expected, V value) {
+        return compareAndSet(key, expected, value, defaultDurability);
+    }
+
+    public boolean compareAndSet(K key, V expected, V value, Durability durability) {
+        long start = System.nanoTime();
+        database.checkValue(value);
+        runPending();
+        long seq = 0;
+        ReentrantLock stripe = stripeFor(key);
+        stripe.lock();
+        try {
+            V current = containsLive(key) ? database.get(key) : null;
+            if (!Objects.equals(current, expected)) {
+                return false;
+            }
+            if (log != null) {
+                seq = append(WriteAheadLog.OP_SET, key, value);
+            }
+            putEntry(key, value);
+            reschedule(key, 0);
+            publish(Change.Type.SET, key, value, 0);
+        } finally {
+            stripe.unlock();
+        }
+        if (log != null) {
+            await(seq, durability);
+        }
+        stats.recordSet(start);
+        return true;
+    }
+
+    // The key's value, or if it has none the mapping's result, which is stored unless it's null. The
+    // mapping runs at most once per call, with the key's stripe held, so it should be quick.
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mapping) {
+        V existing = get(key);
+        if (existing != null) {
+            return existing;
+        }
+        long start = System.nanoTime();
+        long seq = 0;
+        V value;
+        ReentrantLock stripe = stripeFor(key);
+        stripe.lock();
+        try {
+            if (containsLive(key)) {
+                V current = database.get(key);
+                if (current != null) {
+                    return current;
+                }
+            }
+            value = mapping.apply(key);
+            if (value == null) {
+                return null;
+            }
+            database.checkValue(value);
+            if (log != null) {
+                seq = append(WriteAheadLog.OP_SET, key, value);
+            }
+            putEntry(key, value);
+            reschedule(key, 0);
+            publish(Change.Type.SET, key, value, 0);
+        } finally {
+            stripe.unlock();
+        }
+        if (log != null) {
+            await(seq, defaultDurability);
+        }
+        stats.recordSet(start);
+        return value;
+    }
+
+    // For Long values: adds delta without taking a lock or allocating. Increments land in a LongAdder
+    // per key, whose striped cells keep threads hammering one hot key from contending, and reach the
+    // stored value only when counters are flushed; sum(key) includes what's pending, get(key) doesn't. A
+    // set or delete of the key replaces the counter, pending increments included.
+    public void incrementBy(K key, long delta) {
+        if (counterFlushDue) {
+            runPending();
+        }
+        Counter cell = counters.get(key);
+        if (cell == null) {
+            cell = newCounter(key);
+        }
+        cell.add(delta);
+        if (cell.retired) {
+            // a flush dropped the idle counter, maybe before it took this delta; move what's left on
+            long missed = cell.sumThenReset();
+            if (missed != 0) {
+                incrementBy(key, missed);
+            }
+        }
+    }
+
+    public void decrementBy(K key, long delta) {
+        incrementBy(key, -delta);
+    }
+
+    // The stored value plus pending increments; exact once no increment is in flight.
+    public long sum(K key) {
+        ReentrantLock stripe = stripeFor(key);
+        stripe.lock();
+        try {
+            // the stripe keeps a flush from moving increments into the value between the two reads
+            long stored = counterValue(key, containsLive(key) ? database.get(key) : null);
+            Counter cell = counters.get(key);
+            return cell == null ? stored : stored + cell.sum();
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    // Folds every counter's pending increments into its stored value, logged like a set with the
+    // default durability. close() flushes too; without a log this only makes get() see the counts.
+    public void flushCounters() {
+        long seq = 0;
+        for (Map.Entry<K, Counter> counter : counters.entrySet()) {
+            seq = Math.max(seq, flushCounter(counter.getKey(), counter.getValue()));
+        }
+        if (log != null && seq != 0) {
+            await(seq, defaultDurability);
+        }
+    }
+
+    // Flushes counters every interval, bounding what a crash can lose: from a background thread for a
+    // concurrent engine, otherwise in the caller's next operation once the interval is up.
+    public synchronized void flushCountersEvery(Duration interval) {
+        if (counterFlusher != null) {
+            counterFlusher.shutdown();
+        }
+        counterFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "kv-counter-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long millis = interval.toMillis();
+        counterFlusher.scheduleWithFixedDelay(this::scheduledCounterFlush, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduledCounterFlush() {
+        if (!database.isConcurrent()) {
+            // the engine may only be used on the caller's thread, as for checkpoints
+            counterFlushDue = true;
+            return;
+        }
+        try {
+            flushCounters();
+        } catch (RuntimeException ignored) {
+            // retried at the next interval
+        }
+    }
+
+    private Counter newCounter(K key) {
+        counterValue(key, get(key));
+        counting = true;
+        return counters.computeIfAbsent(key, k -> new Counter());
+    }
+
+    // Folds the counter's pending increments into the stored value. A counter with nothing pending is
+    // retired and dropped from the map, so keys that stop being incremented don't keep one forever;
+    // an increment that still reaches it sees it's retired and moves its delta to a new one.
+    @SuppressWarnings("unchecked")
+    private long flushCounter(K key, Counter cell) {
+        long seq = 0;
+        ReentrantLock stripe = stripeFor(key);
+        stripe.lock();
+        try {
+            // first, since an expiry it notices drops the counter
+            V stored = containsLive(key) ? database.get(key) : null;
+            if (counters.get(key) != cell) {
+                // replaced by a set, delete or expiry since
+                return 0;
+            }
+            long delta = cell.sumThenReset();
+            if (delta == 0) {
+                cell.retired = true;
+                counters.remove(key, cell);
+                // increments that came in before it was retired; later ones are moved by their callers
+                delta = cell.sumThenReset();
+                if (delta == 0) {
+                    return 0;
+                }
+            }
+            V value = (V) Long.valueOf(counterValue(key, stored) + delta);
+            if (log != null) {
+                seq = append(WriteAheadLog.OP_SET, key, value);
+                // a logged set clears the ttl on replay
+                long deadline = deadline(key);
+                if (deadline != 0) {
+                    seq = appendExpire(key, deadline);
+                }
+            }
+            storeEntry(key, value);
+            publish(Change.Type.SET, key, value, 0);
+        } finally {
+            stripe.unlock();
+        }
+        return seq;
+    }
+
+    private long counterValue(K key, V stored) {
+        if (stored == null) {
+            return 0;
+        }
+        if (!(stored instanceof Long)) {
+            throw new IllegalStateException("Not a counter: " + key);
+        }
+        return (Long) stored;
+    }
+
+    public Transaction<K,V> beginTransaction() {
+        return new Transaction<>(this);
+    }
+
+    // Runs body in a new transaction and commits it, starting over with a fresh one whenever the commit
+    // finds a conflict. Returns what body returned in the attempt that committed.
+    public <R> R transaction(Function<? super Transaction<K,V>, ? extends R> body) {
+        while (true) {
+            Transaction<K,V> transaction = beginTransaction();
+            R result = body.apply(transaction);
+            if (transaction.commit()) {
+                return result;
+            }
+        }
+    }
+
+    boolean commit(Transaction<K,V> transaction) {
+        return commit(transaction, defaultDurability);
+    }
+
+    boolean commit(Transaction<K,V> transaction, Durability durability) {
+        if (transaction.writes.isEmpty() && transaction.reads.isEmpty()) {
+            return true;
+        }
+        return apply(transaction.writes, transaction.reads, durability);
+    }
+
+    // Locks the stripes of the batch's keys and of the keys read, in ascending order, and applies the
+    // batch unless one of the read keys' versions has moved on from the one given.
+    private boolean apply(WriteBatch<K,V> batch, Map<K, Long> reads, Durability durability) {
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.ops.get(i) == WriteAheadLog.OP_SET) {
+                database.checkValue(batch.values.get(i));
+            }
+        }
+        runPending();
+        // encode outside the locks; only the append itself has to be ordered with the updates
+        byte[] record = log == null || batch.isEmpty() ? null : batch.toLogRecord(keyCodec, valueCodec);
+        boolean[] touched = new boolean[stripes.length];
+        for (K key : batch.keys) {
+            touched[stripeIndex(key)] = true;
+        }
+        if (reads != null) {
+            for (K key : reads.keySet()) {
+                touched[stripeIndex(key)] = true;
+            }
+        }
+        long seq = 0;
+        int puts = 0;
+        int locked = 0;
+        try {
+            for (; locked < touched.length; locked++) {
+                if (touched[locked]) {
+                    stripes[locked].lock();
+                }
+            }
+            if (reads != null) {
+                for (Map.Entry<K, Long> read : reads.entrySet()) {
+                    if (version(read.getKey()) != read.getValue()) {
+                        return false;
+                    }
+                }
+            }
+            if (record != null) {
+                seq = appendRecord(WriteAheadLog.OP_BATCH, new byte[0], record);
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                K key = batch.keys.get(i);
+                if (batch.ops.get(i) == WriteAheadLog.OP_SET) {
+                    putEntry(key, batch.values.get(i));
+                    publish(Change.Type.SET, key, batch.values.get(i), 0);
+                    puts++;
+                } else {
+                    removeEntry(key);
+                    publish(Change.Type.DELETE, key, null, 0);
+                }
+                reschedule(key, 0);
+            }
+        } finally {
+            while (--locked >= 0) {
+                if (touched[locked]) {
+                    stripes[locked].unlock();
+                }
+            }
+        }
+        if (record != null) {
+            await(seq, durability);
+        }
+        stats.recordBatch(puts, batch.size() - puts);
+        return true;
+    }
+
+    // Indexes every value by what extractor returns for it, e.g. createIndex("city", User::city), so
+    // getByIndex("city", "Oslo") finds those keys without a scan. Null values and null extractions
+    // aren't indexed. The existing entries are indexed with writers held off; after that the index
+    // is updated with every set, delete and expiry under the key's stripe. Created before init(), an
+    // index is built as the database loads.
+    public void createIndex(String name, Function<? super V, ?> extractor) {
+        SecondaryIndex<K,V> index = new SecondaryIndex<>(name, extractor);
+        if (indexes.putIfAbsent(name, index) != null) {
+            throw new IllegalArgumentException("Index already exists: " + name);
+        }
+        if (database == null) {
+            // before init(): filled in as the log is replayed and the snapshot hydrated
+            indexList = new ArrayList<>(indexes.values());
+            return;
+        }
+        finishHydration();
+        int locked = 0;
+        try {
+            for (; locked < stripes.length; locked++) {
+                stripes[locked].lock();
+            }
+            // published first: a put that skipped the stripes and missed it now reindexes once we're done
+            List<SecondaryIndex<K,V>> current = new ArrayList<>(indexList);
+            current.add(index);
+            indexList = current;
+            try (Snapshot<K,V> view = database.snapshot()) {
+                view.forEach(index::add);
+            } catch (UnsupportedOperationException e) {
+                database.forEach(index::add);
+            }
+        } catch (RuntimeException e) {
+            dropIndex(name);
+            throw e;
+        } finally {
+            while (--locked >= 0) {
+                stripes[locked].unlock();
+            }
+        }
+    }
+
+    public boolean dropIndex(String name) {
+        SecondaryIndex<K,V> index = indexes.remove(name);
+        if (index == null) {
             return false;
+        }
+        if (database == null) {
+            indexList = new ArrayList<>(indexes.values());
+            return true;
+        }
+        int locked = 0;
+        try {
+            for (; locked < stripes.length; locked++) {
+                stripes[locked].lock();
+            }
+            List<SecondaryIndex<K,V>> current = new ArrayList<>(indexList);
+            current.remove(index);
+            indexList = current.isEmpty() ? Collections.emptyList() : current;
+        } finally {
+            while (--locked >= 0) {
+                stripes[locked].unlock();
+            }
+        }
+        return true;
+    }
+
+    // Entries whose value the named index maps to indexed, in O(result size). Runs without locks; each
+    // key is checked against its current value, so a concurrent write is seen either wholly or not at all.
+    public Map<K,V> getByIndex(String name, Object indexed) {
+        SecondaryIndex<K,V> index = indexes.get(name);
+        if (index == null) {
+            throw new IllegalArgumentException("No such index: " + name);
+        }
+        runPending();
+        // keys still only in the startup snapshot haven't been indexed yet
+        finishHydration();
+        Map<K,V> result = new LinkedHashMap<>();
+        for (K key : index.keys(indexed)) {
+            V value = database.get(key);
+            if (value != null && !isExpired(key) && indexed.equals(index.extract(value))) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    // Starts publishing every set, delete, ttl and expiry to a ring buffer of at least capacity changes.
+    // Returns the existing feed if there already is one.
+    public synchronized ChangeFeed<K,V> enableChangeFeed(int capacity) {
+        if (changeFeed == null) {
+            changeFeed = new ChangeFeed<>(capacity);
+        }
+        return changeFeed;
+    }
+
+    // The feed, or null before enableChangeFeed().
+    public ChangeFeed<K,V> changeFeed() {
+        return changeFeed;
+    }
+
+    // For replicas and migrations: visits a consistent copy of every entry and then every ttl, and
+    // returns the change feed offset it corresponds to (-1 without a feed), so that applying the feed
+    // from that offset on brings a copy up to date. Writers wait only while the view is taken, as for a
+    // checkpoint; the visiting happens after. Streamed values aren't included.
+    public long exportState(BiConsumer<? super K, ? super V> entries, BiConsumer<? super K, Long> deadlines) {
+        ChangeFeed<K,V> feed = changeFeed;
+        finishHydration();
+        Checkpoint<K,V> state = new Checkpoint<>();
+        long offset;
+        int locked = 0;
+        try {
+            for (; locked < stripes.length; locked++) {
+                stripes[locked].lock();
+            }
+            // every change is published under its stripe, so none is halfway through
+            offset = feed == null ? -1 : feed.nextOffset();
+            copyState(state);
+        } finally {
+            while (--locked >= 0) {
+                stripes[locked].unlock();
+            }
+        }
+        if (state.view != null) {
+            try (Snapshot<K,V> view = state.view) {
+                view.forEach(entries);
+            }
         } else {
-            System.out.println("Key removed from db: "+ key);
-            database.remove(key);
+            for (int i = 0; i < state.keys.size(); i++) {
+                entries.accept(state.keys.get(i), state.values.get(i));
+            }
+        }
+        state.deadlines.forEach(deadlines);
+        return offset;
+    }
+
+    // Visits every key without copying the values or holding writers off. Not a point in time: a key set
+    // or deleted during the call may or may not be visited, but every key present throughout is, once.
+    // Keys with only pending increments aren't there yet, as for get().
+    public void forEachKey(Consumer<? super K> action) {
+        finishHydration();
+        database.forEach((key, value) -> {
+            if (!isExpired(key)) {
+                action.accept(key);
+            }
+        });
+        if (streaming) {
+            for (K key : streamed.keySet()) {
+                if (!isExpired(key)) {
+                    action.accept(key);
+                }
+            }
+        }
+    }
+
+    // Waits for the key's next change (a set, delete, ttl or expiry) and returns it, or null if none
+    // came within timeout. Works without a change feed. Changes made before the call don't count.
+    public Change<K,V> watch(K key, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        // waiters are counted inside the map's compute, so the last one leaving can't drop a watch that
+        // a new waiter just joined
+        Watch<K,V> watch = watchers.compute(key, (k, current) -> {
+            Watch<K,V> joined = current == null ? new Watch<>() : current;
+            joined.waiters++;
+            return joined;
+        });
+        try {
+            synchronized (watch) {
+                long remaining;
+                while (watch.change == null && (remaining = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(watch, remaining);
+                }
+            }
+        } finally {
+            watchers.computeIfPresent(key, (k, current) -> current == watch && --current.waiters == 0 ? null : current);
+        }
+        synchronized (watch) {
+            return watch.change;
+        }
+    }
+
+    // When the key's ttl runs out, in epoch millis, or 0 if it has none.
+    public long deadline(K key) {
+        TimingWheel.Timer<K> timer = expiring ? expirations.get(key) : null;
+        return timer == null ? 0 : timer.deadline;
+    }
+
+    // Live counters, latency histograms and a size gauge; poll it from a metrics reporter.
+    public DatabaseStats stats() {
+        return stats;
+    }
+
+    // Point-in-time view for exports and backups; needs a versioned engine such as MvccEngine.
+    // Keys whose ttl ran out after the snapshot was taken are still visible in it.
+    public Snapshot<K,V> snapshot() {
+        finishHydration();
+        return database.snapshot();
+    }
+
+    // Range scans need an ordered engine such as SkipListEngine.
+    public ScanPage<K,V> scan(K from, K to, int limit) {
+        return scan(from, to, limit, false);
+    }
+
+    // Up to limit entries with from <= key < to, highest first if reverse; null bounds are open.
+    public ScanPage<K,V> scan(K from, K to, int limit, boolean reverse) {
+        return scan(new ScanPage.Cursor<>(from, true, to, false, reverse), limit);
+    }
+
+    // Next page of an earlier scan.
+    public ScanPage<K,V> scan(ScanPage.Cursor<K> cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Scan limit must be positive: " + limit);
+        }
+        // the snapshot file is in serialized-key order, not the engine's, so it can't be merged in
+        finishHydration();
+        Iterator<Map.Entry<K,V>> entries = database.scan(cursor.low, cursor.lowInclusive, cursor.high,
+                cursor.highInclusive, cursor.descending);
+        List<Map.Entry<K,V>> page = new ArrayList<>(Math.min(limit, 1024));
+        K last = null;
+        while (page.size() < limit && entries.hasNext()) {
+            Map.Entry<K,V> entry = entries.next();
+            last = entry.getKey();
+            if (!isExpired(last)) {
+                page.add(entry);
+            }
+        }
+        return new ScanPage<>(page, entries.hasNext() ? cursor.after(last) : null);
+    }
+
+    public ScanPage<K,V> prefixScan(String prefix) {
+        return prefixScan(prefix, Integer.MAX_VALUE);
+    }
+
+    // For String keys: every key starting with prefix, in order.
+    @SuppressWarnings("unchecked")
+    public ScanPage<K,V> prefixScan(String prefix, int limit) {
+        return scan((K) prefix, (K) prefixEnd(prefix), limit);
+    }
+
+    public boolean delete(K key) {
+        return delete(key, defaultDurability);
+    }
+
+    public boolean delete(K key, Durability durability) {
+        long start = System.nanoTime();
+        long seq = 0;
+        ReentrantLock stripe = stripeFor(key);
+        stripe.lock();
+        try {
+            if(!containsLive(key) && !(streaming && streamed.containsKey(key))) {
+                stats.recordDeleteMiss(key, start);
+                return false;
+            }
+            if (log != null) {
+                seq = append(WriteAheadLog.OP_DELETE, key, null);
+            }
+            removeEntry(key);
+            reschedule(key, 0);
+            publish(Change.Type.DELETE, key, null, 0);
+        } finally {
+            stripe.unlock();
+        }
+        if (log != null) {
+            await(seq, durability);
+        }
+        stats.recordDelete(start);
+        return true;
+    }
+
+    // Runs blocking calls (slow engines, logged writes) on this executor instead of the shared default
+    // from AsyncExecutors.defaultExecutor(). Pass e.g. AsyncExecutors.virtualThreadPerTask(). Engines
+    // that aren't thread-safe ignore it and use a thread of their own.
+    public void setAsyncExecutor(Executor executor) {
+        this.asyncExecutor = executor;
+    }
+
+    // Completes on the calling thread when the value is in memory, otherwise on the async executor.
+    public CompletableFuture<V> getAsync(K key) {
+        return async(isResident(key), () -> get(key));
+    }
+
+    public CompletableFuture<Void> setAsync(K key, V value) {
+        return setAsync(key, value, defaultDurability);
+    }
+
+    // Completes on the calling thread unless it has to wait for an fsync.
+    public CompletableFuture<Void> setAsync(K key, V value, Durability durability) {
+        return async(writesInMemory(durability), () -> {
+            set(key, value, durability);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> setAsync(K key, V value, Duration ttl) {
+        return async(writesInMemory(defaultDurability), () -> {
+            set(key, value, ttl);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Boolean> deleteAsync(K key) {
+        return deleteAsync(key, defaultDurability);
+    }
+
+    public CompletableFuture<Boolean> deleteAsync(K key, Durability durability) {
+        // a delete first looks the key up
+        return async(isResident(key) && writesInMemory(durability), () -> delete(key, durability));
+    }
+
+    // Engines that aren't thread-safe get their blocking calls run one at a time on a single thread of
+    // their own, and calls that could complete inline queue behind those still pending, so calls keep
+    // the order they were made in. The caller must still not make synchronous calls until they're done.
+    private <T> CompletableFuture<T> async(boolean inline, Supplier<T> operation) {
+        boolean concurrent = database.isConcurrent();
+        if (inline && (concurrent || serialPending.get() == 0)) {
+            try {
+                return CompletableFuture.completedFuture(operation.get());
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        Executor executor = concurrent ? asyncExecutor : serialExecutor();
+        if (!concurrent) {
+            serialPending.incrementAndGet();
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            (executor == null ? AsyncExecutors.defaultExecutor() : executor).execute(() -> {
+                T value = null;
+                Throwable failure = null;
+                try {
+                    value = operation.get();
+                } catch (Throwable e) {
+                    failure = e;
+                }
+                // before completing, so a callback's own call may run inline
+                if (!concurrent) {
+                    serialPending.decrementAndGet();
+                }
+                if (failure == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(failure);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (!concurrent) {
+                serialPending.decrementAndGet();
+            }
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private synchronized Executor serialExecutor() {
+        if (serialExecutor == null) {
+            serialExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "kv-async");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return serialExecutor;
+    }
+
+    private boolean isResident(K key) {
+        if (hydrating == null) {
+            return database.isResident(key);
+        }
+        // keys still to be hydrated are read from the snapshot file. A single-threaded engine may be in use
+        // on the async thread, so it isn't asked: its calls go there until hydration is done
+        return database.isConcurrent() && database.isResident(key) && database.containsKey(key);
+    }
+
+    private boolean writesInMemory(Durability durability) {
+        // engines take writes in memory; only an fsync waits on the disk
+        return log == null || durability != Durability.FSYNC;
+    }
+
+    public OutputStream writeValueStream(K key) {
+        return writeValueStream(key, defaultDurability);
+    }
+
+    // For values too large to hold in one array: the bytes written are kept as 64 KB chunks and replace
+    // the key's value when the stream is closed, logged chunk by chunk. Such a value has no ttl, isn't
+    // indexed or exported, and get() returns null for it; read it back with openValueStream().
+    public OutputStream writeValueStream(K key, Durability durability) {
+        return new ChunkedValue.Writer<>(this, key, durability);
+    }
+
+    // Reads a value written with writeValueStream() a chunk at a time, or a byte[] value set whole from
+    // its array. Returns null if the key doesn't exist. The stream keeps reading the value it opened if
+    // the key changes meanwhile.
+    public InputStream openValueStream(K key) {
+        ChunkedValue value = streaming ? streamed.get(key) : null;
+        if (value != null) {
+            return value.open();
+        }
+        V whole = get(key);
+        if (whole == null) {
+            return null;
+        }
+        if (!(whole instanceof byte[])) {
+            throw new IllegalStateException("Not a byte[] value: " + key);
+        }
+        return new ByteArrayInputStream((byte[]) whole);
+    }
+
+    void commitStream(K key, ChunkedValue value, Durability durability) {
+        long start = System.nanoTime();
+        long seq = 0;
+        ReentrantLock stripe = stripeFor(key);
+        stripe.lock();
+        try {
+            if (log != null) {
+                seq = logStream(log, key, value);
+            }
+            boolean replaced = containsLive(key);
+            removeEntry(key);
+            reschedule(key, 0);
+            streaming = true;
+            streamed.put(key, value);
+            if (replaced) {
+                // the whole value is gone; the streamed one isn't published
+                publish(Change.Type.DELETE, key, null, 0);
+            }
+        } finally {
+            stripe.unlock();
+        }
+        if (log != null) {
+            await(seq, durability);
+        }
+        stats.recordSet(start);
+    }
+
+    public void close() throws IOException {
+        if (hydrator != null) {
+            hydrator.interrupt();
+            try {
+                hydrator.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            hydrator = null;
+        }
+        if (checkpointer != null) {
+            // lets a checkpoint that is being written finish; the next start would otherwise redo it
+            checkpointer.shutdown();
+            try {
+                checkpointer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            checkpointer = null;
+        }
+        ExecutorService serial;
+        synchronized (this) {
+            if (counterFlusher != null) {
+                counterFlusher.shutdown();
+                counterFlusher = null;
+            }
+            serial = serialExecutor;
+            serialExecutor = null;
+        }
+        if (serial != null) {
+            // async calls already accepted still get to run
+            serial.shutdown();
+            try {
+                serial.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (counting) {
+            flushCounters();
+        }
+        if (expirer != null) {
+            expirer.shutdownNow();
+            expirer = null;
+        }
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+        database.close();
+    }
+
+    private ReentrantLock stripeFor(K key) {
+        return stripes[stripeIndex(key)];
+    }
+
+    private int stripeIndex(K key) {
+        return (StripedEngine.hash(key) >>> 16) & (stripes.length - 1);
+    }
+
+    // Smallest string greater than every string starting with prefix, or null if there is none.
+    private static String prefixEnd(String prefix) {
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+            end--;
+        }
+        if (end == 0) {
+            return null;
+        }
+        return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+    }
+
+    private boolean isExpired(K key) {
+        if (!expiring) {
+            return false;
+        }
+        TimingWheel.Timer<K> timer = expirations.get(key);
+        return timer != null && timer.deadline <= System.currentTimeMillis();
+    }
+
+    // Callers hold the key's stripe. Drops keys whose ttl has passed but whose timer hasn't fired yet.
+    private boolean containsLive(K key) {
+        if (expiring) {
+            TimingWheel.Timer<K> timer = expirations.get(key);
+            if (timer != null && timer.deadline <= System.currentTimeMillis()) {
+                expireEntry(timer);
+                return false;
+            }
+        }
+        boolean hydrated = hydrating == null;
+        return database.containsKey(key) || (!hydrated && hydrate(key));
+    }
+
+    // Stores the value in the engine and moves the key between index entries. Callers hold the key's stripe.
+    private void putEntry(K key, V value) {
+        if (counting) {
+            counters.remove(key);
+        }
+        if (streaming) {
+            streamed.remove(key);
+        }
+        storeEntry(key, value);
+    }
+
+    // putEntry without touching the key's counter, for flushing it.
+    private void storeEntry(K key, V value) {
+        List<SecondaryIndex<K,V>> current = indexList;
+        if (current.isEmpty()) {
+            database.put(key, value);
+            bumpVersion(key);
+            return;
+        }
+        V previous = database.get(key);
+        database.put(key, value);
+        for (SecondaryIndex<K,V> index : current) {
+            index.remove(key, previous);
+            index.add(key, value);
+        }
+        bumpVersion(key);
+    }
+
+    // Removes the key from the engine and its indexes and, while hydrating, keeps the snapshot's copy
+    // from coming back. Callers hold the key's stripe.
+    private void removeEntry(K key) {
+        if (counting) {
+            counters.remove(key);
+        }
+        if (streaming) {
+            streamed.remove(key);
+        }
+        List<SecondaryIndex<K,V>> current = indexList;
+        if (!current.isEmpty()) {
+            V previous = database.get(key);
+            for (SecondaryIndex<K,V> index : current) {
+                index.remove(key, previous);
+            }
+        }
+        database.remove(key);
+        bumpVersion(key);
+        if (hydrating != null) {
+            shadowed.add(key);
+        }
+    }
+
+    // Hands a change to the feed and wakes the key's watchers. Callers hold the key's stripe, which keeps
+    // each key's changes in order.
+    private void publish(Change.Type type, K key, V value, long deadline) {
+        ChangeFeed<K,V> feed = changeFeed;
+        boolean watched = !watchers.isEmpty();
+        if (feed == null && !watched) {
+            return;
+        }
+        Change<K,V> change = feed == null ? new Change<>(-1, type, key, value, deadline)
+                : feed.publish(type, key, value, deadline);
+        Watch<K,V> watch = watched ? watchers.remove(key) : null;
+        if (watch != null) {
+            synchronized (watch) {
+                watch.change = change;
+                watch.notifyAll();
+            }
+        }
+    }
+
+    // Version of the key's slot; see versions.
+    long version(K key) {
+        return versions.get(versionSlot(key));
+    }
+
+    private int versionSlot(K key) {
+        return (StripedEngine.hash(key) >>> 16) & (VERSION_SLOTS - 1);
+    }
+
+    // After the engine has changed, so a reader that takes the version before the value can't pair an
+    // old version with the new value. Callers hold the key's stripe.
+    private void bumpVersion(K key) {
+        int slot = versionSlot(key);
+        versions.set(slot, versions.get(slot) + 1);
+    }
+
+    // Background work that single-threaded engines leave to the caller's thread, before each operation.
+    private void runPending() {
+        if (expiring && expirer == null) {
+            expireDue();
+        }
+        if (hydrating != null && hydrator == null) {
+            hydrateStep(HYDRATE_STEP);
+        }
+        if (counterFlushDue) {
+            counterFlushDue = false;
+            flushCounters();
+        }
+        if (!evicted.isEmpty()) {
+            dropEvicted();
+        }
+        if (checkpointDue) {
+            checkpointDue = false;
+            try {
+                Checkpoint<K,V> checkpoint = capture();
+                checkpointer.execute(() -> persistQuietly(checkpoint));
+            } catch (IOException | RuntimeException e) {
+                // not the caller's failure: like a background checkpoint, keep the log and try again
+                lastCheckpointError = e;
+                checkpointDue = true;
+            }
+        }
+    }
+
+    // Forgets what the database kept about evicted keys, their ttls and index entries, and publishes the
+    // eviction. A key set again since the engine dropped it keeps its new state.
+    private void dropEvicted() {
+        Map.Entry<K,V> entry;
+        while ((entry = evicted.poll()) != null) {
+            K key = entry.getKey();
+            ReentrantLock stripe = stripeFor(key);
+            stripe.lock();
+            try {
+                // a set after the eviction found no previous value to unindex
+                for (SecondaryIndex<K,V> index : indexList) {
+                    index.remove(key, entry.getValue());
+                }
+                if (database.containsKey(key)) {
+                    V current = database.get(key);
+                    for (SecondaryIndex<K,V> index : indexList) {
+                        index.add(key, current);
+                    }
+                    continue;
+                }
+                reschedule(key, 0);
+                bumpVersion(key);
+                publish(Change.Type.EVICTED, key, null, 0);
+            } finally {
+                stripe.unlock();
+            }
+        }
+    }
+
+    private void startHydration(SnapshotFile file) {
+        hydrating = file;
+        hydrationCursor = file.cursor();
+        for (int i = 0; i < file.expiryCount(); i++) {
+            // an expired one is dropped as soon as its timer fires, which shadows it
+            reschedule(Codecs.fromBytes(keyCodec, file.expiryKey(i)), file.deadline(i));
+        }
+    }
+
+    // Copies the key from the snapshot being hydrated unless it was removed since startup. Returns
+    // whether the engine has the key afterwards.
+    private boolean hydrate(K key) {
+        ReentrantLock stripe = stripeFor(key);
+        stripe.lock();
+        try {
+            if (database.containsKey(key)) {
+                return true;
+            }
+            SnapshotFile file = hydrating;
+            if (file == null || shadowed.contains(key)) {
+                return false;
+            }
+            byte[] value = file.get(Codecs.toBytes(keyCodec, key));
+            if (value == null) {
+                return false;
+            }
+            putEntry(key, decode(value));
+            return true;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    // Copies up to count more snapshot entries into the engine. Returns false once hydration is over.
+    private boolean hydrateStep(int count) {
+        SnapshotFile.Cursor cursor = hydrationCursor;
+        if (cursor == null) {
             return false;
         }
+        synchronized (cursor) {
+            for (int i = 0; i < count; i++) {
+                if (hydrating == null) {
+                    return false;
+                }
+                if (!cursor.advance()) {
+                    endHydration();
+                    return false;
+                }
+                K key = Codecs.fromBytes(keyCodec, cursor.key);
+                ReentrantLock stripe = stripeFor(key);
+                stripe.lock();
+                try {
+                    if (!database.containsKey(key) && !shadowed.contains(key)) {
+                        putEntry(key, decode(cursor.value));
+                    }
+                } finally {
+                    stripe.unlock();
+                }
+            }
+            return true;
+        }
+    }
+
+    private void finishHydration() {
+        while (hydrateStep(HYDRATE_BATCH)) {
+            // keep going
+        }
+    }
+
+    // With every stripe held, so no hydrate() or removeEntry() is halfway through.
+    private void endHydration() {
+        int locked = 0;
+        try {
+            for (; locked < stripes.length; locked++) {
+                stripes[locked].lock();
+            }
+            hydrating = null;
+            hydrationCursor = null;
+            shadowed.clear();
+        } finally {
+            while (--locked >= 0) {
+                stripes[locked].unlock();
+            }
+        }
+    }
+
+    private V decode(byte[] value) {
+        return value == SnapshotFile.NULL_VALUE ? null : Codecs.fromBytes(valueCodec, value);
+    }
+
+    private void scheduledCheckpoint() {
+        if (database.isConcurrent()) {
+            persistQuietly(null);
+        } else {
+            // the engine may only be read on the caller's thread; the next operation takes the view
+            checkpointDue = true;
+        }
+    }
+
+    // A failed checkpoint loses nothing, the log still has every write; the next one tries again.
+    private void persistQuietly(Checkpoint<K,V> checkpoint) {
+        try {
+            persist(checkpoint == null ? capture() : checkpoint);
+        } catch (IOException | RuntimeException e) {
+            // retried at the next interval
+            lastCheckpointError = e;
+        }
+    }
+
+    // Switches to a new log and takes a view matching exactly the writes before it.
+    private Checkpoint<K,V> capture() throws IOException {
+        finishHydration();
+        Checkpoint<K,V> checkpoint = new Checkpoint<>();
+        int locked = 0;
+        try {
+            for (; locked < stripes.length; locked++) {
+                stripes[locked].lock();
+            }
+            // copied first, so an engine that can't list its entries fails before a new log is started
+            copyState(checkpoint);
+            checkpoint.generation = generation + 1;
+            try {
+                log.rotate(logPath(checkpoint.generation));
+            } catch (IOException | RuntimeException e) {
+                if (checkpoint.view != null) {
+                    checkpoint.view.close();
+                }
+                throw e;
+            }
+            generation = checkpoint.generation;
+            if (streaming) {
+                // only the references; the chunks are written out with the snapshot
+                checkpoint.streamed.putAll(streamed);
+            }
+        } finally {
+            while (--locked >= 0) {
+                stripes[locked].unlock();
+            }
+        }
+        return checkpoint;
+    }
+
+    // Takes the ttls and either a snapshot or the entry references. Callers hold every stripe.
+    private void copyState(Checkpoint<K,V> checkpoint) {
+        for (TimingWheel.Timer<K> timer : expirations.values()) {
+            checkpoint.deadlines.put(timer.key, timer.deadline);
+        }
+        try {
+            checkpoint.view = database.snapshot();
+        } catch (UnsupportedOperationException e) {
+            database.forEach((key, value) -> {
+                checkpoint.keys.add(key);
+                checkpoint.values.add(value);
+            });
+        }
+    }
+
+    // Sorts the view by serialized key into a temporary file, renames it into place and deletes what
+    // it supersedes. The whole view is serialized on the heap first.
+    private void persist(Checkpoint<K,V> checkpoint) throws IOException {
+        List<byte[][]> records = new ArrayList<>();
+        if (checkpoint.view != null) {
+            try (Snapshot<K,V> view = checkpoint.view) {
+                view.forEach((key, value) -> records.add(encode(key, value)));
+            }
+        } else {
+            for (int i = 0; i < checkpoint.keys.size(); i++) {
+                records.add(encode(checkpoint.keys.get(i), checkpoint.values.get(i)));
+            }
+        }
+        records.sort((a, b) -> Arrays.compareUnsigned(a[0], b[0]));
+        synchronized (checkpointLock) {
+            if (checkpoint.generation <= persistedGeneration) {
+                // a later checkpoint got there first
+                return;
+            }
+            Path target = snapshotPath(checkpoint.generation);
+            Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+            try (SnapshotFile.Writer writer = new SnapshotFile.Writer(temporary, compression)) {
+                for (byte[][] record : records) {
+                    writer.add(record[0], record[1]);
+                }
+                for (Map.Entry<K, Long> entry : checkpoint.deadlines.entrySet()) {
+                    writer.addExpiry(Codecs.toBytes(keyCodec, entry.getKey()), entry.getValue());
+                }
+                writer.finish();
+            }
+            if (!checkpoint.streamed.isEmpty()) {
+                // in place before the snapshot, which is what makes startup look for it
+                writeStreams(streamsPath(checkpoint.generation), checkpoint.streamed);
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            persistedGeneration = checkpoint.generation;
+            deleteBefore(checkpoint.generation);
+        }
+    }
+
+    // Snapshot files only hold whole values, so streamed ones go to a file of their own in the log format,
+    // which startup replays after mapping the snapshot of the same generation.
+    private void writeStreams(Path target, Map<K, ChunkedValue> values) throws IOException {
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        // left behind by a checkpoint that failed; opening it would replay and append to it
+        Files.deleteIfExists(temporary);
+        try (WriteAheadLog file = WriteAheadLog.open(temporary, (op, key, value) -> { })) {
+            long seq = 0;
+            for (Map.Entry<K, ChunkedValue> entry : values.entrySet()) {
+                seq = logStream(file, entry.getKey(), entry.getValue());
+            }
+            file.await(seq, Durability.FSYNC);
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private byte[][] encode(K key, V value) {
+        return new byte[][]{Codecs.toBytes(keyCodec, key),
+                value == null ? SnapshotFile.NULL_VALUE : Codecs.toBytes(valueCodec, value)};
+    }
+
+    // Deletes snapshots, their streamed values and logs older than the given generation.
+    private void deleteBefore(long oldest) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long snapshot = Math.max(generationOf(name, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX),
+                        generationOf(name, STREAMS_PREFIX, LOG_SUFFIX));
+                long logged = generationOf(name, LOG_PREFIX, LOG_SUFFIX);
+                if ((snapshot >= 0 && snapshot < oldest) || (logged >= 0 && logged < oldest)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private Path snapshotPath(long generation) {
+        return directory.resolve(SNAPSHOT_PREFIX + String.format("%010d", generation) + SNAPSHOT_SUFFIX);
+    }
+
+    private Path streamsPath(long generation) {
+        return directory.resolve(STREAMS_PREFIX + String.format("%010d", generation) + LOG_SUFFIX);
+    }
+
+    private Path logPath(long generation) {
+        return directory.resolve(LOG_PREFIX + String.format("%010d", generation) + LOG_SUFFIX);
+    }
+
+    // The number in prefix<number>suffix, or -1 for any other name.
+    private static long generationOf(String name, String prefix, String suffix) {
+        if (!name.startsWith(prefix) || !name.endsWith(suffix) || name.length() <= prefix.length() + suffix.length()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Callers hold the key's stripe. A deadline of 0 clears the key's ttl.
+    private void reschedule(K key, long deadline) {
+        TimingWheel.Timer<K> previous;
+        if (deadline == 0) {
+            previous = expiring ? expirations.remove(key) : null;
+        } else {
+            if (!expiring) {
+                startExpirer();
+            }
+            TimingWheel.Timer<K> timer = new TimingWheel.Timer<>(key, deadline);
+            previous = expirations.put(key, timer);
+            wheel.schedule(timer);
+        }
+        if (previous != null) {
+            wheel.cancel(previous);
+        }
+    }
+
+    // Removes the key if the timer is still the one in charge of it (it may have been replaced or cleared).
+    private void expireEntry(TimingWheel.Timer<K> timer) {
+        ReentrantLock stripe = stripeFor(timer.key);
+        stripe.lock();
+        try {
+            if (expirations.remove(timer.key, timer)) {
+                wheel.cancel(timer);
+                removeEntry(timer.key);
+                publish(Change.Type.EXPIRED, timer.key, null, 0);
+            }
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    private void expireDue() {
+        for (TimingWheel.Timer<K> timer : wheel.advance(System.currentTimeMillis())) {
+            expireEntry(timer);
+        }
+    }
+
+    private synchronized void startExpirer() {
+        expiring = true;
+        if (expirer == null && database.isConcurrent()) {
+            expirer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "kv-expirer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            expirer.scheduleWithFixedDelay(this::expireDue, TTL_TICK_MILLIS, TTL_TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static long deadline(Duration ttl) {
+        return System.currentTimeMillis() + Math.max(ttl.toMillis(), 0);
+    }
+
+    private long append(byte op, K key, V value) {
+        try {
+            return log.append(op, key, keyCodec, value, valueCodec);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long appendExpire(K key, long deadline) {
+        try {
+            return log.append(WriteAheadLog.OP_EXPIRE, key, keyCodec, deadline, DEADLINE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Logs a streamed value's chunks and then its end record, handing each chunk to the OS before the
+    // next so the log buffer never holds more than one. Callers writing to the database's log hold the
+    // key's stripe, which keeps the records of one value together.
+    private long logStream(WriteAheadLog target, K key, ChunkedValue value) {
+        try {
+            for (byte[] chunk : value.chunks) {
+                target.await(target.append(WriteAheadLog.OP_CHUNK, key, keyCodec, chunk, Codecs.bytes()),
+                        Durability.BUFFERED);
+            }
+            return target.append(WriteAheadLog.OP_CHUNK_END, key, keyCodec, value.length, DEADLINE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long appendRecord(byte op, byte[] key, byte[] value) {
+        try {
+            return log.append(op, key, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void await(long seq, Durability durability) {
+        try {
+            log.await(seq, durability);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void replay(byte op, byte[] key, byte[] value) {
+        if (op == WriteAheadLog.OP_BATCH) {
+            WriteBatch.replay(value, this::replay);
+            return;
+        }
+        K k = Codecs.fromBytes(keyCodec, key);
+        if (op == WriteAheadLog.OP_SET) {
+            putEntry(k, value == null ? null : Codecs.fromBytes(valueCodec, value));
+            reschedule(k, 0);
+        } else if (op == WriteAheadLog.OP_DELETE) {
+            removeEntry(k);
+            reschedule(k, 0);
+        } else if (op == WriteAheadLog.OP_CHUNK) {
+            replayedChunks.computeIfAbsent(k, x -> new ArrayList<>()).add(value);
+        } else if (op == WriteAheadLog.OP_CHUNK_END) {
+            long length = ByteBuffer.wrap(value).getLong();
+            List<byte[]> chunks = replayedChunks.remove(k);
+            int count = ChunkedValue.chunkCount(length);
+            int logged = chunks == null ? 0 : chunks.size();
+            if (logged < count) {
+                throw new IllegalStateException("Log is missing chunks of the value of " + k);
+            }
+            // any chunks before these belong to a stream cut short by a crash
+            byte[][] own = count == 0 ? new byte[0][] : chunks.subList(logged - count, logged).toArray(new byte[0][]);
+            removeEntry(k);
+            reschedule(k, 0);
+            streaming = true;
+            streamed.put(k, new ChunkedValue(own, length));
+        } else if (op == WriteAheadLog.OP_EXPIRE) {
+            long deadline = ByteBuffer.wrap(value).getLong();
+            if (deadline <= System.currentTimeMillis()) {
+                removeEntry(k);
+                reschedule(k, 0);
+            } else {
+                reschedule(k, deadline);
+            }
+        }
+    }
+
+    // A key's pending increments. Retired once flushed while idle; see flushCounter.
+    private static final class Counter extends LongAdder {
+        private static final long serialVersionUID = 1L;
+
+        volatile boolean retired;
+    }
+
+    // Threads waiting in watch() for one key's next change.
+    private static final class Watch<K,V> {
+        int waiters;
+        Change<K,V> change;
+    }
+
+    // View and ttls taken by a checkpoint or an export; view is null for engines without snapshots, which
+    // hand over their entries in keys and values instead.
+    private static final class Checkpoint<K,V> {
+        long generation;
+        Snapshot<K,V> view;
+        final List<K> keys = new ArrayList<>();
+        final List<V> values = new ArrayList<>();
+        final Map<K, Long> deadlines = new HashMap<>();
+        // streamed values, written beside the snapshot; only filled in by checkpoints
+        final Map<K, ChunkedValue> streamed = new HashMap<>();
     }
 }
@@ -0,0 +1,219 @@
+package org.example.db;
+
+/*
+ * KeyValueDatabase<Long, Long> without the boxes: an open-addressing table over one long[] that
+ * interleaves keys and values (key at 2i, value at 2i + 1), so a lookup touches one cache line in the
+ * common case and no path allocates. Like the HashMap-backed database it is single-threaded.
+ *
+ * Key 0 marks an empty slot, so a stored 0 key lives in a separate field. get() returns the
+ * configured missing value for absent keys; use containsKey() when that value is also a legal value.
+ */
+public class LongLongKeyValueDatabase {
+    public static final long DEFAULT_MISSING_VALUE = Long.MIN_VALUE;
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    public interface LongLongConsumer {
+        void accept(long key, long value);
+    }
+
+    long[] table;
+    private int mask;
+    private int size;
+    private int threshold;
+    private boolean hasZeroKey;
+    private long zeroKeyValue;
+    private long missingValue;
+
+    public void init() {
+        init(DEFAULT_CAPACITY, DEFAULT_MISSING_VALUE);
+    }
+
+    public void init(int expectedSize, long missingValue) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+        size = 0;
+        hasZeroKey = false;
+        this.missingValue = missingValue;
+    }
+
+    public void set(long key, long value) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroKeyValue = value;
+            return;
+        }
+        int slot = slot(key);
+        while (table[slot] != 0) {
+            if (table[slot] == key) {
+                table[slot + 1] = value;
+                return;
+            }
+            slot = (slot + 2) & mask;
+        }
+        table[slot] = key;
+        table[slot + 1] = value;
+        if (++size > threshold) {
+            grow();
+        }
+    }
+
+    public long get(long key) {
+        if (key == 0) {
+            return hasZeroKey ? zeroKeyValue : missingValue;
+        }
+        int slot = slot(key);
+        long candidate;
+        while ((candidate = table[slot]) != 0) {
+            if (candidate == key) {
+                return table[slot + 1];
+            }
+            slot = (slot + 2) & mask;
+        }
+        return missingValue;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == 0) {
+            return hasZeroKey;
+        }
+        int slot = slot(key);
+        long candidate;
+        while ((candidate = table[slot]) != 0) {
+            if (candidate == key) {
+                return true;
+            }
+            slot = (slot + 2) & mask;
+        }
+        return false;
+    }
+
+    public boolean delete(long key) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                return false;
+            }
+            hasZeroKey = false;
+            size--;
+            return true;
+        }
+        int slot = slot(key);
+        while (table[slot] != 0) {
+            if (table[slot] == key) {
+                shiftBack(slot);
+                size--;
+                return true;
+            }
+            slot = (slot + 2) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long missingValue() {
+        return missingValue;
+    }
+
+    public void forEach(LongLongConsumer action) {
+        if (hasZeroKey) {
+            action.accept(0, zeroKeyValue);
+        }
+        for (int slot = 0; slot < table.length; slot += 2) {
+            if (table[slot] != 0) {
+                action.accept(table[slot], table[slot + 1]);
+            }
+        }
+    }
+
+    // Allocation-free iteration: while (cursor.advance()) { cursor.key(); cursor.value(); }
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    public final class Cursor {
+        // -2 = not started, -1 = zero key visited, otherwise the current slot
+        private int slot = -2;
+        private long key;
+        private long value;
+
+        public boolean advance() {
+            if (slot == -2) {
+                slot = -1;
+                if (hasZeroKey) {
+                    key = 0;
+                    value = zeroKeyValue;
+                    return true;
+                }
+            }
+            for (slot = slot < 0 ? 0 : slot + 2; slot < table.length; slot += 2) {
+                if (table[slot] != 0) {
+                    key = table[slot];
+                    value = table[slot + 1];
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public long key() {
+            return key;
+        }
+
+        public long value() {
+            return value;
+        }
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return ((int) (h ^ (h >>> 32)) << 1) & mask;
+    }
+
+    // Backward-shift deletion: pull later entries of the probe run into the hole so no tombstones are needed.
+    private void shiftBack(int hole) {
+        int next = (hole + 2) & mask;
+        long key;
+        while ((key = table[next]) != 0) {
+            int home = slot(key);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                table[hole] = key;
+                table[hole + 1] = table[next + 1];
+                hole = next;
+            }
+            next = (next + 2) & mask;
+        }
+        table[hole] = 0;
+        table[hole + 1] = 0;
+    }
+
+    private void allocate(int capacity) {
+        table = new long[capacity * 2];
+        mask = table.length - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void grow() {
+        long[] old = table;
+        allocate(old.length);
+        for (int slot = 0; slot < old.length; slot += 2) {
+            long key = old[slot];
+            if (key != 0) {
+                int target = slot(key);
+                while (table[target] != 0) {
+                    target = (target + 2) & mask;
+                }
+                table[target] = key;
+                table[target + 1] = old[slot + 1];
+            }
+        }
+    }
+}
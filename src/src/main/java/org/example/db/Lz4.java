@@ -0,0 +1,196 @@
+package org.example.db;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+ * LZ4 block format (the sequence encoding of lz4's LZ4_compress_default), in plain Java. A sequence is
+ *   token (literal length << 4 | match length - 4) | extra literal length | literals | 2-byte LE offset
+ *   | extra match length
+ * where a nibble of 15 continues in extra bytes of 255... The last sequence is literals only, and the
+ * last match ends at least LAST_LITERALS bytes before the end.
+ *
+ * Compression may reference a dictionary: bytes in front of the input that are never emitted but can be
+ * matched against, exactly like data compressed earlier in the same stream. Decompression is given the
+ * same dictionary.
+ */
+final class Lz4 {
+    static final int HASH_BITS = 12;
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    // no match may start within this many bytes of the end
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_OFFSET = 65535;
+    private static final int SKIP_TRIGGER = 6;
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private Lz4() {
+    }
+
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    // Resets table to the positions of in[0, end), the dictionary later inputs are matched against.
+    static void seed(byte[] in, int end, int[] table) {
+        java.util.Arrays.fill(table, -1);
+        for (int p = Math.max(0, end - MAX_OFFSET); p + MIN_MATCH <= end; p++) {
+            table[hash(readInt(in, p))] = p;
+        }
+    }
+
+    // Compresses in[start, end) into out and returns the compressed length. in[0, start) is the dictionary
+    // and table must have been seeded with it; the table is left holding positions of this input.
+    static int compress(byte[] in, int start, int end, int[] table, byte[] out) {
+        int op = 0;
+        int anchor = start;
+        if (end - start >= MF_LIMIT + 1) {
+            int matchLimit = end - LAST_LITERALS;
+            int limit = end - MF_LIMIT;
+            int p = start;
+            int misses = 0;
+            while (p < limit) {
+                int sequence = readInt(in, p);
+                int h = hash(sequence);
+                int ref = table[h];
+                table[h] = p;
+                if (ref < 0 || p - ref > MAX_OFFSET || readInt(in, ref) != sequence) {
+                    // the longer nothing matches, the faster we skip ahead
+                    p += 1 + (misses++ >>> SKIP_TRIGGER);
+                    continue;
+                }
+                misses = 0;
+                while (p > anchor && ref > 0 && in[p - 1] == in[ref - 1]) {
+                    p--;
+                    ref--;
+                }
+                int length = MIN_MATCH;
+                while (p + length < matchLimit && in[ref + length] == in[p + length]) {
+                    length++;
+                }
+                op = sequence(in, anchor, p - anchor, p - ref, length, out, op);
+                p += length;
+                anchor = p;
+                if (p - 2 >= start && p < limit) {
+                    table[hash(readInt(in, p - 2))] = p - 2;
+                }
+            }
+        }
+        return lastLiterals(in, anchor, end - anchor, out, op);
+    }
+
+    // Decompresses length bytes at src's position into dst, which must be exactly the original size.
+    // dict is the dictionary the data was compressed against, from its position to its limit, or null.
+    static void decompress(ByteBuffer src, int length, ByteBuffer dict, byte[] dst) {
+        int ip = src.position();
+        int end = ip + length;
+        int op = 0;
+        // a private cursor, so the caller's dictionary can be shared by reads of the same block
+        ByteBuffer history = dict == null ? null : dict.duplicate();
+        int dictEnd = dict == null ? 0 : dict.limit();
+        int dictLength = dict == null ? 0 : dict.remaining();
+        while (ip < end) {
+            int token = src.get(ip++) & 0xFF;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    b = src.get(ip++) & 0xFF;
+                    literals += b;
+                } while (b == 255);
+            }
+            if (op + literals > dst.length || ip + literals > end) {
+                throw new IllegalStateException("Corrupt compressed block");
+            }
+            src.position(ip);
+            src.get(dst, op, literals);
+            ip += literals;
+            op += literals;
+            if (ip == end) {
+                break;
+            }
+            int offset = (src.get(ip) & 0xFF) | (src.get(ip + 1) & 0xFF) << 8;
+            ip += 2;
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    b = src.get(ip++) & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            int from = op - offset;
+            if (offset == 0 || from < -dictLength || op + matchLength > dst.length) {
+                throw new IllegalStateException("Corrupt compressed block");
+            }
+            if (from < 0) {
+                // starts in the dictionary and may run on into the output
+                int fromDictionary = Math.min(-from, matchLength);
+                history.position(dictEnd + from);
+                history.get(dst, op, fromDictionary);
+                op += fromDictionary;
+                from += fromDictionary;
+                matchLength -= fromDictionary;
+            }
+            if (matchLength == 0) {
+                continue;
+            }
+            if (offset >= matchLength) {
+                System.arraycopy(dst, from, dst, op, matchLength);
+                op += matchLength;
+            } else {
+                // overlapping copy repeats the last offset bytes
+                for (int i = 0; i < matchLength; i++) {
+                    dst[op++] = dst[from++];
+                }
+            }
+        }
+        if (op != dst.length) {
+            throw new IllegalStateException("Corrupt compressed block");
+        }
+        src.position(end);
+    }
+
+    private static int sequence(byte[] in, int literalStart, int literals, int offset, int matchLength,
+                                byte[] out, int op) {
+        int matchCode = matchLength - MIN_MATCH;
+        out[op++] = (byte) ((Math.min(literals, 15) << 4) | Math.min(matchCode, 15));
+        op = length(literals, out, op);
+        System.arraycopy(in, literalStart, out, op, literals);
+        op += literals;
+        out[op++] = (byte) offset;
+        out[op++] = (byte) (offset >>> 8);
+        return length(matchCode, out, op);
+    }
+
+    private static int lastLiterals(byte[] in, int literalStart, int literals, byte[] out, int op) {
+        out[op++] = (byte) (Math.min(literals, 15) << 4);
+        op = length(literals, out, op);
+        System.arraycopy(in, literalStart, out, op, literals);
+        return op + literals;
+    }
+
+    // Extra length bytes for a nibble that overflowed.
+    private static int length(int value, byte[] out, int op) {
+        if (value >= 15) {
+            int rest = value - 15;
+            while (rest >= 255) {
+                out[op++] = (byte) 255;
+                rest -= 255;
+            }
+            out[op++] = (byte) rest;
+        }
+        return op;
+    }
+
+    private static int readInt(byte[] in, int p) {
+        return (int) INT.get(in, p);
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_BITS);
+    }
+}
@@ -0,0 +1,262 @@
+package org.example.db;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/*
+ * Concurrent engine that keeps a chain of versions per key, newest first, each stamped with a
+ * global sequence number. A snapshot is just a sequence number: it reads, for every key, the newest
+ * version at or below it, so a scan sees one point in time while writers keep prepending.
+ *
+ * Versions older than the oldest open snapshot are unreachable and get cut off: by the next write to
+ * the key, and by a sweep when the oldest snapshot closes. Writes that keep an older version alive
+ * queue their key, so the sweep only visits keys that have something to cut. Deleted keys stay as
+ * tombstones only while a snapshot can still see the value under them.
+ *
+ * Writers share the read side of a gate whose write side is held for the instant a snapshot picks
+ * its sequence number, so no write with a lower number can still be in flight when it starts reading.
+ */
+public class MvccEngine<K,V> implements StorageEngine<K,V> {
+    private static final Object NULL_KEY = new Object();
+    private static final Object NULL_VALUE = new Object();
+    private static final Object TOMBSTONE = new Object();
+
+    private final ConcurrentHashMap<Object, Version> map = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock gate = new ReentrantReadWriteLock();
+    // sequence -> open snapshots at it; guarded by itself
+    private final TreeMap<Long, Integer> openSnapshots = new TreeMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    // keys whose newest version shadows older ones kept for a snapshot, roughly in sequence order
+    private final ConcurrentLinkedQueue<Shadowed> shadowed = new ConcurrentLinkedQueue<>();
+    // oldest open snapshot's sequence, or MAX_VALUE if none; written under the gate's write lock or the sweep
+    private volatile long horizon = Long.MAX_VALUE;
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    @Override
+    public V get(K key) {
+        Version head = map.get(mask(key));
+        return head == null ? null : unmask(head.value);
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        Version head = map.get(mask(key));
+        return head != null && head.value != TOMBSTONE;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        write(mask(key), value == null ? NULL_VALUE : value);
+    }
+
+    @Override
+    public void remove(K key) {
+        write(mask(key), TOMBSTONE);
+    }
+
+    @Override
+    public Snapshot<K,V> snapshot() {
+        long at;
+        gate.writeLock().lock();
+        try {
+            synchronized (openSnapshots) {
+                at = sequence.get();
+                openSnapshots.merge(at, 1, Integer::sum);
+                horizon = openSnapshots.firstKey();
+            }
+        } finally {
+            gate.writeLock().unlock();
+        }
+        return new MvccSnapshot(at);
+    }
+
+    // Newest version of every key, without a snapshot's point in time; see snapshot() for one.
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for (Map.Entry<Object, Version> entry : map.entrySet()) {
+            Object value = entry.getValue().value;
+            if (value != TOMBSTONE) {
+                Object key = entry.getKey();
+                action.accept(key == NULL_KEY ? null : (K) key, unmask(value));
+            }
+        }
+    }
+
+    public int openSnapshots() {
+        synchronized (openSnapshots) {
+            return openSnapshots.values().stream().mapToInt(Integer::intValue).sum();
+        }
+    }
+
+    private void write(Object key, Object value) {
+        gate.readLock().lock();
+        try {
+            long limit = horizon;
+            map.compute(key, (k, head) -> {
+                if (head == null && value == TOMBSTONE) {
+                    return null;
+                }
+                Version version = new Version(sequence.incrementAndGet(), value, head);
+                prune(version, limit);
+                if (version.older != null) {
+                    shadowed.add(new Shadowed(k, version.sequence));
+                }
+                // nobody can see anything under a tombstone any more: drop the key
+                return version.value == TOMBSTONE && version.older == null ? null : version;
+            });
+        } finally {
+            gate.readLock().unlock();
+        }
+    }
+
+    // Cuts the chain below the newest version a reader at limit can still see.
+    private static void prune(Version head, long limit) {
+        for (Version version = head; version != null; version = version.older) {
+            if (version.sequence <= limit) {
+                version.older = null;
+                return;
+            }
+        }
+    }
+
+    private void release(long at) {
+        synchronized (openSnapshots) {
+            boolean wasOldest = at == openSnapshots.firstKey();
+            openSnapshots.merge(at, -1, (count, delta) -> count + delta == 0 ? null : count + delta);
+            if (!wasOldest || openSnapshots.containsKey(at)) {
+                // the horizon didn't move
+                return;
+            }
+        }
+        sweep();
+    }
+
+    // Drops versions no open snapshot can see, visiting only the queued keys whose shadowing write is
+    // now at or below the horizon. Runs on the thread that closed the oldest snapshot.
+    private void sweep() {
+        while (true) {
+            gate.readLock().lock();
+            try {
+                long limit = horizon = currentHorizon();
+                Shadowed entry = shadowed.poll();
+                if (entry == null) {
+                    return;
+                }
+                if (entry.sequence > limit) {
+                    // still visible to some snapshot; a later sweep, at the latest the last one, gets it
+                    shadowed.add(entry);
+                    return;
+                }
+                map.computeIfPresent(entry.key, (k, head) -> {
+                    prune(head, limit);
+                    return head.value == TOMBSTONE && head.older == null && head.sequence <= limit ? null : head;
+                });
+            } finally {
+                gate.readLock().unlock();
+            }
+        }
+    }
+
+    private long currentHorizon() {
+        synchronized (openSnapshots) {
+            return openSnapshots.isEmpty() ? Long.MAX_VALUE : openSnapshots.firstKey();
+        }
+    }
+
+    private static Object mask(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V unmask(Object value) {
+        return value == NULL_VALUE || value == TOMBSTONE ? null : (V) value;
+    }
+
+    private static final class Version {
+        final long sequence;
+        final Object value;
+        volatile Version older;
+
+        Version(long sequence, Object value, Version older) {
+            this.sequence = sequence;
+            this.value = value;
+            this.older = older;
+        }
+    }
+
+    private static final class Shadowed {
+        final Object key;
+        final long sequence;
+
+        Shadowed(Object key, long sequence) {
+            this.key = key;
+            this.sequence = sequence;
+        }
+    }
+
+    private final class MvccSnapshot implements Snapshot<K,V> {
+        private final long at;
+        private volatile boolean closed;
+
+        MvccSnapshot(long at) {
+            this.at = at;
+        }
+
+        @Override
+        public V get(K key) {
+            Version version = visible(map.get(mask(key)));
+            return version == null ? null : unmask(version.value);
+        }
+
+        @Override
+        public boolean containsKey(K key) {
+            return visible(map.get(mask(key))) != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEach(BiConsumer<? super K, ? super V> action) {
+            for (Map.Entry<Object, Version> entry : map.entrySet()) {
+                Version version = visible(entry.getValue());
+                if (version != null) {
+                    Object key = entry.getKey();
+                    action.accept(key == NULL_KEY ? null : (K) key, unmask(version.value));
+                }
+            }
+        }
+
+        private Version visible(Version head) {
+            checkOpen();
+            for (Version version = head; version != null; version = version.older) {
+                if (version.sequence <= at) {
+                    return version.value == TOMBSTONE ? null : version;
+                }
+            }
+            return null;
+        }
+
+        private void checkOpen() {
+            if (closed) {
+                throw new IllegalStateException("Snapshot is closed");
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                release(at);
+            }
+        }
+    }
+}
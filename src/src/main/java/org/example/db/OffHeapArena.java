@@ -0,0 +1,177 @@
+package org.example.db;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Slab allocator over direct ByteBuffers. Every allocation is rounded up to a size class (four classes
+ * per power of two, so at most 25% is wasted); each class carves fixed-size chunks out of its own 4 MB
+ * slabs and keeps freed chunks on an intrusive free list threaded through the chunks themselves.
+ *
+ * A handle packs valid bit | slab (20 bits) | offset in slab (22 bits) | value length (21 bits) into
+ * one long, which is all the heap needs to hold per value. The valid bit keeps handles away from 0
+ * and -1, which callers may use as markers.
+ */
+public class OffHeapArena {
+    static final int SLAB_SIZE = 4 * 1024 * 1024;
+    public static final int MAX_VALUE_SIZE = 1024 * 1024;
+    private static final int MIN_CHUNK = 16;
+    private static final int OFFSET_BITS = 22;
+    private static final int LENGTH_BITS = 21;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+    private static final long LENGTH_MASK = (1L << LENGTH_BITS) - 1;
+    private static final long NO_CHUNK = -1;
+    private static final long VALID = 1L << 63;
+    private static final int MAX_SLABS = (1 << 20) - 1;
+
+    private static final int[] CLASS_SIZES = classSizes();
+
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private volatile ByteBuffer[] slabView = new ByteBuffer[0];
+    private final SizeClass[] classes = new SizeClass[CLASS_SIZES.length];
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    public OffHeapArena() {
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new SizeClass(CLASS_SIZES[i]);
+        }
+    }
+
+    public long allocate(byte[] value) {
+        return allocate(ByteBuffer.wrap(value));
+    }
+
+    // Copies the remaining bytes of the buffer into a fresh chunk and returns its handle.
+    public long allocate(ByteBuffer value) {
+        int length = value.remaining();
+        if (length > MAX_VALUE_SIZE) {
+            throw new IllegalArgumentException("Value of " + length + " bytes exceeds " + MAX_VALUE_SIZE);
+        }
+        SizeClass sizeClass = classes[classFor(length)];
+        long chunk = sizeClass.take();
+        ByteBuffer target = slab(chunk).duplicate();
+        target.position(offset(chunk));
+        target.put(value.duplicate());
+        usedBytes.addAndGet(sizeClass.chunkSize);
+        return chunk | length;
+    }
+
+    public void free(long handle) {
+        SizeClass sizeClass = classes[classFor(length(handle))];
+        sizeClass.give(handle & ~LENGTH_MASK);
+        usedBytes.addAndGet(-sizeClass.chunkSize);
+    }
+
+    // Read-only view of the value; valid only until the handle is freed.
+    public ByteBuffer view(long handle) {
+        ByteBuffer view = slab(handle).asReadOnlyBuffer();
+        int offset = offset(handle);
+        view.limit(offset + length(handle)).position(offset);
+        return view.slice();
+    }
+
+    public byte[] copy(long handle) {
+        byte[] value = new byte[length(handle)];
+        ByteBuffer source = slab(handle).duplicate();
+        source.position(offset(handle));
+        source.get(value);
+        return value;
+    }
+
+    public static int length(long handle) {
+        return (int) (handle & LENGTH_MASK);
+    }
+
+    public long usedBytes() {
+        return usedBytes.get();
+    }
+
+    public long reservedBytes() {
+        return (long) slabView.length * SLAB_SIZE;
+    }
+
+    private ByteBuffer slab(long handle) {
+        return slabView[(int) ((handle & ~VALID) >>> (OFFSET_BITS + LENGTH_BITS))];
+    }
+
+    private static int offset(long handle) {
+        return (int) ((handle >>> LENGTH_BITS) & OFFSET_MASK);
+    }
+
+    private static long chunkHandle(int slab, int offset) {
+        return VALID | ((long) slab << (OFFSET_BITS + LENGTH_BITS)) | ((long) offset << LENGTH_BITS);
+    }
+
+    private synchronized int newSlab() {
+        if (slabs.size() == MAX_SLABS) {
+            throw new OutOfMemoryError("Off-heap arena is full");
+        }
+        slabs.add(ByteBuffer.allocateDirect(SLAB_SIZE));
+        slabView = slabs.toArray(new ByteBuffer[0]);
+        return slabs.size() - 1;
+    }
+
+    static int classFor(int length) {
+        int low = 0;
+        int high = CLASS_SIZES.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (CLASS_SIZES[mid] < length) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int[] classSizes() {
+        List<Integer> sizes = new ArrayList<>();
+        for (int base = MIN_CHUNK; base < MAX_VALUE_SIZE; base <<= 1) {
+            for (int step = 0; step < 4; step++) {
+                sizes.add(base + step * (base / 4));
+            }
+        }
+        sizes.add(MAX_VALUE_SIZE);
+        int[] result = new int[sizes.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = sizes.get(i);
+        }
+        return result;
+    }
+
+    private final class SizeClass {
+        final int chunkSize;
+        // guarded by this
+        private long freeHead = NO_CHUNK;
+        private int slab = -1;
+        private int bump = SLAB_SIZE;
+
+        SizeClass(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        synchronized long take() {
+            if (freeHead != NO_CHUNK) {
+                long chunk = freeHead;
+                freeHead = slab(chunk).getLong(offset(chunk));
+                return chunk;
+            }
+            if (bump + chunkSize > SLAB_SIZE) {
+                slab = newSlab();
+                bump = 0;
+            }
+            long chunk = chunkHandle(slab, bump);
+            bump += chunkSize;
+            return chunk;
+        }
+
+        // The first 8 bytes of a free chunk hold the next free chunk.
+        synchronized void give(long chunk) {
+            slab(chunk).putLong(offset(chunk), freeHead);
+            freeHead = chunk;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package org.example.db;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+
+/*
+ * Storage for byte[] values that keeps the bytes in an OffHeapArena. The heap side is an
+ * open-addressing table per segment holding the key and a primitive long handle, so millions of
+ * values cost the collector millions of keys and nothing else.
+ *
+ * Reads take an optimistic StampedLock stamp and validate it after copying; a writer that frees or
+ * moves a chunk holds the write lock, so a read that overlapped it simply retries.
+ */
+public class OffHeapEngine<K> implements StorageEngine<K, byte[]> {
+    private static final int SEGMENTS = 64;
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+    private static final Object NULL_KEY = new Object();
+    // a stored null value; arena handles are never 0 or -1
+    private static final long NULL_VALUE = -1;
+
+    private final OffHeapArena arena;
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public OffHeapEngine() {
+        this(new OffHeapArena());
+    }
+
+    public OffHeapEngine(OffHeapArena arena) {
+        this.arena = arena;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    // Copy of the stored bytes.
+    @Override
+    public byte[] get(K key) {
+        Object k = mask(key);
+        int hash = StripedEngine.hash(k);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                long handle = segment.find(k, hash);
+                byte[] value = handle == 0 || handle == NULL_VALUE ? null : arena.copy(handle);
+                if (segment.lock.validate(stamp)) {
+                    return value;
+                }
+            } catch (RuntimeException e) {
+                // torn read under a concurrent write; retry below under the read lock
+            }
+        }
+        stamp = segment.lock.readLock();
+        try {
+            long handle = segment.find(k, hash);
+            return handle == 0 || handle == NULL_VALUE ? null : arena.copy(handle);
+        } finally {
+            segment.lock.unlockRead(stamp);
+        }
+    }
+
+    // Read-only view straight into off-heap memory, no copy. The view is only valid until the key is
+    // next overwritten or deleted; use get() when the bytes must outlive that.
+    public ByteBuffer getView(K key) {
+        Object k = mask(key);
+        int hash = StripedEngine.hash(k);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.tryOptimisticRead();
+        long handle = segment.find(k, hash);
+        if (!segment.lock.validate(stamp)) {
+            stamp = segment.lock.readLock();
+            try {
+                handle = segment.find(k, hash);
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return handle == 0 || handle == NULL_VALUE ? null : arena.view(handle);
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        Object k = mask(key);
+        int hash = StripedEngine.hash(k);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.tryOptimisticRead();
+        boolean found = segment.find(k, hash) != 0;
+        if (segment.lock.validate(stamp)) {
+            return found;
+        }
+        stamp = segment.lock.readLock();
+        try {
+            return segment.find(k, hash) != 0;
+        } finally {
+            segment.lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void checkValue(byte[] value) {
+        if (value != null && value.length > OffHeapArena.MAX_VALUE_SIZE) {
+            throw new IllegalArgumentException("Value of " + value.length + " bytes exceeds "
+                    + OffHeapArena.MAX_VALUE_SIZE);
+        }
+    }
+
+    @Override
+    public void put(K key, byte[] value) {
+        // copy into the arena outside the lock; only the handle swap is serialized
+        long handle = value == null ? NULL_VALUE : arena.allocate(value);
+        Object k = mask(key);
+        int hash = StripedEngine.hash(k);
+        Segment segment = segmentFor(hash);
+        long previous;
+        long stamp = segment.lock.writeLock();
+        try {
+            previous = segment.put(k, hash, handle);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+        release(previous);
+    }
+
+    @Override
+    public void remove(K key) {
+        Object k = mask(key);
+        int hash = StripedEngine.hash(k);
+        Segment segment = segmentFor(hash);
+        long previous;
+        long stamp = segment.lock.writeLock();
+        try {
+            previous = segment.remove(k, hash);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+        release(previous);
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    // Visits copies of every entry, one segment at a time: a segment's entries are copied under its read
+    // lock and handed to the action after it's released.
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super byte[]> action) {
+        List<Object> keys = new ArrayList<>();
+        List<byte[]> values = new ArrayList<>();
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                for (int i = 0; i < segment.keys.length; i++) {
+                    Object key = segment.keys[i];
+                    if (key != null) {
+                        long handle = segment.handles[i];
+                        keys.add(key);
+                        values.add(handle == NULL_VALUE ? null : arena.copy(handle));
+                    }
+                }
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                Object key = keys.get(i);
+                action.accept(key == NULL_KEY ? null : (K) key, values.get(i));
+            }
+            keys.clear();
+            values.clear();
+        }
+    }
+
+    public OffHeapArena arena() {
+        return arena;
+    }
+
+    // Freed after the write lock is released: the stamp change already made any reader of it retry.
+    private void release(long handle) {
+        if (handle != 0 && handle != NULL_VALUE) {
+            arena.free(handle);
+        }
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[(hash >>> 26) & (SEGMENTS - 1)];
+    }
+
+    private static Object mask(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    private static final class Segment {
+        final StampedLock lock = new StampedLock();
+        // guarded by lock; 0 in handles means "no key"
+        Object[] keys = new Object[INITIAL_SEGMENT_CAPACITY];
+        long[] handles = new long[INITIAL_SEGMENT_CAPACITY];
+        int[] hashes = new int[INITIAL_SEGMENT_CAPACITY];
+        volatile int size;
+
+        // May run under an optimistic stamp, so it must tolerate torn state and never loop forever.
+        long find(Object key, int hash) {
+            Object[] keys = this.keys;
+            long[] handles = this.handles;
+            int[] hashes = this.hashes;
+            int mask = Math.min(Math.min(keys.length, handles.length), hashes.length) - 1;
+            int index = hash & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                Object candidate = keys[index];
+                if (candidate == null) {
+                    return 0;
+                }
+                if (hashes[index] == hash && candidate.equals(key)) {
+                    return handles[index];
+                }
+                index = (index + 1) & mask;
+            }
+            return 0;
+        }
+
+        long put(Object key, int hash, long handle) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                resize();
+            }
+            int mask = keys.length - 1;
+            int index = hash & mask;
+            while (keys[index] != null) {
+                if (hashes[index] == hash && keys[index].equals(key)) {
+                    long previous = handles[index];
+                    handles[index] = handle;
+                    return previous;
+                }
+                index = (index + 1) & mask;
+            }
+            hashes[index] = hash;
+            handles[index] = handle;
+            keys[index] = key;
+            size++;
+            return 0;
+        }
+
+        // Backward-shift deletion keeps probe chains intact without tombstones.
+        long remove(Object key, int hash) {
+            int mask = keys.length - 1;
+            int index = hash & mask;
+            while (keys[index] != null) {
+                if (hashes[index] == hash && keys[index].equals(key)) {
+                    long previous = handles[index];
+                    int hole = index;
+                    int next = (hole + 1) & mask;
+                    while (keys[next] != null) {
+                        int home = hashes[next] & mask;
+                        // move the entry back if the hole lies between its home slot and its current slot
+                        if (((next - home) & mask) >= ((next - hole) & mask)) {
+                            keys[hole] = keys[next];
+                            hashes[hole] = hashes[next];
+                            handles[hole] = handles[next];
+                            hole = next;
+                        }
+                        next = (next + 1) & mask;
+                    }
+                    keys[hole] = null;
+                    handles[hole] = 0;
+                    size--;
+                    return previous;
+                }
+                index = (index + 1) & mask;
+            }
+            return 0;
+        }
+
+        private void resize() {
+            Object[] oldKeys = keys;
+            long[] oldHandles = handles;
+            int[] oldHashes = hashes;
+            int capacity = oldKeys.length << 1;
+            Object[] newKeys = new Object[capacity];
+            long[] newHandles = new long[capacity];
+            int[] newHashes = new int[capacity];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int index = oldHashes[i] & (capacity - 1);
+                    while (newKeys[index] != null) {
+                        index = (index + 1) & (capacity - 1);
+                    }
+                    newKeys[index] = oldKeys[i];
+                    newHandles[index] = oldHandles[i];
+                    newHashes[index] = oldHashes[i];
+                }
+            }
+            hashes = newHashes;
+            handles = newHandles;
+            keys = newKeys;
+        }
+    }
+}
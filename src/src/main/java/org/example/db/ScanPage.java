@@ -0,0 +1,51 @@
+package org.example.db;
+
+import java.util.List;
+import java.util.Map;
+
+// One page of a range scan. Pass next() back to KeyValueDatabase.scan to continue after it.
+public class ScanPage<K,V> {
+    private final List<Map.Entry<K,V>> entries;
+    private final Cursor<K> next;
+
+    ScanPage(List<Map.Entry<K,V>> entries, Cursor<K> next) {
+        this.entries = entries;
+        this.next = next;
+    }
+
+    public List<Map.Entry<K,V>> entries() {
+        return entries;
+    }
+
+    // Position after this page's last entry, or null if the range is exhausted.
+    public Cursor<K> next() {
+        return next;
+    }
+
+    public boolean hasMore() {
+        return next != null;
+    }
+
+    // Remaining range of a scan. Holds keys, not engine state, so it stays valid across writes.
+    public static final class Cursor<K> {
+        final K low;
+        final boolean lowInclusive;
+        final K high;
+        final boolean highInclusive;
+        final boolean descending;
+
+        Cursor(K low, boolean lowInclusive, K high, boolean highInclusive, boolean descending) {
+            this.low = low;
+            this.lowInclusive = lowInclusive;
+            this.high = high;
+            this.highInclusive = highInclusive;
+            this.descending = descending;
+        }
+
+        Cursor<K> after(K key) {
+            return descending
+                    ? new Cursor<>(low, lowInclusive, key, false, true)
+                    : new Cursor<>(key, false, high, highInclusive, false);
+        }
+    }
+}
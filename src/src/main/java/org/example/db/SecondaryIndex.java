@@ -0,0 +1,54 @@
+package org.example.db;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/*
+ * Maps what an extractor pulls out of each value to the keys holding such values. KeyValueDatabase keeps
+ * it up to date under the key's stripe, so the index entries of one key change together with its value;
+ * updates for different keys meet only inside ConcurrentHashMap.compute on the shared bucket. Null values
+ * and null extractions aren't indexed.
+ */
+final class SecondaryIndex<K,V> {
+    final String name;
+    final Function<? super V, ?> extractor;
+    private final ConcurrentHashMap<Object, Set<K>> keys = new ConcurrentHashMap<>();
+
+    SecondaryIndex(String name, Function<? super V, ?> extractor) {
+        this.name = name;
+        this.extractor = extractor;
+    }
+
+    Object extract(V value) {
+        return value == null ? null : extractor.apply(value);
+    }
+
+    void add(K key, V value) {
+        Object indexed = extract(value);
+        if (indexed != null) {
+            keys.compute(indexed, (x, bucket) -> {
+                if (bucket == null) {
+                    bucket = ConcurrentHashMap.newKeySet();
+                }
+                bucket.add(key);
+                return bucket;
+            });
+        }
+    }
+
+    void remove(K key, V value) {
+        Object indexed = extract(value);
+        if (indexed != null) {
+            // an emptied bucket goes away within the same compute, so add() never fills a dropped one
+            keys.computeIfPresent(indexed, (x, bucket) -> bucket.remove(key) && bucket.isEmpty() ? null : bucket);
+        }
+    }
+
+    // Live view of the keys indexed under the value; may briefly include keys being changed.
+    Set<K> keys(Object indexed) {
+        Set<K> bucket = keys.get(indexed);
+        return bucket == null ? Collections.emptySet() : bucket;
+    }
+}
@@ -0,0 +1,93 @@
+package org.example.db;
+
+import java.util.AbstractMap;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiConsumer;
+
+/*
+ * Concurrent engine that keeps keys sorted in a skip list, for range and prefix scans. Point lookups
+ * are O(log n) instead of O(1); a scan seeks to its first key in O(log n) and then walks the bottom
+ * level, so a page of k entries costs O(log n + k). Scans are weakly consistent: they never throw
+ * ConcurrentModificationException and see each key at most once, but may or may not see writes
+ * made while they run.
+ *
+ * Keys must be non-null and Comparable, or ordered by the given comparator.
+ */
+public class SkipListEngine<K,V> implements StorageEngine<K,V> {
+    private static final Object NULL_VALUE = new Object();
+
+    private final ConcurrentSkipListMap<K, Object> map;
+
+    public SkipListEngine() {
+        map = new ConcurrentSkipListMap<>();
+    }
+
+    public SkipListEngine(Comparator<? super K> comparator) {
+        map = new ConcurrentSkipListMap<>(comparator);
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    @Override
+    public V get(K key) {
+        return unmask(map.get(key));
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public void put(K key, V value) {
+        map.put(key, value == null ? NULL_VALUE : value);
+    }
+
+    @Override
+    public void remove(K key) {
+        map.remove(key);
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        map.forEach((key, value) -> action.accept(key, unmask(value)));
+    }
+
+    @Override
+    public Iterator<Map.Entry<K,V>> scan(K low, boolean lowInclusive, K high, boolean highInclusive,
+                                         boolean descending) {
+        NavigableMap<K, Object> range = map;
+        if (low != null && high != null) {
+            range = map.subMap(low, lowInclusive, high, highInclusive);
+        } else if (low != null) {
+            range = map.tailMap(low, lowInclusive);
+        } else if (high != null) {
+            range = map.headMap(high, highInclusive);
+        }
+        Iterator<Map.Entry<K, Object>> entries = (descending ? range.descendingMap() : range).entrySet().iterator();
+        return new Iterator<Map.Entry<K,V>>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public Map.Entry<K,V> next() {
+                Map.Entry<K, Object> entry = entries.next();
+                return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), unmask(entry.getValue()));
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private V unmask(Object value) {
+        return value == NULL_VALUE ? null : (V) value;
+    }
+}
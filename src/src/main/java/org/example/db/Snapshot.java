@@ -0,0 +1,16 @@
+package org.example.db;
+
+import java.util.function.BiConsumer;
+
+// Point-in-time read view of a database. Close it promptly: versions it can see are kept until then.
+public interface Snapshot<K,V> extends AutoCloseable {
+    V get(K key);
+
+    boolean containsKey(K key);
+
+    // Visits every entry visible in the snapshot, in no particular order. Never blocks writers.
+    void forEach(BiConsumer<? super K, ? super V> action);
+
+    @Override
+    void close();
+}
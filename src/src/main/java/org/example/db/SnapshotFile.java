@@ -0,0 +1,349 @@
+package org.example.db;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ * Point-in-time image of a database, written by checkpoints and memory-mapped on startup. Layout:
+ *   data blocks : records of int keyLength | key | int valueLength (-1 = null value) | value, or with
+ *                 compression a value in one of the forms Compression describes
+ *   index       : per data block int firstKeyLength | firstKey | long offset | int length
+ *   expiries    : per key with a ttl int keyLength | key | long deadline (epoch millis)
+ *   footer      : long indexOffset | int indexLength | long expiryOffset | int expiryLength | long entries | long MAGIC
+ *
+ * Keys are the serialized keys in unsigned byte order, so no key is deserialized to find one and the
+ * file doesn't depend on the engine's key order. Data is mapped in REGION_SIZE pieces (one mapping
+ * can't exceed 2 GB); the writer pads so that no block straddles two of them. The index and the
+ * expiries are read onto the heap on open, the data blocks are only paged in when a lookup or the
+ * hydration cursor touches them.
+ */
+final class SnapshotFile {
+    // stands for a key stored with a null value
+    static final byte[] NULL_VALUE = new byte[0];
+    static final int BLOCK_SIZE = 4 * 1024;
+    static final int REGION_BITS = 30;
+    static final long REGION_SIZE = 1L << REGION_BITS;
+    private static final int FOOTER_SIZE = 8 + 4 + 8 + 4 + 8 + 8;
+    private static final long MAGIC = 0x4b56534e41505331L;
+
+    final Path path;
+    final long entries;
+    // counts decompressions; may be null
+    private final Compression compression;
+    private final ByteBuffer[] regions;
+    private final byte[][] firstKeys;
+    private final long[] blockOffsets;
+    private final int[] blockLengths;
+    private final byte[][] expiryKeys;
+    private final long[] deadlines;
+
+    private SnapshotFile(Path path, long entries, Compression compression, ByteBuffer[] regions, byte[][] firstKeys, long[] blockOffsets,
+                         int[] blockLengths, byte[][] expiryKeys, long[] deadlines) {
+        this.path = path;
+        this.entries = entries;
+        this.compression = compression;
+        this.regions = regions;
+        this.firstKeys = firstKeys;
+        this.blockOffsets = blockOffsets;
+        this.blockLengths = blockLengths;
+        this.expiryKeys = expiryKeys;
+        this.deadlines = deadlines;
+    }
+
+    // Reads the footer, index and expiries; data pages stay on disk until touched.
+    static SnapshotFile open(Path path, Compression compression) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < FOOTER_SIZE) {
+                throw new IOException("Not a snapshot file: " + path);
+            }
+            ByteBuffer footer = read(channel, size - FOOTER_SIZE, FOOTER_SIZE);
+            long indexOffset = footer.getLong();
+            int indexLength = footer.getInt();
+            long expiryOffset = footer.getLong();
+            int expiryLength = footer.getInt();
+            long entries = footer.getLong();
+            if (footer.getLong() != MAGIC) {
+                throw new IOException("Not a snapshot file: " + path);
+            }
+
+            ByteBuffer index = read(channel, indexOffset, indexLength);
+            int blocks = index.getInt();
+            byte[][] firstKeys = new byte[blocks][];
+            long[] offsets = new long[blocks];
+            int[] lengths = new int[blocks];
+            for (int i = 0; i < blocks; i++) {
+                firstKeys[i] = new byte[index.getInt()];
+                index.get(firstKeys[i]);
+                offsets[i] = index.getLong();
+                lengths[i] = index.getInt();
+            }
+
+            ByteBuffer expiry = read(channel, expiryOffset, expiryLength);
+            int expiring = expiry.getInt();
+            byte[][] expiryKeys = new byte[expiring][];
+            long[] deadlines = new long[expiring];
+            for (int i = 0; i < expiring; i++) {
+                expiryKeys[i] = new byte[expiry.getInt()];
+                expiry.get(expiryKeys[i]);
+                deadlines[i] = expiry.getLong();
+            }
+
+            ByteBuffer[] regions = new ByteBuffer[(int) ((indexOffset + REGION_SIZE - 1) >>> REGION_BITS)];
+            for (int i = 0; i < regions.length; i++) {
+                long start = (long) i << REGION_BITS;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(REGION_SIZE, indexOffset - start)).asReadOnlyBuffer();
+            }
+            return new SnapshotFile(path, entries, compression, regions, firstKeys, offsets, lengths, expiryKeys, deadlines);
+        }
+    }
+
+    // Serialized value, NULL_VALUE for a null value, or null when the snapshot doesn't have the key.
+    byte[] get(byte[] key) {
+        int block = blockFor(key);
+        if (block < 0) {
+            return null;
+        }
+        ByteBuffer data = block(block);
+        ByteBuffer dictionary = null;
+        while (data.hasRemaining()) {
+            int keyLength = data.getInt();
+            int keyStart = data.position();
+            data.position(keyStart + keyLength);
+            int valueLength = data.getInt();
+            dictionary = Compression.dictionary(data, valueLength, dictionary);
+            int order = compare(data, keyStart, keyLength, key);
+            if (order == 0) {
+                return valueLength == -1 ? NULL_VALUE : Compression.read(data, valueLength, dictionary, compression);
+            }
+            if (order > 0) {
+                // records are sorted, so the key would have come before this one
+                return null;
+            }
+            Compression.skip(data, valueLength);
+        }
+        return null;
+    }
+
+    int expiryCount() {
+        return expiryKeys.length;
+    }
+
+    byte[] expiryKey(int i) {
+        return expiryKeys[i];
+    }
+
+    long deadline(int i) {
+        return deadlines[i];
+    }
+
+    Cursor cursor() {
+        return new Cursor(this);
+    }
+
+    private int blockFor(byte[] key) {
+        int low = 0;
+        int high = firstKeys.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (Arrays.compareUnsigned(firstKeys[mid], key) <= 0) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private ByteBuffer block(int block) {
+        long offset = blockOffsets[block];
+        ByteBuffer view = regions[(int) (offset >>> REGION_BITS)].duplicate();
+        int position = (int) (offset & (REGION_SIZE - 1));
+        view.limit(position + blockLengths[block]).position(position);
+        return view.slice();
+    }
+
+    // Unsigned byte order of the record key at offset against key, as Arrays.compareUnsigned.
+    private static int compare(ByteBuffer data, int offset, int length, byte[] key) {
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int order = Integer.compare(data.get(offset + i) & 0xff, key[i] & 0xff);
+            if (order != 0) {
+                return order;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated snapshot file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // Sequential reader used for hydration.
+    static final class Cursor {
+        private final SnapshotFile file;
+        private int block = -1;
+        private ByteBuffer data;
+        private ByteBuffer dictionary;
+        byte[] key;
+        byte[] value;
+
+        private Cursor(SnapshotFile file) {
+            this.file = file;
+        }
+
+        boolean advance() {
+            while (data == null || !data.hasRemaining()) {
+                if (block + 1 >= file.blockOffsets.length) {
+                    return false;
+                }
+                data = file.block(++block);
+                dictionary = null;
+            }
+            key = new byte[data.getInt()];
+            data.get(key);
+            int valueLength = data.getInt();
+            dictionary = Compression.dictionary(data, valueLength, dictionary);
+            value = valueLength == -1 ? NULL_VALUE : Compression.read(data, valueLength, dictionary, file.compression);
+            return true;
+        }
+    }
+
+    static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final DataOutputStream out;
+        private final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        private final DataOutputStream index = new DataOutputStream(indexBytes);
+        private final ByteArrayOutputStream expiryBytes = new ByteArrayOutputStream();
+        private final DataOutputStream expiry = new DataOutputStream(expiryBytes);
+        // null when values are stored uncompressed
+        private final Compression.Encoder encoder;
+        private final int blockSize;
+        private int blocks;
+        private int expiring;
+        private long position;
+        private long blockStart;
+        private long entries;
+        private boolean blockOpen;
+
+        Writer(Path path, Compression compression) throws IOException {
+            this.encoder = compression == null ? null : compression.encoder();
+            this.blockSize = compression == null ? BLOCK_SIZE : compression.blockSize();
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+        }
+
+        // Keys must arrive in ascending unsigned byte order; value NULL_VALUE stores a null.
+        void add(byte[] key, byte[] value) throws IOException {
+            // compression only ever adds the 8 bytes of a dictionary marker, so this bounds the record
+            long length = 8L + key.length + (value == NULL_VALUE ? 0 : value.length) + (encoder == null ? 0 : 8);
+            if (length > REGION_SIZE) {
+                throw new IllegalArgumentException("Record of " + length + " bytes is too large for a snapshot");
+            }
+            if ((position >>> REGION_BITS) != ((position + length - 1) >>> REGION_BITS)) {
+                endBlock();
+                pad(REGION_SIZE - (position & (REGION_SIZE - 1)));
+            }
+            if (!blockOpen) {
+                blockStart = position;
+                index.writeInt(key.length);
+                index.write(key);
+                index.writeLong(blockStart);
+                blockOpen = true;
+                if (encoder != null) {
+                    encoder.newBlock();
+                }
+            }
+            out.writeInt(key.length);
+            out.write(key);
+            if (value == NULL_VALUE) {
+                out.writeInt(-1);
+                position += 8 + key.length;
+            } else if (encoder != null) {
+                position += 4 + key.length + encoder.encode(value);
+                encoder.writeTo(out);
+            } else {
+                out.writeInt(value.length);
+                out.write(value);
+                position += length;
+            }
+            entries++;
+            if (position - blockStart >= blockSize) {
+                endBlock();
+            }
+        }
+
+        void addExpiry(byte[] key, long deadline) throws IOException {
+            expiry.writeInt(key.length);
+            expiry.write(key);
+            expiry.writeLong(deadline);
+            expiring++;
+        }
+
+        long entries() {
+            return entries;
+        }
+
+        private void endBlock() throws IOException {
+            if (blockOpen) {
+                index.writeInt((int) (position - blockStart));
+                blockOpen = false;
+                blocks++;
+            }
+        }
+
+        private void pad(long count) throws IOException {
+            byte[] zeros = new byte[(int) Math.min(count, 64 * 1024)];
+            while (count > 0) {
+                int chunk = (int) Math.min(count, zeros.length);
+                out.write(zeros, 0, chunk);
+                count -= chunk;
+                position += chunk;
+            }
+        }
+
+        // Writes index, expiries and footer and forces the file to disk.
+        void finish() throws IOException {
+            endBlock();
+            long indexOffset = position;
+            out.writeInt(blocks);
+            out.write(indexBytes.toByteArray());
+            long expiryOffset = indexOffset + 4 + indexBytes.size();
+            out.writeInt(expiring);
+            out.write(expiryBytes.toByteArray());
+            out.writeLong(indexOffset);
+            out.writeInt(4 + indexBytes.size());
+            out.writeLong(expiryOffset);
+            out.writeInt(4 + expiryBytes.size());
+            out.writeLong(entries);
+            out.writeLong(MAGIC);
+            out.flush();
+            channel.force(true);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
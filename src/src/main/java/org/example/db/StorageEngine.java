@@ -0,0 +1,64 @@
+package org.example.db;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+// Backend behind KeyValueDatabase; the database handles logging and the public API on top of it.
+public interface StorageEngine<K,V> {
+    V get(K key);
+
+    boolean containsKey(K key);
+
+    void put(K key, V value);
+
+    void remove(K key);
+
+    // Throws IllegalArgumentException if put would reject the value. The database checks every value
+    // before logging it, since a logged write the engine rejects would fail again on every replay.
+    default void checkValue(V value) {
+    }
+
+    // Engines that drop entries on their own, like BoundedEngine, pass each dropped entry to the listener so
+    // the database can clear its ttl and index entries. It may run inside the engine's own locks, so it
+    // must be quick and must not call back into the engine.
+    default void setEvictionListener(BiConsumer<? super K, ? super V> listener) {
+    }
+
+    // Whether get/put/remove may be called from several threads at once.
+    default boolean isConcurrent() {
+        return false;
+    }
+
+    // Whether get(key) is answered without touching disk; lets async reads complete on the caller.
+    default boolean isResident(K key) {
+        return true;
+    }
+
+    // Number of keys, or -1 if the engine can't tell in O(1).
+    default long size() {
+        return -1;
+    }
+
+    // Point-in-time view that later writes don't affect; only versioned engines support it.
+    default Snapshot<K,V> snapshot() {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support snapshots");
+    }
+
+    // Entries between low and high in key order (descending if asked), produced lazily; a null bound is
+    // open. Only ordered engines support it.
+    default Iterator<Map.Entry<K,V>> scan(K low, boolean lowInclusive, K high, boolean highInclusive,
+                                          boolean descending) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support range scans");
+    }
+
+    // Visits every entry in no particular order. Callers must keep writers out for a consistent view;
+    // concurrent engines also allow it alongside writers, visiting each entry present throughout once.
+    default void forEach(BiConsumer<? super K, ? super V> action) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " can't list its entries");
+    }
+
+    default void close() throws IOException {
+    }
+}
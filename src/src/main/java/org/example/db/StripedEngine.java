@@ -0,0 +1,207 @@
+package org.example.db;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/*
+ * Concurrent hash table split into independently locked segments.
+ * Writers lock only the segment their key hashes to; readers never lock. Chains are immutable apart
+ * from the volatile value, so a reader walking a chain always sees a consistent list: removal copies
+ * the nodes in front of the removed one instead of unlinking in place, and a resize publishes a fully
+ * built table through the volatile field.
+ */
+public class StripedEngine<K,V> implements StorageEngine<K,V> {
+    private static final int DEFAULT_SEGMENTS = 64;
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final Segment<K,V>[] segments;
+    private final int segmentShift;
+    private final int segmentMask;
+
+    public StripedEngine() {
+        this(DEFAULT_SEGMENTS);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public StripedEngine(int concurrencyLevel) {
+        int count = 1;
+        int shift = 0;
+        while (count < concurrencyLevel) {
+            count <<= 1;
+            shift++;
+        }
+        segments = (Segment<K,V>[]) new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<>(INITIAL_SEGMENT_CAPACITY);
+        }
+        segmentShift = 32 - shift;
+        segmentMask = count - 1;
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    @Override
+    public V get(K key) {
+        int hash = hash(key);
+        Node<K,V> node = segmentFor(hash).find(key, hash);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        int hash = hash(key);
+        return segmentFor(hash).find(key, hash) != null;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        int hash = hash(key);
+        segmentFor(hash).put(key, hash, value);
+    }
+
+    @Override
+    public void remove(K key) {
+        int hash = hash(key);
+        segmentFor(hash).remove(key, hash);
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (Segment<K,V> segment : segments) {
+            size += segment.count;
+        }
+        return size;
+    }
+
+    // Reads each segment's table as it is at the time, like get().
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for (Segment<K,V> segment : segments) {
+            AtomicReferenceArray<Node<K,V>> tab = segment.table;
+            for (int i = 0; i < tab.length(); i++) {
+                for (Node<K,V> node = tab.get(i); node != null; node = node.next) {
+                    action.accept(node.key, node.value);
+                }
+            }
+        }
+    }
+
+    private Segment<K,V> segmentFor(int hash) {
+        return segments[(hash >>> segmentShift) & segmentMask];
+    }
+
+    // Spread the bits so both the segment index (high bits) and the bucket index (low bits) vary.
+    static int hash(Object key) {
+        int h = key == null ? 0 : key.hashCode();
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    static final class Node<K,V> {
+        final int hash;
+        final K key;
+        volatile V value;
+        final Node<K,V> next;
+
+        Node(int hash, K key, V value, Node<K,V> next) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+
+        boolean matches(Object other, int otherHash) {
+            return hash == otherHash && (key == other || (key != null && key.equals(other)));
+        }
+    }
+
+    static final class Segment<K,V> extends ReentrantLock {
+        private static final long serialVersionUID = 1L;
+
+        volatile AtomicReferenceArray<Node<K,V>> table;
+        volatile int count;
+        private int threshold;
+
+        Segment(int capacity) {
+            table = new AtomicReferenceArray<>(capacity);
+            threshold = (int) (capacity * LOAD_FACTOR);
+        }
+
+        Node<K,V> find(Object key, int hash) {
+            AtomicReferenceArray<Node<K,V>> tab = table;
+            for (Node<K,V> node = tab.get(hash & (tab.length() - 1)); node != null; node = node.next) {
+                if (node.matches(key, hash)) {
+                    return node;
+                }
+            }
+            return null;
+        }
+
+        void put(K key, int hash, V value) {
+            lock();
+            try {
+                AtomicReferenceArray<Node<K,V>> tab = table;
+                int index = hash & (tab.length() - 1);
+                Node<K,V> first = tab.get(index);
+                for (Node<K,V> node = first; node != null; node = node.next) {
+                    if (node.matches(key, hash)) {
+                        node.value = value;
+                        return;
+                    }
+                }
+                tab.set(index, new Node<>(hash, key, value, first));
+                if (++count > threshold) {
+                    resize();
+                }
+            } finally {
+                unlock();
+            }
+        }
+
+        void remove(Object key, int hash) {
+            lock();
+            try {
+                AtomicReferenceArray<Node<K,V>> tab = table;
+                int index = hash & (tab.length() - 1);
+                Node<K,V> first = tab.get(index);
+                Node<K,V> target = first;
+                while (target != null && !target.matches(key, hash)) {
+                    target = target.next;
+                }
+                if (target == null) {
+                    return;
+                }
+                // nodes ahead of the removed one are cloned so concurrent readers never see a broken chain
+                Node<K,V> chain = target.next;
+                for (Node<K,V> node = first; node != target; node = node.next) {
+                    chain = new Node<>(node.hash, node.key, node.value, chain);
+                }
+                tab.set(index, chain);
+                count--;
+            } finally {
+                unlock();
+            }
+        }
+
+        // Caller holds the lock.
+        private void resize() {
+            AtomicReferenceArray<Node<K,V>> old = table;
+            int capacity = old.length() << 1;
+            AtomicReferenceArray<Node<K,V>> grown = new AtomicReferenceArray<>(capacity);
+            for (int i = 0; i < old.length(); i++) {
+                for (Node<K,V> node = old.get(i); node != null; node = node.next) {
+                    int index = node.hash & (capacity - 1);
+                    grown.set(index, new Node<>(node.hash, node.key, node.value, grown.get(index)));
+                }
+            }
+            threshold = (int) (capacity * LOAD_FACTOR);
+            table = grown;
+        }
+    }
+}
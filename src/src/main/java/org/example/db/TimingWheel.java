@@ -0,0 +1,154 @@
+package org.example.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Hierarchical timing wheel: LEVELS wheels of 64 slots, level L slot width = 64^L ticks. A timer sits
+ * in the lowest level whose higher-order tick bits differ from the current tick's, so it only moves
+ * down ("cascades") when the wheel reaches its slot, and expires exactly on its tick at level 0.
+ * Slots are intrusive doubly-linked lists, so schedule and cancel are O(1) and nothing ever scans
+ * all timers. Deadlines beyond the top level are parked in its slots and re-placed as it turns.
+ */
+final class TimingWheel<K> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 5;
+
+    static final class Timer<K> {
+        final K key;
+        final long deadline;
+        private long deadlineTick;
+        private Timer<K> prev;
+        private Timer<K> next;
+
+        Timer(K key, long deadline) {
+            this.key = key;
+            this.deadline = deadline;
+        }
+
+        boolean isScheduled() {
+            return prev != null;
+        }
+    }
+
+    private final long tickMillis;
+    private final Timer<K>[][] slots;
+    private long currentTick;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TimingWheel(long tickMillis, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = nowMillis / tickMillis;
+        slots = (Timer<K>[][]) new Timer[LEVELS][SLOTS];
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                // sentinel heads keep link/unlink branch-free
+                Timer<K> head = new Timer<>(null, 0);
+                head.prev = head;
+                head.next = head;
+                slots[level][slot] = head;
+            }
+        }
+    }
+
+    synchronized void schedule(Timer<K> timer) {
+        // round up so a timer never fires before its deadline
+        timer.deadlineTick = Math.max((timer.deadline + tickMillis - 1) / tickMillis, currentTick + 1);
+        place(timer);
+    }
+
+    synchronized void cancel(Timer<K> timer) {
+        if (timer.isScheduled()) {
+            unlink(timer);
+        }
+    }
+
+    // Turns the wheel up to now and returns the timers that fired. Called on every operation once keys
+    // have ttls, so nothing is allocated unless a timer fires.
+    synchronized List<Timer<K>> advance(long nowMillis) {
+        long target = nowMillis / tickMillis;
+        if (currentTick >= target) {
+            return Collections.emptyList();
+        }
+        List<Timer<K>> expired = null;
+        while (currentTick < target) {
+            // skip the ticks where nothing fires or cascades, so an idle wheel costs nothing to turn
+            currentTick = Math.min(nextOccupiedTick(), target);
+            for (int level = 1; level < LEVELS; level++) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                    break;
+                }
+                cascade(level, (int) ((currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1)));
+            }
+            Timer<K> head = slots[0][(int) (currentTick & (SLOTS - 1))];
+            while (head.next != head) {
+                Timer<K> timer = head.next;
+                unlink(timer);
+                if (timer.deadlineTick <= currentTick) {
+                    if (expired == null) {
+                        expired = new ArrayList<>();
+                    }
+                    expired.add(timer);
+                } else {
+                    place(timer);
+                }
+            }
+        }
+        return expired == null ? Collections.<Timer<K>>emptyList() : expired;
+    }
+
+    // The first tick after the current one that reaches a non-empty slot at some level, or MAX_VALUE
+    // when the wheel is empty. Lower levels only hold ticks before the next slot of the level above.
+    private long nextOccupiedTick() {
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = SLOT_BITS * level;
+            long turn = currentTick >>> shift;
+            // only the top level wraps around: its slots may hold deadlines a full turn or more away
+            int last = level == LEVELS - 1 ? SLOTS : SLOTS - 1 - (int) (turn & (SLOTS - 1));
+            for (int step = 1; step <= last; step++) {
+                Timer<K> head = slots[level][(int) ((turn + step) & (SLOTS - 1))];
+                if (head.next != head) {
+                    return (turn + step) << shift;
+                }
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private void cascade(int level, int slot) {
+        Timer<K> head = slots[level][slot];
+        Timer<K> timer = head.next;
+        head.next = head;
+        head.prev = head;
+        while (timer != head) {
+            Timer<K> next = timer.next;
+            timer.prev = null;
+            timer.next = null;
+            place(timer);
+            timer = next;
+        }
+    }
+
+    private void place(Timer<K> timer) {
+        int level = 0;
+        while (level < LEVELS - 1
+                && (timer.deadlineTick >>> (SLOT_BITS * (level + 1))) != (currentTick >>> (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        int slot = (int) ((timer.deadlineTick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+        Timer<K> head = slots[level][slot];
+        timer.prev = head.prev;
+        timer.next = head;
+        head.prev.next = timer;
+        head.prev = timer;
+    }
+
+    private static <K> void unlink(Timer<K> timer) {
+        timer.prev.next = timer.next;
+        timer.next.prev = timer.prev;
+        timer.prev = null;
+        timer.next = null;
+    }
+}
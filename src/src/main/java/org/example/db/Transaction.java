@@ -0,0 +1,74 @@
+package org.example.db;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Optimistic multi-key transaction from KeyValueDatabase.beginTransaction(). Reads go straight to the
+ * database and remember the version of each key they saw; writes are buffered and read back by later
+ * gets. commit() locks the stripes of every key read or written, checks that no read key has changed
+ * since, and applies the writes as one batch, or writes nothing and returns false. No lock is held
+ * before commit. Use a transaction from one thread, and only once.
+ */
+public class Transaction<K,V> {
+    private static final Object DELETED = new Object();
+
+    private final KeyValueDatabase<K,V> database;
+    // version of every key read, as first seen
+    final Map<K, Long> reads = new HashMap<>();
+    final WriteBatch<K,V> writes = new WriteBatch<>();
+    // latest buffered value per written key, DELETED for a delete
+    private final Map<K, Object> written = new HashMap<>();
+    private boolean done;
+
+    Transaction(KeyValueDatabase<K,V> database) {
+        this.database = database;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        checkOpen();
+        Object pending = written.get(key);
+        if (pending != null || written.containsKey(key)) {
+            return pending == DELETED ? null : (V) pending;
+        }
+        // the version first: a write landing in between makes the commit fail rather than go unnoticed
+        long version = database.version(key);
+        V value = database.get(key);
+        reads.putIfAbsent(key, version);
+        return value;
+    }
+
+    public Transaction<K,V> set(K key, V value) {
+        checkOpen();
+        writes.put(key, value);
+        written.put(key, value);
+        return this;
+    }
+
+    public Transaction<K,V> delete(K key) {
+        checkOpen();
+        writes.delete(key);
+        written.put(key, DELETED);
+        return this;
+    }
+
+    // Returns false, having written nothing, if a key this transaction read was changed since.
+    public boolean commit() {
+        checkOpen();
+        done = true;
+        return database.commit(this);
+    }
+
+    public boolean commit(Durability durability) {
+        checkOpen();
+        done = true;
+        return database.commit(this, durability);
+    }
+
+    private void checkOpen() {
+        if (done) {
+            throw new IllegalStateException("Transaction already committed");
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package org.example.db;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/*
+ * Append-only mutation log. Record layout:
+ *   int bodyLength | int crc32(body) | body
+ *   body = byte op | int keyLength | key | int valueLength (-1 if none) | value
+ *
+ * Appends only copy into an in-memory buffer. Whoever needs the data on disk first
+ * becomes the flush leader and writes (and fsyncs) everything buffered so far, so
+ * concurrent FSYNC writers share a single force() call.
+ */
+public class WriteAheadLog implements Closeable {
+    public static final byte OP_SET = 1;
+    public static final byte OP_DELETE = 2;
+    // value = 8-byte absolute expiry time in epoch millis
+    public static final byte OP_EXPIRE = 3;
+    // key = empty, value = a WriteBatch's records back to back
+    public static final byte OP_BATCH = 4;
+    // value = up to 64 KB of a streamed value, in order
+    public static final byte OP_CHUNK = 5;
+    // value = 8-byte total length; the streamed value is the key's last chunks covering that length
+    public static final byte OP_CHUNK_END = 6;
+
+    private static final int HEADER_SIZE = 8;
+    private static final long ASYNC_FLUSH_INTERVAL_MS = 10;
+
+    public interface RecordHandler {
+        void apply(byte op, byte[] key, byte[] value);
+    }
+
+    // replaced only by rotate(), while it holds the flush
+    private FileChannel channel;
+    private final Object lock = new Object();
+    private final CRC32 crc = new CRC32();
+    private final ScheduledExecutorService flusher;
+
+    // guarded by lock
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer spare = ByteBuffer.allocate(64 * 1024);
+    private long appendedSeq;
+    private long writtenSeq;
+    private long syncedSeq;
+    private boolean flushing;
+    private IOException failure;
+    private boolean closed;
+
+    private WriteAheadLog(FileChannel channel) {
+        this.channel = channel;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "wal-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushAsync, ASYNC_FLUSH_INTERVAL_MS, ASYNC_FLUSH_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    // Replays every intact record into the handler, cuts off a torn tail and opens the log for appends.
+    public static WriteAheadLog open(Path file, RecordHandler handler) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long validLength = replay(channel, handler);
+            channel.truncate(validLength);
+            channel.position(validLength);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return new WriteAheadLog(channel);
+    }
+
+    private static long replay(FileChannel channel, RecordHandler handler) throws IOException {
+        channel.position(0);
+        InputStream stream = new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024);
+        DataInputStream in = new DataInputStream(stream);
+        CRC32 crc = new CRC32();
+        long validLength = 0;
+        long fileSize = channel.size();
+        while (validLength + HEADER_SIZE <= fileSize) {
+            byte[] body;
+            int checksum;
+            try {
+                int bodyLength = in.readInt();
+                checksum = in.readInt();
+                if (bodyLength <= 0 || validLength + HEADER_SIZE + bodyLength > fileSize) {
+                    break;
+                }
+                body = new byte[bodyLength];
+                in.readFully(body);
+            } catch (EOFException e) {
+                break;
+            }
+            crc.reset();
+            crc.update(body, 0, body.length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.wrap(body);
+            byte op = record.get();
+            byte[] key = new byte[record.getInt()];
+            record.get(key);
+            int valueLength = record.getInt();
+            byte[] value = null;
+            if (valueLength >= 0) {
+                value = new byte[valueLength];
+                record.get(value);
+            }
+            handler.apply(op, key, value);
+            validLength += HEADER_SIZE + body.length;
+        }
+        return validLength;
+    }
+
+    // Buffers one record and returns its sequence number; pass it to await() for durability.
+    public long append(byte op, byte[] key, byte[] value) throws IOException {
+        return append(op, key, Codecs.bytes(), value, Codecs.bytes());
+    }
+
+    // Same, encoding key and value (null for none) straight into the log buffer.
+    public <A,B> long append(byte op, A key, Codec<? super A> keyCodec, B value, Codec<? super B> valueCodec)
+            throws IOException {
+        // sized outside the lock, which is where a slow codec does its work
+        int keyLength = keyCodec.encodedSize(key);
+        int valueLength = value == null ? -1 : valueCodec.encodedSize(value);
+        int bodyLength = 1 + 4 + keyLength + 4 + Math.max(valueLength, 0);
+        synchronized (lock) {
+            ensureOpen();
+            ensureCapacity(HEADER_SIZE + bodyLength);
+            int start = pending.position();
+            pending.putInt(bodyLength);
+            pending.putInt(0);
+            pending.put(op);
+            pending.putInt(keyLength);
+            keyCodec.encode(key, pending);
+            pending.putInt(valueLength);
+            if (value != null) {
+                valueCodec.encode(value, pending);
+            }
+            if (pending.position() != start + HEADER_SIZE + bodyLength) {
+                pending.position(start);
+                throw new IllegalStateException("Codec wrote a different length than encodedSize() reported");
+            }
+            crc.reset();
+            crc.update(pending.array(), pending.arrayOffset() + start + HEADER_SIZE, bodyLength);
+            pending.putInt(start + 4, (int) crc.getValue());
+            return ++appendedSeq;
+        }
+    }
+
+    public void await(long seq, Durability durability) throws IOException {
+        switch (durability) {
+            case FSYNC:
+                flush(seq, true);
+                break;
+            case BUFFERED:
+                flush(seq, false);
+                break;
+            case ASYNC:
+                break;
+        }
+    }
+
+    private void flush(long seq, boolean sync) throws IOException {
+        ByteBuffer batch;
+        long batchSeq;
+        synchronized (lock) {
+            while (true) {
+                ensureOpen();
+                if ((sync ? syncedSeq : writtenSeq) >= seq) {
+                    return;
+                }
+                if (!flushing) {
+                    break;
+                }
+                // another writer is flushing; its batch or the next one will cover us
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for log flush", e);
+                }
+            }
+            flushing = true;
+            batch = pending;
+            batchSeq = appendedSeq;
+            pending = spare;
+            spare = null;
+        }
+
+        IOException error = null;
+        try {
+            batch.flip();
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            if (sync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+
+        synchronized (lock) {
+            batch.clear();
+            spare = batch;
+            flushing = false;
+            if (error == null) {
+                writtenSeq = batchSeq;
+                if (sync) {
+                    syncedSeq = batchSeq;
+                }
+            } else {
+                // records in the failed batch are lost, so nothing after this point can be acknowledged
+                failure = error;
+            }
+            lock.notifyAll();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    // Writes and fsyncs everything appended so far to the current file, then continues in next.
+    // Sequence numbers carry on across files, so waiters on earlier records are released as usual.
+    public void rotate(Path next) throws IOException {
+        FileChannel opened = FileChannel.open(next, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        ByteBuffer batch;
+        long batchSeq;
+        synchronized (lock) {
+            while (flushing) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    opened.close();
+                    throw new IOException("Interrupted while waiting for log flush", e);
+                }
+            }
+            try {
+                ensureOpen();
+            } catch (IOException e) {
+                opened.close();
+                throw e;
+            }
+            flushing = true;
+            batch = pending;
+            batchSeq = appendedSeq;
+            pending = spare;
+            spare = null;
+        }
+
+        FileChannel previous = channel;
+        IOException error = null;
+        try {
+            batch.flip();
+            while (batch.hasRemaining()) {
+                previous.write(batch);
+            }
+            previous.force(false);
+            opened.position(opened.size());
+        } catch (IOException e) {
+            error = e;
+        }
+
+        synchronized (lock) {
+            batch.clear();
+            spare = batch;
+            flushing = false;
+            if (error == null) {
+                writtenSeq = batchSeq;
+                syncedSeq = batchSeq;
+                channel = opened;
+            } else {
+                failure = error;
+            }
+            lock.notifyAll();
+        }
+        if (error != null) {
+            opened.close();
+            throw error;
+        }
+        previous.close();
+    }
+
+    private void flushAsync() {
+        long seq;
+        synchronized (lock) {
+            if (closed || failure != null || syncedSeq == appendedSeq) {
+                return;
+            }
+            seq = appendedSeq;
+        }
+        try {
+            flush(seq, true);
+        } catch (IOException ignored) {
+            // recorded in failure and reported to the next writer
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (pending.remaining() >= size) {
+            return;
+        }
+        int capacity = pending.capacity();
+        while (capacity - pending.position() < size) {
+            capacity *= 2;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        pending.flip();
+        grown.put(pending);
+        pending = grown;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (failure != null) {
+            throw new IOException("Write-ahead log failed earlier", failure);
+        }
+        if (closed) {
+            throw new IOException("Write-ahead log is closed");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        long seq;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            seq = appendedSeq;
+        }
+        try {
+            if (failure == null) {
+                flush(seq, true);
+            }
+        } finally {
+            synchronized (lock) {
+                closed = true;
+                lock.notifyAll();
+            }
+            channel.close();
+        }
+    }
+}
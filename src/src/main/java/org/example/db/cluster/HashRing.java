@@ -0,0 +1,109 @@
+package org.example.db.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Immutable consistent-hash ring. Every shard is placed at virtualNodes pseudo-random points, and a key
+ * belongs to the shard owning the first point at or after the key's hash, wrapping around. Adding or
+ * removing one of n shards only moves the keys between its points and their neighbours, about 1/n of
+ * them, and the many points per shard even out how much each one owns.
+ *
+ * Points sit in a sorted long[] with a parallel owner array, so a lookup is one binary search.
+ */
+final class HashRing<K,V> {
+    private final Map<String, Shard<K,V>> shards;
+    private final int virtualNodes;
+    private final long[] points;
+    private final Shard<K,V>[] owners;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    HashRing(Map<String, Shard<K,V>> shards, int virtualNodes) {
+        this.shards = Collections.unmodifiableMap(new LinkedHashMap<>(shards));
+        this.virtualNodes = virtualNodes;
+        int count = shards.size() * virtualNodes;
+        long[] unsorted = new long[count];
+        String[] names = new String[count];
+        int i = 0;
+        for (String name : shards.keySet()) {
+            for (int v = 0; v < virtualNodes; v++) {
+                unsorted[i] = pointHash(name, v);
+                names[i++] = name;
+            }
+        }
+        // sort positions together with their owners
+        Integer[] order = new Integer[count];
+        for (i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int c = Long.compare(unsorted[a], unsorted[b]);
+            // ties are astronomically rare; break them by name so every ring agrees
+            return c != 0 ? c : names[a].compareTo(names[b]);
+        });
+        points = new long[count];
+        owners = new Shard[count];
+        for (i = 0; i < count; i++) {
+            points[i] = unsorted[order[i]];
+            owners[i] = shards.get(names[order[i]]);
+        }
+    }
+
+    HashRing<K,V> with(String name, Shard<K,V> shard) {
+        Map<String, Shard<K,V>> next = new LinkedHashMap<>(shards);
+        next.put(name, shard);
+        return new HashRing<>(next, virtualNodes);
+    }
+
+    HashRing<K,V> without(String name) {
+        Map<String, Shard<K,V>> next = new LinkedHashMap<>(shards);
+        next.remove(name);
+        return new HashRing<>(next, virtualNodes);
+    }
+
+    Map<String, Shard<K,V>> shards() {
+        return shards;
+    }
+
+    boolean isEmpty() {
+        return points.length == 0;
+    }
+
+    Shard<K,V> owner(K key) {
+        if (points.length == 0) {
+            throw new IllegalStateException("The cluster has no shards");
+        }
+        int i = Arrays.binarySearch(points, keyHash(key));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+    static long keyHash(Object key) {
+        return mix(key.hashCode());
+    }
+
+    // FNV-1a over the name and index, then mixed, so points don't depend on String.hashCode's weak bits.
+    private static long pointHash(String name, int index) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        h = (h ^ '#') * 0x100000001b3L;
+        h = (h ^ index) * 0x100000001b3L;
+        return mix(h);
+    }
+
+    // murmur3's 64-bit finalizer
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+}
@@ -0,0 +1,58 @@
+package org.example.db.cluster;
+
+import org.example.db.KeyValueDatabase;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.function.Consumer;
+
+/*
+ * A shard living in this JVM. The database should use a concurrent engine, since the cluster calls it
+ * from client threads and its migration thread at once.
+ */
+public class LocalShard<K,V> implements Shard<K,V> {
+    private final KeyValueDatabase<K,V> db;
+
+    public LocalShard(KeyValueDatabase<K,V> db) {
+        this.db = db;
+    }
+
+    public KeyValueDatabase<K,V> database() {
+        return db;
+    }
+
+    @Override
+    public V get(K key) {
+        return db.get(key);
+    }
+
+    @Override
+    public void set(K key, V value, long deadline) {
+        if (deadline == 0) {
+            db.set(key, value);
+        } else {
+            // a deadline already past still stores the value, for the expirer to remove
+            db.set(key, value, Duration.ofMillis(Math.max(1, deadline - System.currentTimeMillis())));
+        }
+    }
+
+    @Override
+    public boolean delete(K key) {
+        return db.delete(key);
+    }
+
+    @Override
+    public long deadline(K key) {
+        return db.deadline(key);
+    }
+
+    @Override
+    public void forEachKey(Consumer<? super K> action) {
+        db.forEachKey(action);
+    }
+
+    @Override
+    public void close() throws IOException {
+        db.close();
+    }
+}
@@ -0,0 +1,180 @@
+package org.example.db.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/*
+ * A shard in another process: a RespServer, or anything else speaking GET, SET PX, DEL, PTTL and KEYS.
+ * Uses one blocking connection, opened on first use and again after an I/O error, which the failing
+ * call reports as an UncheckedIOException. Calls are serialized on it, so give each client thread its own
+ * RespShard (or several shards of a ShardedDatabase their own processes) when throughput matters.
+ * Keys travel as UTF-8.
+ */
+public class RespShard implements Shard<String, byte[]> {
+    private final InetSocketAddress address;
+    private Socket socket;
+    private OutputStream out;
+    private DataInputStream in;
+
+    public RespShard(String host, int port) {
+        this(new InetSocketAddress(host, port));
+    }
+
+    public RespShard(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    @Override
+    public byte[] get(String key) {
+        return (byte[]) call(bytes("GET"), utf8(key));
+    }
+
+    @Override
+    public void set(String key, byte[] value, long deadline) {
+        if (deadline == 0) {
+            call(bytes("SET"), utf8(key), value);
+        } else {
+            long millis = Math.max(1, deadline - System.currentTimeMillis());
+            call(bytes("SET"), utf8(key), value, bytes("PX"), bytes(Long.toString(millis)));
+        }
+    }
+
+    @Override
+    public boolean delete(String key) {
+        return (Long) call(bytes("DEL"), utf8(key)) > 0;
+    }
+
+    @Override
+    public long deadline(String key) {
+        long millis = (Long) call(bytes("PTTL"), utf8(key));
+        return millis < 0 ? 0 : System.currentTimeMillis() + millis;
+    }
+
+    @Override
+    public void forEachKey(Consumer<? super String> action) {
+        List<?> keys = (List<?>) call(bytes("KEYS"), bytes("*"));
+        for (Object key : keys) {
+            action.accept(new String((byte[]) key, StandardCharsets.UTF_8));
+        }
+    }
+
+    // Sends one command and returns its reply: byte[] (or null) for bulk strings, Long for integers,
+    // String for simple strings and List for arrays. Error replies throw IllegalStateException.
+    private synchronized Object call(byte[]... args) {
+        try {
+            if (socket == null) {
+                connect();
+            }
+            out.write(header('*', args.length));
+            for (byte[] arg : args) {
+                out.write(header('$', arg.length));
+                out.write(arg);
+                out.write('\r');
+                out.write('\n');
+            }
+            out.flush();
+            return reply();
+        } catch (IOException e) {
+            disconnect();
+            throw new UncheckedIOException("Shard " + address + " failed", e);
+        }
+    }
+
+    private void connect() throws IOException {
+        Socket connection = new Socket();
+        try {
+            connection.connect(address);
+            connection.setTcpNoDelay(true);
+            out = new BufferedOutputStream(connection.getOutputStream(), 64 * 1024);
+            in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), 64 * 1024));
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        socket = connection;
+    }
+
+    private void disconnect() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // already broken
+            }
+            socket = null;
+        }
+    }
+
+    private Object reply() throws IOException {
+        int type = in.read();
+        String line = line();
+        switch (type) {
+            case '+':
+                return line;
+            case '-':
+                throw new IllegalStateException("Shard " + address + ": " + line);
+            case ':':
+                return Long.parseLong(line);
+            case '$': {
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    return null;
+                }
+                byte[] value = new byte[length];
+                in.readFully(value);
+                line();
+                return value;
+            }
+            case '*': {
+                int count = Integer.parseInt(line);
+                List<Object> items = new ArrayList<>(Math.max(count, 0));
+                for (int i = 0; i < count; i++) {
+                    items.add(reply());
+                }
+                return items;
+            }
+            default:
+                throw new IOException("Malformed reply from " + address);
+        }
+    }
+
+    private String line() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\r') {
+            if (c < 0) {
+                throw new IOException("Connection to " + address + " closed");
+            }
+            line.append((char) c);
+        }
+        in.read();
+        return line.toString();
+    }
+
+    private static byte[] header(char type, int count) {
+        return (type + Integer.toString(count) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] bytes(String ascii) {
+        return ascii.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] utf8(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public synchronized void close() {
+        disconnect();
+    }
+}
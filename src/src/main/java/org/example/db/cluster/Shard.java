@@ -0,0 +1,23 @@
+package org.example.db.cluster;
+
+import java.io.Closeable;
+import java.util.function.Consumer;
+
+/*
+ * One partition of a ShardedDatabase: an in-process database (LocalShard) or another process reached
+ * over the network (RespShard). Implementations must be safe to call from several threads. Deadlines are
+ * epoch millis, 0 for none.
+ */
+public interface Shard<K,V> extends Closeable {
+    V get(K key);
+
+    void set(K key, V value, long deadline);
+
+    boolean delete(K key);
+
+    // 0 if the key has no ttl or doesn't exist.
+    long deadline(K key);
+
+    // Every key present when the call started; keys changed meanwhile may or may not be visited.
+    void forEachKey(Consumer<? super K> action);
+}
@@ -0,0 +1,275 @@
+package org.example.db.cluster;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Partitions keys over shards on a consistent-hash ring with virtual nodes. Adding or removing a shard
+ * swaps in the new ring at once and moves the keys that changed owner, about 1/n of them, on a
+ * background thread while set/get/delete keep being served:
+ *   - writes go to the key's new owner and drop any copy left on the old one
+ *   - reads try the new owner first and fall back to the old one
+ *   - the mover copies each remaining key (with its ttl) from old to new owner and deletes the original
+ * Operations share a read lock on one of the cluster's stripes and go straight to the key's one shard.
+ * During a migration they take the stripe's write lock instead, as does each key's move, so a read never
+ * falls between the copy and the delete and a move never overwrites a newer write. Swapping the ring
+ * takes every write lock, so no operation is still using the old ring alone.
+ *
+ * One ring change runs at a time; addShard and removeShard wait for the previous migration to finish.
+ * A removed shard is left open for its owner to close after awaitMigration(). Streamed values
+ * (KeyValueDatabase.writeValueStream) are invisible to get, so the mover leaves them on the old shard.
+ */
+public class ShardedDatabase<K,V> {
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+    private static final int STRIPES = 64;
+    private static final long RETRY_MILLIS = 1000;
+
+    private final int virtualNodes;
+    private final ReentrantReadWriteLock[] stripes = new ReentrantReadWriteLock[STRIPES];
+    private volatile HashRing<K,V> ring;
+    // the ring being migrated away from, null when no migration is running
+    private volatile HashRing<K,V> previous;
+    private final AtomicLong movedKeys = new AtomicLong();
+    private volatile RuntimeException lastMigrationError;
+    private Thread migrator;
+
+    public ShardedDatabase() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    // More virtual nodes spread keys more evenly but make the ring larger; 100-200 is typical.
+    public ShardedDatabase(int virtualNodes) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Virtual nodes must be positive: " + virtualNodes);
+        }
+        this.virtualNodes = virtualNodes;
+        this.ring = new HashRing<>(Collections.emptyMap(), virtualNodes);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    // Adds a shard and starts moving its share of the keys to it. The first shard needs no migration.
+    public synchronized void addShard(String name, Shard<K,V> shard) throws InterruptedException {
+        if (ring.shards().containsKey(name)) {
+            throw new IllegalArgumentException("Shard already exists: " + name);
+        }
+        changeRing(ring.with(name, shard));
+    }
+
+    // Removes a shard from the ring and starts moving its keys to the others; returns the shard.
+    public synchronized Shard<K,V> removeShard(String name) throws InterruptedException {
+        Shard<K,V> shard = ring.shards().get(name);
+        if (shard == null) {
+            throw new IllegalArgumentException("No such shard: " + name);
+        }
+        if (ring.shards().size() == 1 && !isEmpty(shard)) {
+            throw new IllegalStateException("Can't remove the last shard while it holds keys");
+        }
+        changeRing(ring.without(name));
+        return shard;
+    }
+
+    public Map<String, Shard<K,V>> shards() {
+        return ring.shards();
+    }
+
+    public boolean isMigrating() {
+        return previous != null;
+    }
+
+    // Keys moved between shards since this cluster was created.
+    public long movedKeys() {
+        return movedKeys.get();
+    }
+
+    // Waits for the running migration, if any; returns false if it didn't finish within timeout.
+    public boolean awaitMigration(Duration timeout) throws InterruptedException {
+        Thread running;
+        synchronized (this) {
+            running = migrator;
+        }
+        if (running != null) {
+            running.join(Math.max(1, timeout.toMillis()));
+            return !running.isAlive();
+        }
+        return true;
+    }
+
+    public V get(K key) {
+        ReentrantReadWriteLock stripe = stripe(key);
+        stripe.readLock().lock();
+        try {
+            if (previous == null) {
+                return ring.owner(key).get(key);
+            }
+        } finally {
+            stripe.readLock().unlock();
+        }
+        stripe.writeLock().lock();
+        try {
+            Shard<K,V> owner = ring.owner(key);
+            V value = owner.get(key);
+            HashRing<K,V> from = previous;
+            Shard<K,V> old = from == null ? owner : from.owner(key);
+            return value != null || old == owner ? value : old.get(key);
+        } finally {
+            stripe.writeLock().unlock();
+        }
+    }
+
+    public void set(K key, V value) {
+        set(key, value, 0);
+    }
+
+    public void set(K key, V value, Duration ttl) {
+        set(key, value, System.currentTimeMillis() + ttl.toMillis());
+    }
+
+    private void set(K key, V value, long deadline) {
+        ReentrantReadWriteLock stripe = stripe(key);
+        stripe.readLock().lock();
+        try {
+            if (previous == null) {
+                ring.owner(key).set(key, value, deadline);
+                return;
+            }
+        } finally {
+            stripe.readLock().unlock();
+        }
+        stripe.writeLock().lock();
+        try {
+            Shard<K,V> owner = ring.owner(key);
+            owner.set(key, value, deadline);
+            HashRing<K,V> from = previous;
+            Shard<K,V> old = from == null ? owner : from.owner(key);
+            if (old != owner) {
+                old.delete(key);
+            }
+        } finally {
+            stripe.writeLock().unlock();
+        }
+    }
+
+    public boolean delete(K key) {
+        ReentrantReadWriteLock stripe = stripe(key);
+        stripe.readLock().lock();
+        try {
+            if (previous == null) {
+                return ring.owner(key).delete(key);
+            }
+        } finally {
+            stripe.readLock().unlock();
+        }
+        stripe.writeLock().lock();
+        try {
+            Shard<K,V> owner = ring.owner(key);
+            boolean removed = owner.delete(key);
+            HashRing<K,V> from = previous;
+            Shard<K,V> old = from == null ? owner : from.owner(key);
+            return old != owner ? old.delete(key) | removed : removed;
+        } finally {
+            stripe.writeLock().unlock();
+        }
+    }
+
+    private void changeRing(HashRing<K,V> next) throws InterruptedException {
+        if (migrator != null) {
+            migrator.join();
+        }
+        HashRing<K,V> from = ring;
+        // waits out every operation still using the old ring alone
+        lockAll();
+        try {
+            ring = next;
+            if (from.isEmpty()) {
+                return;
+            }
+            previous = from;
+        } finally {
+            unlockAll();
+        }
+        migrator = new Thread(() -> migrate(from, next), "cluster-migrator");
+        migrator.setDaemon(true);
+        migrator.start();
+    }
+
+    // Moves every key of the old ring whose owner changed. A shard that fails (say, a remote one that
+    // went away) is retried until the whole pass succeeds.
+    private void migrate(HashRing<K,V> from, HashRing<K,V> to) {
+        List<Shard<K,V>> sources = new ArrayList<>(new LinkedHashMap<>(from.shards()).values());
+        while (!sources.isEmpty()) {
+            Shard<K,V> source = sources.get(0);
+            try {
+                List<K> keys = new ArrayList<>();
+                source.forEachKey(keys::add);
+                for (K key : keys) {
+                    if (from.owner(key) == source && to.owner(key) != source) {
+                        move(key, source, to.owner(key));
+                    }
+                }
+                sources.remove(0);
+            } catch (RuntimeException e) {
+                lastMigrationError = e;
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+        previous = null;
+    }
+
+    private void move(K key, Shard<K,V> source, Shard<K,V> target) {
+        ReentrantReadWriteLock stripe = stripe(key);
+        stripe.writeLock().lock();
+        try {
+            // gone if a client wrote or deleted the key since the migration began
+            V value = source.get(key);
+            if (value != null) {
+                long deadline = source.deadline(key);
+                if (deadline == 0 || deadline > System.currentTimeMillis()) {
+                    target.set(key, value, deadline);
+                    movedKeys.incrementAndGet();
+                }
+                source.delete(key);
+            }
+        } finally {
+            stripe.writeLock().unlock();
+        }
+    }
+
+    // The last error that made the migration retry a shard, or null.
+    public RuntimeException lastMigrationError() {
+        return lastMigrationError;
+    }
+
+    private boolean isEmpty(Shard<K,V> shard) {
+        boolean[] empty = {true};
+        shard.forEachKey(key -> empty[0] = false);
+        return empty[0];
+    }
+
+    private ReentrantReadWriteLock stripe(K key) {
+        return stripes[(int) (HashRing.keyHash(key) >>> 58) & (STRIPES - 1)];
+    }
+
+    private void lockAll() {
+        for (ReentrantReadWriteLock stripe : stripes) {
+            stripe.writeLock().lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (ReentrantReadWriteLock stripe : stripes) {
+            stripe.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.example.db.lsm;
+
+import java.nio.ByteBuffer;
+
+// Per-table filter over the serialized keys, so a missing key usually costs no disk read at all.
+final class BloomFilter {
+    private static final int BITS_PER_KEY = 10;
+    private static final int HASHES = 7;
+
+    private final long[] bits;
+    private final int hashes;
+
+    private BloomFilter(long[] bits, int hashes) {
+        this.bits = bits;
+        this.hashes = hashes;
+    }
+
+    static BloomFilter create(int expectedKeys) {
+        int words = Math.max(1, (int) (((long) Math.max(expectedKeys, 1) * BITS_PER_KEY + 63) / 64));
+        return new BloomFilter(new long[words], HASHES);
+    }
+
+    void add(byte[] key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long numBits = (long) bits.length * 64;
+        for (int i = 0; i < hashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(byte[] key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long numBits = (long) bits.length * 64;
+        for (int i = 0; i < hashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int serializedSize() {
+        return 8 + bits.length * 8;
+    }
+
+    void writeTo(ByteBuffer out) {
+        out.putInt(hashes);
+        out.putInt(bits.length);
+        for (long word : bits) {
+            out.putLong(word);
+        }
+    }
+
+    static BloomFilter readFrom(ByteBuffer in) {
+        int hashes = in.getInt();
+        long[] bits = new long[in.getInt()];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = in.getLong();
+        }
+        return new BloomFilter(bits, hashes);
+    }
+
+    // 64-bit FNV-1a followed by a murmur finalizer; stable across JVMs, unlike Object.hashCode().
+    static long hash(byte[] data) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : data) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,591 @@
+package org.example.db.lsm;
+
+import org.example.db.Codec;
+import org.example.db.Codecs;
+import org.example.db.Compression;
+import org.example.db.StorageEngine;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/*
+ * Log-structured merge tree. Writes land in a concurrent sorted memtable; a full memtable is frozen and
+ * flushed to a level-0 SSTable by the background thread, which also runs leveled compaction:
+ *   - level 0 is merged into level 1 once it holds L0_COMPACTION_TRIGGER tables
+ *   - level N (N >= 1) is merged one table at a time into level N+1 once it exceeds its byte budget
+ * Table membership is recorded in a MANIFEST that is replaced atomically after every change.
+ * The memtable is not logged here; pair the engine with KeyValueDatabase's write-ahead log for crash safety.
+ */
+public class LsmEngine<K,V> implements StorageEngine<K,V> {
+    private static final Object TOMBSTONE = new Object();
+    private static final Object NULL_VALUE = new Object();
+    private static final int LEVELS = 7;
+    private static final int L0_COMPACTION_TRIGGER = 4;
+    private static final long LEVEL1_BYTES = 10L * 1024 * 1024;
+    private static final int LEVEL_MULTIPLIER = 10;
+    private static final long TARGET_TABLE_BYTES = 2L * 1024 * 1024;
+    private static final int MAX_IMMUTABLE_MEMTABLES = 2;
+    private static final String MANIFEST = "MANIFEST";
+    private static final String TABLE_SUFFIX = ".sst";
+
+    private final Path directory;
+    private final Comparator<? super K> comparator;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    // compresses values in the tables written from now on; null stores them as is
+    private final Compression compression;
+    private final int memtableEntries;
+    private final ReentrantReadWriteLock rotation = new ReentrantReadWriteLock();
+    private final AtomicInteger memtableWrites = new AtomicInteger();
+    private final AtomicInteger nextTableId = new AtomicInteger();
+    private final ExecutorService background;
+    private final Object flushed = new Object();
+    private final Object[] compactPointers = new Object[LEVELS];
+
+    private volatile ConcurrentSkipListMap<K, Object> memtable;
+    // newest first; replaced copy-on-write
+    private volatile List<ConcurrentSkipListMap<K, Object>> immutables = Collections.emptyList();
+    private volatile Version<K> version;
+    private volatile IOException backgroundFailure;
+
+    @SuppressWarnings("unchecked")
+    public LsmEngine(Path directory) throws IOException {
+        this(directory, (Comparator<? super K>) Comparator.naturalOrder(), 64 * 1024);
+    }
+
+    public LsmEngine(Path directory, Comparator<? super K> comparator, int memtableEntries) throws IOException {
+        this(directory, comparator, memtableEntries, Codecs.serializable(), Codecs.serializable());
+    }
+
+    // The codecs must match those the tables in the directory were written with.
+    public LsmEngine(Path directory, Comparator<? super K> comparator, int memtableEntries, Codec<K> keyCodec,
+                     Codec<V> valueCodec) throws IOException {
+        this(directory, comparator, memtableEntries, keyCodec, valueCodec, null);
+    }
+
+    // Tables are readable whatever the compression setting; it only affects those written from now on.
+    // Give the KeyValueDatabase on top the same instance to see the ratio in its stats.
+    public LsmEngine(Path directory, Comparator<? super K> comparator, int memtableEntries, Codec<K> keyCodec,
+                     Codec<V> valueCodec, Compression compression) throws IOException {
+        this.compression = compression;
+        this.directory = Files.createDirectories(directory);
+        this.comparator = comparator;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.memtableEntries = memtableEntries;
+        this.memtable = new ConcurrentSkipListMap<>(comparator);
+        this.version = loadManifest();
+        this.background = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "lsm-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        background.execute(this::compactWhileNeeded);
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        Object value = fromMemory(key);
+        if (value != null) {
+            return value == TOMBSTONE || value == NULL_VALUE ? null : (V) value;
+        }
+        byte[] stored = version.get(key, Codecs.toBytes(keyCodec, key));
+        return stored == null || stored == SSTable.DELETED || stored == SSTable.NULL_VALUE ? null
+                : Codecs.fromBytes(valueCodec, stored);
+    }
+
+    // Only keys still in a memtable; anything else may need a table read.
+    @Override
+    public boolean isResident(K key) {
+        return fromMemory(key) != null;
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        Object value = fromMemory(key);
+        if (value != null) {
+            return value != TOMBSTONE;
+        }
+        byte[] stored = version.get(key, Codecs.toBytes(keyCodec, key));
+        return stored != null && stored != SSTable.DELETED;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        write(key, value == null ? NULL_VALUE : value);
+    }
+
+    @Override
+    public void remove(K key) {
+        write(key, TOMBSTONE);
+    }
+
+    // Visits the newest value of every live key, in key order, by merging the memtables with every table
+    // as they were at the call. Flushes and compactions carry on meanwhile; tables they replace stay
+    // mapped until the merge is done with them.
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        throwIfFailed();
+        List<Scan<K,V>> sources = new ArrayList<>();
+        rotation.writeLock().lock();
+        try {
+            // memtables before the version: a flush publishes its table before it drops the memtable
+            sources.add(new Scan<>(this, memtable.entrySet().iterator(), null));
+            for (ConcurrentSkipListMap<K, Object> frozen : immutables) {
+                sources.add(new Scan<>(this, frozen.entrySet().iterator(), null));
+            }
+            for (List<SSTable<K>> level : version.levels) {
+                for (SSTable<K> table : level) {
+                    sources.add(new Scan<>(this, null, table.cursor()));
+                }
+            }
+        } finally {
+            rotation.writeLock().unlock();
+        }
+        PriorityQueue<Scan<K,V>> queue = new PriorityQueue<>((a, b) -> {
+            int cmp = comparator.compare(a.key, b.key);
+            return cmp != 0 ? cmp : Integer.compare(a.rank, b.rank);
+        });
+        for (int rank = 0; rank < sources.size(); rank++) {
+            Scan<K,V> source = sources.get(rank);
+            source.rank = rank;
+            if (source.advance()) {
+                queue.add(source);
+            }
+        }
+        while (!queue.isEmpty()) {
+            Scan<K,V> newest = queue.poll();
+            K key = newest.key;
+            boolean live = !newest.isDeleted();
+            V value = live ? newest.value() : null;
+            if (newest.advance()) {
+                queue.add(newest);
+            }
+            while (!queue.isEmpty() && comparator.compare(queue.peek().key, key) == 0) {
+                Scan<K,V> shadowed = queue.poll();
+                if (shadowed.advance()) {
+                    queue.add(shadowed);
+                }
+            }
+            if (live) {
+                action.accept(key, value);
+            }
+        }
+    }
+
+    private Object fromMemory(K key) {
+        Object value = memtable.get(key);
+        if (value != null) {
+            return value;
+        }
+        for (ConcurrentSkipListMap<K, Object> frozen : immutables) {
+            value = frozen.get(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private void write(K key, Object value) {
+        rotation.readLock().lock();
+        try {
+            memtable.put(key, value);
+        } finally {
+            rotation.readLock().unlock();
+        }
+        if (memtableWrites.incrementAndGet() >= memtableEntries) {
+            rotate(false);
+        }
+    }
+
+    private void rotate(boolean force) {
+        throwIfFailed();
+        ConcurrentSkipListMap<K, Object> frozen;
+        rotation.writeLock().lock();
+        try {
+            if (memtable.isEmpty() || (!force && memtableWrites.get() < memtableEntries)) {
+                return;
+            }
+            frozen = memtable;
+            List<ConcurrentSkipListMap<K, Object>> next = new ArrayList<>();
+            next.add(frozen);
+            next.addAll(immutables);
+            // publish the frozen table before swapping, so readers always find the data in one of the two
+            immutables = Collections.unmodifiableList(next);
+            memtable = new ConcurrentSkipListMap<>(comparator);
+            memtableWrites.set(0);
+        } finally {
+            rotation.writeLock().unlock();
+        }
+        background.execute(() -> flush(frozen));
+        // back-pressure: don't let writers outrun the flusher
+        synchronized (flushed) {
+            while (immutables.size() > MAX_IMMUTABLE_MEMTABLES && backgroundFailure == null) {
+                try {
+                    flushed.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void flush(ConcurrentSkipListMap<K, Object> frozen) {
+        try {
+            SSTable<K> table;
+            int id = nextTableId.getAndIncrement();
+            Path path = tablePath(id);
+            try (SSTable.Writer writer = new SSTable.Writer(path, frozen.size(), compression)) {
+                for (Map.Entry<K, Object> entry : frozen.entrySet()) {
+                    Object value = entry.getValue();
+                    byte[] bytes = value == TOMBSTONE ? SSTable.DELETED
+                            : value == NULL_VALUE ? SSTable.NULL_VALUE : Codecs.toBytes(valueCodec, (V) value);
+                    writer.add(Codecs.toBytes(keyCodec, entry.getKey()), bytes);
+                }
+                writer.finish();
+            }
+            table = SSTable.open(id, path, comparator, keyCodec, compression);
+            synchronized (this) {
+                version = version.withFlushed(table);
+                writeManifest(version);
+            }
+            // only now may readers stop looking at the frozen memtable
+            rotation.writeLock().lock();
+            try {
+                List<ConcurrentSkipListMap<K, Object>> remaining = new ArrayList<>(immutables);
+                remaining.remove(frozen);
+                immutables = Collections.unmodifiableList(remaining);
+            } finally {
+                rotation.writeLock().unlock();
+            }
+            compactWhileNeeded();
+        } catch (IOException e) {
+            backgroundFailure = e;
+        } catch (RuntimeException e) {
+            backgroundFailure = new IOException("Flush failed", e);
+        } finally {
+            synchronized (flushed) {
+                flushed.notifyAll();
+            }
+        }
+    }
+
+    private void compactWhileNeeded() {
+        try {
+            while (compactOnce()) {
+                // keep going until every level is within budget
+            }
+        } catch (IOException e) {
+            backgroundFailure = e;
+        } catch (RuntimeException e) {
+            backgroundFailure = new IOException("Compaction failed", e);
+        }
+    }
+
+    // Runs on the background thread only, so the version can't change under it except by flushes,
+    // which also run there.
+    private boolean compactOnce() throws IOException {
+        Version<K> current = version;
+        int level = -1;
+        double bestScore = 1.0;
+        double score0 = current.levels.get(0).size() / (double) L0_COMPACTION_TRIGGER;
+        if (score0 >= bestScore) {
+            level = 0;
+            bestScore = score0;
+        }
+        long budget = LEVEL1_BYTES;
+        for (int i = 1; i < LEVELS - 1; i++) {
+            double score = current.levelBytes(i) / (double) budget;
+            if (score > bestScore) {
+                level = i;
+                bestScore = score;
+            }
+            budget *= LEVEL_MULTIPLIER;
+        }
+        if (level < 0) {
+            return false;
+        }
+
+        List<SSTable<K>> upper;
+        if (level == 0) {
+            upper = new ArrayList<>(current.levels.get(0));
+        } else {
+            upper = Collections.singletonList(pickTable(current, level));
+        }
+        K from = upper.get(0).smallest;
+        K to = upper.get(0).largest;
+        for (SSTable<K> table : upper) {
+            if (comparator.compare(table.smallest, from) < 0) {
+                from = table.smallest;
+            }
+            if (comparator.compare(table.largest, to) > 0) {
+                to = table.largest;
+            }
+        }
+        int outputLevel = level + 1;
+        List<SSTable<K>> lower = current.overlapping(outputLevel, from, to);
+        // inputs are ordered newest first: level 0 is already newest first and sits above the output level
+        List<SSTable<K>> inputs = new ArrayList<>(upper);
+        inputs.addAll(lower);
+        List<SSTable<K>> outputs = merge(inputs, current.emptyBelow(outputLevel));
+
+        synchronized (this) {
+            version = version.withCompaction(inputs, outputLevel, outputs);
+            writeManifest(version);
+        }
+        compactPointers[level] = to;
+        for (SSTable<K> table : inputs) {
+            table.delete();
+        }
+        return true;
+    }
+
+    // Round-robin over the key space so every table of a level eventually gets pushed down.
+    @SuppressWarnings("unchecked")
+    private SSTable<K> pickTable(Version<K> current, int level) {
+        K pointer = (K) compactPointers[level];
+        for (SSTable<K> table : current.levels.get(level)) {
+            if (pointer == null || comparator.compare(table.smallest, pointer) > 0) {
+                return table;
+            }
+        }
+        return current.levels.get(level).get(0);
+    }
+
+    private List<SSTable<K>> merge(List<SSTable<K>> inputs, boolean dropTombstones) throws IOException {
+        PriorityQueue<Source<K>> queue = new PriorityQueue<>((a, b) -> {
+            int cmp = comparator.compare(a.cursor.key, b.cursor.key);
+            return cmp != 0 ? cmp : Integer.compare(a.rank, b.rank);
+        });
+        long totalEntries = 0;
+        for (int rank = 0; rank < inputs.size(); rank++) {
+            SSTable.Cursor<K> cursor = inputs.get(rank).cursor();
+            totalEntries += inputs.get(rank).entries;
+            if (cursor.advance()) {
+                queue.add(new Source<>(cursor, rank));
+            }
+        }
+        int expectedKeys = (int) Math.min(Integer.MAX_VALUE, totalEntries);
+        List<SSTable<K>> outputs = new ArrayList<>();
+        SSTable.Writer writer = null;
+        int writerId = -1;
+        try {
+            while (!queue.isEmpty()) {
+                Source<K> newest = queue.poll();
+                K key = newest.cursor.key;
+                byte[] keyBytes = newest.cursor.keyBytes;
+                byte[] value = newest.cursor.value;
+                advance(queue, newest);
+                // older versions of the same key are shadowed
+                while (!queue.isEmpty() && comparator.compare(queue.peek().cursor.key, key) == 0) {
+                    advance(queue, queue.poll());
+                }
+                if (value == SSTable.DELETED && dropTombstones) {
+                    continue;
+                }
+                if (writer == null) {
+                    writerId = nextTableId.getAndIncrement();
+                    writer = new SSTable.Writer(tablePath(writerId), expectedKeys, compression);
+                }
+                writer.add(keyBytes, value);
+                if (writer.bytesWritten() >= TARGET_TABLE_BYTES) {
+                    outputs.add(finish(writer, writerId));
+                    writer = null;
+                }
+            }
+            if (writer != null) {
+                outputs.add(finish(writer, writerId));
+                writer = null;
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+                Files.deleteIfExists(writer.path());
+            }
+        }
+        return outputs;
+    }
+
+    private SSTable<K> finish(SSTable.Writer writer, int id) throws IOException {
+        writer.finish();
+        writer.close();
+        return SSTable.open(id, writer.path(), comparator, keyCodec, compression);
+    }
+
+    private static <K> void advance(PriorityQueue<Source<K>> queue, Source<K> source) {
+        if (source.cursor.advance()) {
+            queue.add(source);
+        }
+    }
+
+    private static final class Source<K> {
+        final SSTable.Cursor<K> cursor;
+        final int rank;
+
+        Source(SSTable.Cursor<K> cursor, int rank) {
+            this.cursor = cursor;
+            this.rank = rank;
+        }
+    }
+
+    // One memtable or table being merged by forEach.
+    private static final class Scan<K,V> {
+        private final LsmEngine<K,V> engine;
+        private final Iterator<Map.Entry<K, Object>> entries;
+        private final SSTable.Cursor<K> cursor;
+        int rank;
+        K key;
+        private Object entry;
+
+        Scan(LsmEngine<K,V> engine, Iterator<Map.Entry<K, Object>> entries, SSTable.Cursor<K> cursor) {
+            this.engine = engine;
+            this.entries = entries;
+            this.cursor = cursor;
+        }
+
+        boolean advance() {
+            if (entries != null) {
+                if (!entries.hasNext()) {
+                    return false;
+                }
+                Map.Entry<K, Object> next = entries.next();
+                key = next.getKey();
+                entry = next.getValue();
+                return true;
+            }
+            if (!cursor.advance()) {
+                return false;
+            }
+            key = cursor.key;
+            entry = cursor.value;
+            return true;
+        }
+
+        boolean isDeleted() {
+            return entry == TOMBSTONE || entry == SSTable.DELETED;
+        }
+
+        // Only decodes the value that wins, not the versions it shadows.
+        @SuppressWarnings("unchecked")
+        V value() {
+            if (entry == NULL_VALUE || entry == SSTable.NULL_VALUE) {
+                return null;
+            }
+            return entries != null ? (V) entry : Codecs.fromBytes(engine.valueCodec, (byte[]) entry);
+        }
+    }
+
+    private Version<K> loadManifest() throws IOException {
+        Path manifest = directory.resolve(MANIFEST);
+        List<List<SSTable<K>>> levels = new ArrayList<>();
+        for (int i = 0; i < LEVELS; i++) {
+            levels.add(new ArrayList<>());
+        }
+        Set<Path> live = new HashSet<>();
+        int maxId = -1;
+        if (Files.exists(manifest)) {
+            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.split(" ");
+                int level = Integer.parseInt(parts[0]);
+                int id = Integer.parseInt(parts[1]);
+                Path path = tablePath(id);
+                levels.get(level).add(SSTable.open(id, path, comparator, keyCodec, compression));
+                live.add(path);
+                maxId = Math.max(maxId, id);
+            }
+        }
+        // tables left behind by a flush or compaction that never made it into the manifest
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + TABLE_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                maxId = Math.max(maxId, Integer.parseInt(name.substring(0, name.length() - TABLE_SUFFIX.length())));
+                if (!live.contains(path)) {
+                    Files.delete(path);
+                }
+            }
+        }
+        nextTableId.set(maxId + 1);
+        List<List<SSTable<K>>> frozen = new ArrayList<>();
+        for (List<SSTable<K>> level : levels) {
+            frozen.add(Collections.unmodifiableList(level));
+        }
+        return new Version<>(frozen, comparator);
+    }
+
+    private void writeManifest(Version<K> current) throws IOException {
+        Path temp = directory.resolve(MANIFEST + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (int level = 0; level < current.levels.size(); level++) {
+                for (SSTable<K> table : current.levels.get(level)) {
+                    out.write(level + " " + table.id);
+                    out.newLine();
+                }
+            }
+        }
+        Files.move(temp, directory.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path tablePath(int id) {
+        return directory.resolve(String.format("%08d%s", id, TABLE_SUFFIX));
+    }
+
+    private void throwIfFailed() {
+        IOException failure = backgroundFailure;
+        if (failure != null) {
+            throw new UncheckedIOException("Background flush or compaction failed", failure);
+        }
+    }
+
+    // Flushes the memtable so everything written so far is in SSTables, then stops the background thread.
+    @Override
+    public void close() throws IOException {
+        rotate(true);
+        background.shutdown();
+        try {
+            if (!background.awaitTermination(5, TimeUnit.MINUTES)) {
+                throw new IOException("Timed out waiting for background flush");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing", e);
+        }
+        if (backgroundFailure != null) {
+            throw backgroundFailure;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package org.example.db.lsm;
+
+import org.example.db.Codec;
+import org.example.db.Codecs;
+import org.example.db.Compression;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/*
+ * Immutable sorted table. File layout:
+ *   data blocks   : records of int keyLength | key | int valueLength (-1 = tombstone, -2 = null) | value, or
+ *                   with compression a value in one of the forms Compression describes
+ *   index block   : per data block int firstKeyLength | firstKey | long offset | int length
+ *   bloom filter  : see BloomFilter.writeTo
+ *   footer        : long indexOffset | int indexLength | long bloomOffset | int bloomLength | long entries | long MAGIC
+ * The index and the filter are loaded on open; a lookup reads at most one data block.
+ */
+final class SSTable<K> {
+    static final byte[] DELETED = new byte[0];
+    static final byte[] NULL_VALUE = new byte[0];
+    static final int BLOCK_SIZE = 4 * 1024;
+    private static final int FOOTER_SIZE = 8 + 4 + 8 + 4 + 8 + 8;
+    private static final long MAGIC = 0x4c534d5353544231L;
+
+    final int id;
+    final Path path;
+    final K smallest;
+    final K largest;
+    final long entries;
+    private final ByteBuffer map;
+    private final Comparator<? super K> comparator;
+    private final Codec<K> keyCodec;
+    // counts decompressions; may be null
+    private final Compression compression;
+    private final List<K> firstKeys;
+    private final long[] blockOffsets;
+    private final int[] blockLengths;
+    private final BloomFilter bloom;
+
+    private SSTable(int id, Path path, ByteBuffer map, Comparator<? super K> comparator, Codec<K> keyCodec,
+                    Compression compression, List<K> firstKeys, long[] blockOffsets, int[] blockLengths, BloomFilter bloom, K largest,
+                    long entries) {
+        this.id = id;
+        this.path = path;
+        this.map = map;
+        this.comparator = comparator;
+        this.keyCodec = keyCodec;
+        this.compression = compression;
+        this.firstKeys = firstKeys;
+        this.blockOffsets = blockOffsets;
+        this.blockLengths = blockLengths;
+        this.bloom = bloom;
+        this.smallest = firstKeys.get(0);
+        this.largest = largest;
+        this.entries = entries;
+    }
+
+    // Tables are immutable, so the whole file is mapped read-only. A mapping outlives the file, which lets
+    // readers holding an older version keep using a table that compaction has already deleted.
+    static <K> SSTable<K> open(int id, Path path, Comparator<? super K> comparator, Codec<K> keyCodec,
+                               Compression compression) throws IOException {
+        ByteBuffer map;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asReadOnlyBuffer();
+        }
+        ByteBuffer footer = slice(map, map.capacity() - FOOTER_SIZE, FOOTER_SIZE);
+        long indexOffset = footer.getLong();
+        int indexLength = footer.getInt();
+        long bloomOffset = footer.getLong();
+        int bloomLength = footer.getInt();
+        long entries = footer.getLong();
+        if (footer.getLong() != MAGIC) {
+            throw new IOException("Not an SSTable: " + path);
+        }
+        ByteBuffer index = slice(map, indexOffset, indexLength);
+        List<K> firstKeys = new ArrayList<>();
+        List<long[]> blocks = new ArrayList<>();
+        while (index.hasRemaining()) {
+            byte[] key = new byte[index.getInt()];
+            index.get(key);
+            firstKeys.add(Codecs.fromBytes(keyCodec, key));
+            blocks.add(new long[]{index.getLong(), index.getInt()});
+        }
+        long[] offsets = new long[blocks.size()];
+        int[] lengths = new int[blocks.size()];
+        for (int i = 0; i < blocks.size(); i++) {
+            offsets[i] = blocks.get(i)[0];
+            lengths[i] = (int) blocks.get(i)[1];
+        }
+        BloomFilter bloom = BloomFilter.readFrom(slice(map, bloomOffset, bloomLength));
+        int last = offsets.length - 1;
+        K largest = lastKey(slice(map, offsets[last], lengths[last]), keyCodec);
+        return new SSTable<>(id, path, map, comparator, keyCodec, compression, firstKeys, offsets, lengths, bloom, largest,
+                entries);
+    }
+
+    boolean mayContain(K key, byte[] keyBytes) {
+        return comparator.compare(key, smallest) >= 0 && comparator.compare(key, largest) <= 0
+                && bloom.mightContain(keyBytes);
+    }
+
+    // Encoded value, DELETED for a tombstone, NULL_VALUE for a null value, or null when the table has no
+    // record for the key. Like the bloom filter, records are matched on the encoded key, so no key in the
+    // block is decoded.
+    byte[] get(K key, byte[] keyBytes) {
+        int block = blockFor(key);
+        if (block < 0) {
+            return null;
+        }
+        ByteBuffer data = slice(map, blockOffsets[block], blockLengths[block]);
+        ByteBuffer dictionary = null;
+        while (data.hasRemaining()) {
+            int keyLength = data.getInt();
+            int keyStart = data.position();
+            data.position(keyStart + keyLength);
+            int valueLength = data.getInt();
+            dictionary = Compression.dictionary(data, valueLength, dictionary);
+            if (keyLength == keyBytes.length && sameBytes(data, keyStart, keyBytes)) {
+                return readValue(data, valueLength, dictionary, compression);
+            }
+            Compression.skip(data, valueLength);
+        }
+        return null;
+    }
+
+    private static byte[] readValue(ByteBuffer data, int valueLength, ByteBuffer dictionary,
+                                    Compression compression) {
+        if (valueLength == -1 || valueLength == -2) {
+            return valueLength == -1 ? DELETED : NULL_VALUE;
+        }
+        return Compression.read(data, valueLength, dictionary, compression);
+    }
+
+    private static boolean sameBytes(ByteBuffer data, int offset, byte[] expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if (data.get(offset + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean overlaps(K from, K to) {
+        return comparator.compare(largest, from) >= 0 && comparator.compare(smallest, to) <= 0;
+    }
+
+    long sizeInBytes() {
+        return blockOffsets.length == 0 ? 0 : blockOffsets[blockOffsets.length - 1] + blockLengths[blockLengths.length - 1];
+    }
+
+    Cursor<K> cursor() {
+        return new Cursor<>(this);
+    }
+
+    private int blockFor(K key) {
+        int low = 0;
+        int high = firstKeys.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (comparator.compare(firstKeys.get(mid), key) <= 0) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private static <K> K lastKey(ByteBuffer block, Codec<K> keyCodec) {
+        byte[] key = null;
+        while (block.hasRemaining()) {
+            key = new byte[block.getInt()];
+            block.get(key);
+            Compression.skip(block, block.getInt());
+        }
+        return Codecs.fromBytes(keyCodec, key);
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    private static ByteBuffer slice(ByteBuffer map, long position, int length) {
+        ByteBuffer view = map.duplicate();
+        view.limit((int) position + length).position((int) position);
+        return view.slice();
+    }
+
+    // Sequential reader used by compaction.
+    static final class Cursor<K> {
+        private final SSTable<K> table;
+        private int block = -1;
+        private ByteBuffer data;
+        private ByteBuffer dictionary;
+        K key;
+        byte[] keyBytes;
+        byte[] value;
+
+        private Cursor(SSTable<K> table) {
+            this.table = table;
+        }
+
+        boolean advance() {
+            while (data == null || !data.hasRemaining()) {
+                if (block + 1 >= table.blockOffsets.length) {
+                    return false;
+                }
+                block++;
+                data = slice(table.map, table.blockOffsets[block], table.blockLengths[block]);
+                dictionary = null;
+            }
+            keyBytes = new byte[data.getInt()];
+            data.get(keyBytes);
+            key = Codecs.fromBytes(table.keyCodec, keyBytes);
+            int valueLength = data.getInt();
+            dictionary = Compression.dictionary(data, valueLength, dictionary);
+            value = readValue(data, valueLength, dictionary, table.compression);
+            return true;
+        }
+    }
+
+    static final class Writer implements Closeable {
+        private final Path path;
+        private final FileChannel channel;
+        private final DataOutputStream out;
+        private final DataOutputStream index;
+        private final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        private final BloomFilter bloom;
+        // null when values are stored uncompressed
+        private final Compression.Encoder encoder;
+        private final int blockSize;
+        private long position;
+        private long blockStart;
+        private long entries;
+        private boolean blockOpen;
+
+        Writer(Path path, int expectedKeys, Compression compression) throws IOException {
+            this.path = path;
+            this.encoder = compression == null ? null : compression.encoder();
+            this.blockSize = compression == null ? BLOCK_SIZE : compression.blockSize();
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            OutputStream stream = Channels.newOutputStream(channel);
+            this.out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+            this.index = new DataOutputStream(indexBytes);
+            this.bloom = BloomFilter.create(expectedKeys);
+        }
+
+        // Keys must arrive in ascending order.
+        void add(byte[] key, byte[] value) throws IOException {
+            if (!blockOpen) {
+                blockStart = position;
+                index.writeInt(key.length);
+                index.write(key);
+                index.writeLong(blockStart);
+                blockOpen = true;
+                if (encoder != null) {
+                    encoder.newBlock();
+                }
+            }
+            out.writeInt(key.length);
+            out.write(key);
+            if (value == DELETED || value == NULL_VALUE) {
+                out.writeInt(value == DELETED ? -1 : -2);
+                position += 8 + key.length;
+            } else if (encoder != null) {
+                position += 4 + key.length + encoder.encode(value);
+                encoder.writeTo(out);
+            } else {
+                out.writeInt(value.length);
+                out.write(value);
+                position += 8 + key.length + value.length;
+            }
+            bloom.add(key);
+            entries++;
+            if (position - blockStart >= blockSize) {
+                endBlock();
+            }
+        }
+
+        long bytesWritten() {
+            return position;
+        }
+
+        long entries() {
+            return entries;
+        }
+
+        private void endBlock() throws IOException {
+            if (blockOpen) {
+                index.writeInt((int) (position - blockStart));
+                blockOpen = false;
+            }
+        }
+
+        void finish() throws IOException {
+            if (entries == 0) {
+                throw new NoSuchElementException("Cannot write an empty table");
+            }
+            endBlock();
+            long indexOffset = position;
+            out.write(indexBytes.toByteArray());
+            long bloomOffset = indexOffset + indexBytes.size();
+            ByteBuffer filter = ByteBuffer.allocate(bloom.serializedSize());
+            bloom.writeTo(filter);
+            out.write(filter.array());
+            out.writeLong(indexOffset);
+            out.writeInt(indexBytes.size());
+            out.writeLong(bloomOffset);
+            out.writeInt(filter.capacity());
+            out.writeLong(entries);
+            out.writeLong(MAGIC);
+            out.flush();
+            channel.force(true);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        Path path() {
+            return path;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.example.db.lsm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+ * Immutable view of the on-disk tables. Level 0 holds freshly flushed tables (newest first, ranges may
+ * overlap); every deeper level is sorted by key with non-overlapping ranges, so a lookup touches at
+ * most one table per level.
+ */
+final class Version<K> {
+    final List<List<SSTable<K>>> levels;
+    private final Comparator<? super K> comparator;
+
+    Version(List<List<SSTable<K>>> levels, Comparator<? super K> comparator) {
+        this.levels = levels;
+        this.comparator = comparator;
+    }
+
+    static <K> Version<K> empty(int levelCount, Comparator<? super K> comparator) {
+        List<List<SSTable<K>>> levels = new ArrayList<>();
+        for (int i = 0; i < levelCount; i++) {
+            levels.add(Collections.emptyList());
+        }
+        return new Version<>(levels, comparator);
+    }
+
+    byte[] get(K key, byte[] keyBytes) {
+        for (SSTable<K> table : levels.get(0)) {
+            if (table.mayContain(key, keyBytes)) {
+                byte[] value = table.get(key, keyBytes);
+                if (value != null) {
+                    return value;
+                }
+            }
+        }
+        for (int level = 1; level < levels.size(); level++) {
+            SSTable<K> table = find(levels.get(level), key);
+            if (table != null && table.mayContain(key, keyBytes)) {
+                byte[] value = table.get(key, keyBytes);
+                if (value != null) {
+                    return value;
+                }
+            }
+        }
+        return null;
+    }
+
+    private SSTable<K> find(List<SSTable<K>> tables, K key) {
+        int low = 0;
+        int high = tables.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            SSTable<K> table = tables.get(mid);
+            if (comparator.compare(table.largest, key) < 0) {
+                low = mid + 1;
+            } else if (comparator.compare(table.smallest, key) > 0) {
+                high = mid - 1;
+            } else {
+                return table;
+            }
+        }
+        return null;
+    }
+
+    long levelBytes(int level) {
+        long bytes = 0;
+        for (SSTable<K> table : levels.get(level)) {
+            bytes += table.sizeInBytes();
+        }
+        return bytes;
+    }
+
+    List<SSTable<K>> overlapping(int level, K from, K to) {
+        List<SSTable<K>> result = new ArrayList<>();
+        for (SSTable<K> table : levels.get(level)) {
+            if (table.overlaps(from, to)) {
+                result.add(table);
+            }
+        }
+        return result;
+    }
+
+    boolean emptyBelow(int level) {
+        for (int i = level + 1; i < levels.size(); i++) {
+            if (!levels.get(i).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    Version<K> withFlushed(SSTable<K> table) {
+        List<List<SSTable<K>>> copy = new ArrayList<>(levels);
+        List<SSTable<K>> level0 = new ArrayList<>();
+        level0.add(table);
+        level0.addAll(levels.get(0));
+        copy.set(0, Collections.unmodifiableList(level0));
+        return new Version<>(copy, comparator);
+    }
+
+    Version<K> withCompaction(List<SSTable<K>> inputs, int outputLevel, List<SSTable<K>> outputs) {
+        List<List<SSTable<K>>> copy = new ArrayList<>();
+        for (int i = 0; i < levels.size(); i++) {
+            List<SSTable<K>> tables = new ArrayList<>(levels.get(i));
+            tables.removeAll(inputs);
+            if (i == outputLevel) {
+                tables.addAll(outputs);
+                tables.sort((a, b) -> comparator.compare(a.smallest, b.smallest));
+            }
+            copy.add(Collections.unmodifiableList(tables));
+        }
+        return new Version<>(copy, comparator);
+    }
+}
@@ -0,0 +1,68 @@
+package org.example.db.replication;
+
+import org.example.db.Change;
+import org.example.db.Codec;
+import org.example.db.Codecs;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/*
+ * Messages from leader to follower over one TCP connection. The follower opens with
+ *   long offset               the next change it needs, or -1 to be sent a snapshot
+ * and the leader answers with a snapshot if that offset is no longer in its change feed, then streams:
+ *   SNAPSHOT                 the state that follows replaces the follower's
+ *   ENTRY key value          one entry of the snapshot
+ *   TTL key long deadline    one ttl of the snapshot
+ *   SNAPSHOT_END long offset the snapshot reflects every change before offset
+ *   CHANGES int count long head, then count times: byte type | key | value (SET) or long deadline (EXPIRE)
+ *                            consecutive changes from the follower's offset; head is the leader's next offset
+ *   HEARTBEAT long head      sent when there's been nothing to send for a while
+ * Keys and values are int length | encoded bytes, length -1 for a null value.
+ */
+final class Protocol {
+    static final byte SNAPSHOT = 1;
+    static final byte ENTRY = 2;
+    static final byte TTL = 3;
+    static final byte SNAPSHOT_END = 4;
+    static final byte CHANGES = 5;
+    static final byte HEARTBEAT = 6;
+    static final int HEARTBEAT_MILLIS = 100;
+    static final int MAX_BATCH = 1024;
+
+    private Protocol() {
+    }
+
+    static <T> void write(DataOutputStream out, Codec<T> codec, T value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = Codecs.toBytes(codec, value);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static <T> T read(DataInputStream in, Codec<T> codec) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return Codecs.fromBytes(codec, bytes);
+    }
+
+    static byte typeCode(Change.Type type) {
+        return (byte) type.ordinal();
+    }
+
+    static Change.Type type(byte code) throws IOException {
+        Change.Type[] types = Change.Type.values();
+        if (code < 0 || code >= types.length) {
+            throw new IOException("Unknown change type " + code);
+        }
+        return types[code];
+    }
+}
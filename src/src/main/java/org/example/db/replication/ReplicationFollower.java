@@ -0,0 +1,256 @@
+package org.example.db.replication;
+
+import org.example.db.Codec;
+import org.example.db.Codecs;
+import org.example.db.KeyValueDatabase;
+import org.example.db.StripedEngine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+
+/*
+ * Read-only, in-memory copy of a ReplicationLeader's database. Connects on start(), is sent a snapshot
+ * the first time, then applies the leader's changes in order on its own thread. If the connection drops
+ * it reconnects and resumes from the next change it needs, or takes a new snapshot if the leader no
+ * longer has that change. Reads see the last complete snapshot plus whatever changes arrived since, so
+ * they may be behind the leader by changesBehind() changes, or about millisBehind().
+ *
+ * Keys expire by the deadlines the leader set, against this machine's clock.
+ */
+public class ReplicationFollower<K,V> implements Closeable {
+    private static final long RECONNECT_MILLIS = 200;
+
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final InetSocketAddress leader;
+    // swapped for a new copy when a snapshot has been received in full
+    private volatile KeyValueDatabase<K,V> db;
+    // next change to apply, -1 until the first snapshot
+    private volatile long appliedOffset = -1;
+    private volatile long leaderOffset = -1;
+    // last time this copy had every change the leader had announced
+    private volatile long caughtUpAt;
+    private volatile boolean running = true;
+    private volatile Socket socket;
+    private Thread receiver;
+
+    public ReplicationFollower(Codec<K> keyCodec, Codec<V> valueCodec, String host, int port) {
+        this(keyCodec, valueCodec, new InetSocketAddress(host, port));
+    }
+
+    public ReplicationFollower(Codec<K> keyCodec, Codec<V> valueCodec, InetSocketAddress leader) {
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.leader = leader;
+    }
+
+    // java ReplicationFollower host port: follows a RespServer started with a replication port.
+    public static void main(String[] args) throws InterruptedException {
+        String host = args.length > 0 ? args[0] : "127.0.0.1";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 6380;
+        ReplicationFollower<String, byte[]> follower =
+                new ReplicationFollower<>(Codecs.utf8(), Codecs.bytes(), host, port);
+        follower.start();
+        while (true) {
+            Thread.sleep(1000);
+            System.out.println(follower);
+        }
+    }
+
+    public synchronized void start() {
+        if (receiver == null) {
+            receiver = new Thread(this::run, "repl-follower");
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+    }
+
+    // Waits until the first snapshot has been applied; returns false if it took longer than timeout.
+    public boolean awaitBootstrap(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (db == null) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    // Waits until every change the leader had made when this was called has been applied.
+    public boolean awaitOffset(long offset, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (appliedOffset < offset) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    public V get(K key) {
+        KeyValueDatabase<K,V> copy = db;
+        return copy == null ? null : copy.get(key);
+    }
+
+    public boolean isBootstrapped() {
+        return db != null;
+    }
+
+    public long appliedOffset() {
+        return appliedOffset;
+    }
+
+    // Changes the leader had announced that aren't applied yet; -1 before the first snapshot.
+    public long changesBehind() {
+        long applied = appliedOffset;
+        return applied < 0 ? -1 : Math.max(0, leaderOffset - applied);
+    }
+
+    // How long since this copy was last fully caught up; 0 while it is, -1 before the first snapshot.
+    public long millisBehind() {
+        if (appliedOffset < 0) {
+            return -1;
+        }
+        return changesBehind() == 0 ? 0 : System.currentTimeMillis() - caughtUpAt;
+    }
+
+    @Override
+    public String toString() {
+        return "follower of " + leader + ": " + (isBootstrapped()
+                ? "offset=" + appliedOffset + " behind=" + changesBehind() + " changes/" + millisBehind() + "ms"
+                : "waiting for snapshot");
+    }
+
+    private void run() {
+        while (running) {
+            try (Socket connection = new Socket()) {
+                socket = connection;
+                connection.connect(leader);
+                connection.setTcpNoDelay(true);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(),
+                        64 * 1024));
+                out.writeLong(appliedOffset);
+                out.flush();
+                while (running) {
+                    receive(in);
+                }
+            } catch (IOException e) {
+                // leader unreachable or gone; try again
+            }
+            if (running) {
+                try {
+                    Thread.sleep(RECONNECT_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void receive(DataInputStream in) throws IOException {
+        byte message = in.readByte();
+        switch (message) {
+            case Protocol.SNAPSHOT:
+                receiveSnapshot(in);
+                break;
+            case Protocol.CHANGES:
+                int count = in.readInt();
+                leaderOffset = in.readLong();
+                KeyValueDatabase<K,V> copy = db;
+                for (int i = 0; i < count; i++) {
+                    apply(copy, in);
+                }
+                appliedOffset += count;
+                caughtUp();
+                break;
+            case Protocol.HEARTBEAT:
+                leaderOffset = in.readLong();
+                caughtUp();
+                break;
+            default:
+                throw new IOException("Unexpected replication message " + message);
+        }
+    }
+
+    private void receiveSnapshot(DataInputStream in) throws IOException {
+        KeyValueDatabase<K,V> copy = new KeyValueDatabase<>(keyCodec, valueCodec);
+        copy.init(new StripedEngine<>());
+        long now = System.currentTimeMillis();
+        while (true) {
+            byte message = in.readByte();
+            if (message == Protocol.ENTRY) {
+                copy.set(Protocol.read(in, keyCodec), Protocol.read(in, valueCodec));
+            } else if (message == Protocol.TTL) {
+                K key = Protocol.read(in, keyCodec);
+                expire(copy, key, in.readLong(), now);
+            } else if (message == Protocol.SNAPSHOT_END) {
+                long offset = in.readLong();
+                KeyValueDatabase<K,V> previous = db;
+                db = copy;
+                appliedOffset = offset;
+                leaderOffset = Math.max(leaderOffset, offset);
+                caughtUp();
+                if (previous != null) {
+                    previous.close();
+                }
+                return;
+            } else {
+                throw new IOException("Unexpected message in snapshot " + message);
+            }
+        }
+    }
+
+    private void apply(KeyValueDatabase<K,V> copy, DataInputStream in) throws IOException {
+        switch (Protocol.type(in.readByte())) {
+            case SET:
+                copy.set(Protocol.read(in, keyCodec), Protocol.read(in, valueCodec));
+                break;
+            case EXPIRE:
+                K key = Protocol.read(in, keyCodec);
+                expire(copy, key, in.readLong(), System.currentTimeMillis());
+                break;
+            case DELETE:
+            case EXPIRED:
+            case EVICTED:
+                copy.delete(Protocol.read(in, keyCodec));
+                break;
+        }
+    }
+
+    private void expire(KeyValueDatabase<K,V> copy, K key, long deadline, long now) {
+        if (deadline <= now) {
+            copy.delete(key);
+        } else {
+            copy.expire(key, Duration.ofMillis(deadline - now));
+        }
+    }
+
+    private void caughtUp() {
+        if (appliedOffset >= leaderOffset) {
+            caughtUpAt = System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        Socket connection = socket;
+        if (connection != null) {
+            connection.close();
+        }
+        KeyValueDatabase<K,V> copy = db;
+        if (copy != null) {
+            copy.close();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.example.db.replication;
+
+import org.example.db.Change;
+import org.example.db.ChangeFeed;
+import org.example.db.Codec;
+import org.example.db.KeyValueDatabase;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Ships a database's changes to followers. Each follower gets its own connection and sender thread,
+ * which first sends a snapshot unless the follower can resume from an offset still in the change feed,
+ * and then streams the feed. Replication is asynchronous: writes on the leader never wait for a
+ * follower, and a follower that falls more than the feed's capacity behind is sent a new snapshot.
+ *
+ * The database needs a concurrent engine, since senders read it from their own threads, and the same
+ * codecs as the followers. Streamed values are neither exported nor published, so they stay on the leader.
+ */
+public class ReplicationLeader<K,V> implements Closeable {
+    public static final int DEFAULT_FEED_CAPACITY = 1 << 20;
+
+    private final KeyValueDatabase<K,V> db;
+    private final ChangeFeed<K,V> feed;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final ServerSocket server;
+    private final Set<Socket> followers = ConcurrentHashMap.newKeySet();
+    private volatile boolean running = true;
+    private Thread acceptor;
+
+    public ReplicationLeader(KeyValueDatabase<K,V> db, Codec<K> keyCodec, Codec<V> valueCodec, int port)
+            throws IOException {
+        this(db, keyCodec, valueCodec, new InetSocketAddress("127.0.0.1", port), DEFAULT_FEED_CAPACITY);
+    }
+
+    // Enables the database's change feed with feedCapacity if it doesn't have one yet.
+    public ReplicationLeader(KeyValueDatabase<K,V> db, Codec<K> keyCodec, Codec<V> valueCodec,
+                             InetSocketAddress address, int feedCapacity) throws IOException {
+        this.db = db;
+        this.feed = db.enableChangeFeed(feedCapacity);
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.server = new ServerSocket();
+        try {
+            // a restarted leader can take its port back while old connections linger in TIME_WAIT
+            server.setReuseAddress(true);
+            server.bind(address);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+    }
+
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    public int followerCount() {
+        return followers.size();
+    }
+
+    public synchronized void start() {
+        if (acceptor == null) {
+            acceptor = new Thread(this::accept, "repl-leader");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+    }
+
+    private void accept() {
+        while (running) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                // closed
+                return;
+            }
+            followers.add(socket);
+            Thread sender = new Thread(() -> serve(socket), "repl-sender-" + socket.getPort());
+            sender.setDaemon(true);
+            sender.start();
+        }
+    }
+
+    // A follower's connection ends on any I/O error; it reconnects and resumes from its own offset.
+    private void serve(Socket socket) {
+        try (Socket connection = socket) {
+            connection.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream(),
+                    64 * 1024));
+            long offset = in.readLong();
+            ChangeFeed.Subscription<K,V> subscription = offset >= feed.oldestOffset() && offset <= feed.nextOffset()
+                    ? feed.subscribe(offset) : sendSnapshot(out);
+            Duration heartbeat = Duration.ofMillis(Protocol.HEARTBEAT_MILLIS);
+            while (running) {
+                List<Change<K,V>> batch;
+                try {
+                    batch = subscription.poll(Protocol.MAX_BATCH, heartbeat);
+                } catch (IllegalStateException overrun) {
+                    subscription = sendSnapshot(out);
+                    continue;
+                }
+                if (batch.isEmpty()) {
+                    out.writeByte(Protocol.HEARTBEAT);
+                    out.writeLong(feed.nextOffset());
+                } else {
+                    sendChanges(out, batch);
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // follower went away
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            followers.remove(socket);
+        }
+    }
+
+    private ChangeFeed.Subscription<K,V> sendSnapshot(DataOutputStream out) throws IOException {
+        out.writeByte(Protocol.SNAPSHOT);
+        long offset;
+        try {
+            offset = db.exportState((key, value) -> {
+                try {
+                    out.writeByte(Protocol.ENTRY);
+                    Protocol.write(out, keyCodec, key);
+                    Protocol.write(out, valueCodec, value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, (key, deadline) -> {
+                try {
+                    out.writeByte(Protocol.TTL);
+                    Protocol.write(out, keyCodec, key);
+                    out.writeLong(deadline);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.writeByte(Protocol.SNAPSHOT_END);
+        out.writeLong(offset);
+        return feed.subscribe(offset);
+    }
+
+    private void sendChanges(DataOutputStream out, List<Change<K,V>> batch) throws IOException {
+        out.writeByte(Protocol.CHANGES);
+        out.writeInt(batch.size());
+        out.writeLong(feed.nextOffset());
+        for (Change<K,V> change : batch) {
+            out.writeByte(Protocol.typeCode(change.type()));
+            Protocol.write(out, keyCodec, change.key());
+            if (change.type() == Change.Type.SET) {
+                Protocol.write(out, valueCodec, change.value());
+            } else if (change.type() == Change.Type.EXPIRE) {
+                out.writeLong(change.deadline());
+            }
+        }
+    }
+
+    // Stops accepting and drops every follower; the database itself stays open.
+    @Override
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        // the port is only released once the acceptor is out of accept(), so a new leader can bind it
+        Thread thread;
+        synchronized (this) {
+            thread = acceptor;
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Socket socket : followers) {
+            socket.close();
+        }
+    }
+}
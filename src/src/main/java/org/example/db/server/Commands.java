@@ -0,0 +1,187 @@
+package org.example.db.server;
+
+import org.example.db.KeyValueDatabase;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The RESP command subset: GET, SET [EX|PX], DEL, MGET, MSET, EXPIRE, PTTL, KEYS and PING. Keys are
+ * decoded as ISO-8859-1, which maps every byte to one char, so binary keys round-trip unchanged.
+ */
+final class Commands {
+    private static final byte[] GET = ascii("GET");
+    private static final byte[] SET = ascii("SET");
+    private static final byte[] DEL = ascii("DEL");
+    private static final byte[] MGET = ascii("MGET");
+    private static final byte[] MSET = ascii("MSET");
+    private static final byte[] EXPIRE = ascii("EXPIRE");
+    private static final byte[] PTTL = ascii("PTTL");
+    private static final byte[] KEYS = ascii("KEYS");
+    private static final byte[] PING = ascii("PING");
+    private static final byte[] CONFIG = ascii("CONFIG");
+    private static final byte[] EX = ascii("EX");
+    private static final byte[] PX = ascii("PX");
+
+    private final KeyValueDatabase<String, byte[]> db;
+
+    Commands(KeyValueDatabase<String, byte[]> db) {
+        this.db = db;
+    }
+
+    void execute(List<byte[]> args, RespWriter reply) {
+        if (args.isEmpty()) {
+            return;
+        }
+        byte[] name = args.get(0);
+        int argc = args.size();
+        try {
+            if (is(name, GET) && argc == 2) {
+                reply.bulk(db.get(key(args.get(1))));
+            } else if (is(name, SET) && argc >= 3) {
+                set(args, reply);
+            } else if (is(name, DEL) && argc >= 2) {
+                long removed = 0;
+                for (int i = 1; i < argc; i++) {
+                    if (db.delete(key(args.get(i)))) {
+                        removed++;
+                    }
+                }
+                reply.integer(removed);
+            } else if (is(name, MGET) && argc >= 2) {
+                reply.arrayHeader(argc - 1);
+                for (int i = 1; i < argc; i++) {
+                    reply.bulk(db.get(key(args.get(i))));
+                }
+            } else if (is(name, MSET) && argc >= 3 && argc % 2 == 1) {
+                Map<String, byte[]> entries = new LinkedHashMap<>();
+                for (int i = 1; i < argc; i += 2) {
+                    entries.put(key(args.get(i)), args.get(i + 1));
+                }
+                db.multiSet(entries);
+                reply.ok();
+            } else if (is(name, EXPIRE) && argc == 3) {
+                long seconds = number(args.get(2));
+                reply.integer(db.expire(key(args.get(1)), Duration.ofSeconds(seconds)) ? 1 : 0);
+            } else if (is(name, PTTL) && argc == 2) {
+                reply.integer(pttl(key(args.get(1))));
+            } else if (is(name, KEYS) && argc == 2) {
+                keys(key(args.get(1)), reply);
+            } else if (is(name, PING) && argc <= 2) {
+                if (argc == 2) {
+                    reply.bulk(args.get(1));
+                } else {
+                    reply.simple("PONG");
+                }
+            } else if (is(name, CONFIG)) {
+                // redis-benchmark asks for a few settings on startup; report none
+                reply.arrayHeader(0);
+            } else if (isKnown(name)) {
+                reply.error("ERR wrong number of arguments for '" + key(name).toLowerCase() + "' command");
+            } else {
+                reply.error("ERR unknown command '" + key(name) + "'");
+            }
+        } catch (NumberFormatException e) {
+            reply.error("ERR value is not an integer or out of range");
+        } catch (RuntimeException e) {
+            reply.error("ERR " + e.getMessage());
+        }
+    }
+
+    private void set(List<byte[]> args, RespWriter reply) {
+        String key = key(args.get(1));
+        byte[] value = args.get(2);
+        if (args.size() == 3) {
+            db.set(key, value);
+            reply.ok();
+            return;
+        }
+        if (args.size() != 5) {
+            reply.error("ERR syntax error");
+            return;
+        }
+        long amount = number(args.get(4));
+        if (amount <= 0) {
+            reply.error("ERR invalid expire time in 'set' command");
+            return;
+        }
+        if (is(args.get(3), EX)) {
+            db.set(key, value, Duration.ofSeconds(amount));
+        } else if (is(args.get(3), PX)) {
+            db.set(key, value, Duration.ofMillis(amount));
+        } else {
+            reply.error("ERR syntax error");
+            return;
+        }
+        reply.ok();
+    }
+
+    // Remaining ttl in millis, -1 for a key without one and -2 for a missing key, as in Redis.
+    private long pttl(String key) {
+        long deadline = db.deadline(key);
+        if (db.get(key) == null) {
+            return -2;
+        }
+        return deadline == 0 ? -1 : Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+    // Only "*" and "prefix*" patterns. Walks every key in the database, without copying values, and
+    // collects the matches in memory, so it's meant for maintenance such as shard migration, not for
+    // serving traffic.
+    private void keys(String pattern, RespWriter reply) {
+        int star = pattern.indexOf('*');
+        if (star >= 0 && star != pattern.length() - 1) {
+            reply.error("ERR only '*' and 'prefix*' patterns are supported");
+            return;
+        }
+        String prefix = star < 0 ? pattern : pattern.substring(0, star);
+        List<String> matches = new ArrayList<>();
+        db.forEachKey(key -> {
+            if (star < 0 ? key.equals(pattern) : key.startsWith(prefix)) {
+                matches.add(key);
+            }
+        });
+        reply.arrayHeader(matches.size());
+        for (String key : matches) {
+            reply.bulk(key.getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    private static boolean isKnown(byte[] name) {
+        return is(name, GET) || is(name, SET) || is(name, DEL) || is(name, MGET) || is(name, MSET)
+                || is(name, EXPIRE) || is(name, PTTL) || is(name, KEYS) || is(name, PING);
+    }
+
+    // Case-insensitive match against an upper-case ASCII command name.
+    private static boolean is(byte[] arg, byte[] name) {
+        if (arg.length != name.length) {
+            return false;
+        }
+        for (int i = 0; i < arg.length; i++) {
+            int c = arg[i];
+            if (c >= 'a' && c <= 'z') {
+                c -= 'a' - 'A';
+            }
+            if (c != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long number(byte[] arg) {
+        return Long.parseLong(new String(arg, StandardCharsets.US_ASCII));
+    }
+
+    private static String key(byte[] arg) {
+        return new String(arg, StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
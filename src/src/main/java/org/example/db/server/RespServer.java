@@ -0,0 +1,375 @@
+package org.example.db.server;
+
+import org.example.db.Codecs;
+import org.example.db.Durability;
+import org.example.db.KeyValueDatabase;
+import org.example.db.StripedEngine;
+import org.example.db.replication.ReplicationLeader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/*
+ * Serves a KeyValueDatabase<String, byte[]> over a subset of the Redis protocol (RESP) from a single
+ * selector thread. Every readable connection has all complete commands in its input buffer executed
+ * back to back and their replies written with one write call, so pipelined clients pay one syscall
+ * per batch, not per command. Each connection owns one direct input and one direct output buffer for
+ * its lifetime; a command or reply that doesn't fit grows them.
+ *
+ * Commands run on the selector thread, so a database opened with Durability.FSYNC stalls every
+ * client on each fsync; main() uses ASYNC durability for that reason.
+ */
+public class RespServer implements Closeable {
+    public static final int DEFAULT_PORT = 6379;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_BULK_LENGTH = 512 * 1024 * 1024;
+    private static final int MAX_ARGUMENTS = 1024 * 1024;
+    // stop executing a connection's pipeline once this much output is waiting to be written
+    private static final int OUTPUT_HIGH_WATER = 256 * 1024;
+
+    private final Commands commands;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private volatile boolean running = true;
+    private Thread loop;
+
+    public RespServer(KeyValueDatabase<String, byte[]> db, int port) throws IOException {
+        this(db, new InetSocketAddress("127.0.0.1", port));
+    }
+
+    public RespServer(KeyValueDatabase<String, byte[]> db, InetSocketAddress address) throws IOException {
+        this.commands = new Commands(db);
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        try {
+            server.bind(address);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+    }
+
+    // java org.example.db.server.RespServer [port] [log file, or - for none] [replication port]
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        KeyValueDatabase<String, byte[]> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.bytes());
+        if (args.length > 1 && !args[1].equals("-")) {
+            db.init(new StripedEngine<>(), Paths.get(args[1]), Durability.ASYNC);
+        } else {
+            db.init(new StripedEngine<>());
+        }
+        if (args.length > 2) {
+            ReplicationLeader<String, byte[]> leader =
+                    new ReplicationLeader<>(db, Codecs.utf8(), Codecs.bytes(), Integer.parseInt(args[2]));
+            leader.start();
+            System.out.println("Replicating on 127.0.0.1:" + leader.port());
+        }
+        RespServer server = new RespServer(db, port);
+        System.out.println("Serving on 127.0.0.1:" + server.port());
+        server.run();
+    }
+
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    public synchronized void start() {
+        if (loop == null) {
+            loop = new Thread(this::run, "resp-server");
+            loop.start();
+        }
+    }
+
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isWritable()) {
+                                connection.onWritable();
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                connection.onReadable();
+                            }
+                        } catch (IOException | ProtocolException e) {
+                            connection.close();
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                throw new RuntimeException("Server loop failed", e);
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        Thread thread;
+        synchronized (this) {
+            thread = loop;
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        server.close();
+        selector.close();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    private static final class ProtocolException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        ProtocolException(String message) {
+            super(message);
+        }
+    }
+
+    private final class Connection {
+        private final SocketChannel channel;
+        private final RespWriter out = new RespWriter(BUFFER_SIZE);
+        private final List<byte[]> args = new ArrayList<>();
+        // kept in write mode between events
+        private ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private SelectionKey key;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void onReadable() throws IOException, ProtocolException {
+            if (!in.hasRemaining()) {
+                in = grow(in);
+            }
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            process();
+        }
+
+        void onWritable() throws IOException, ProtocolException {
+            if (flush()) {
+                // the pipeline may have stopped at the high-water mark with commands still buffered
+                process();
+            }
+        }
+
+        // Executes every complete command in the input, writing replies out whenever enough pile up.
+        private void process() throws IOException, ProtocolException {
+            while (true) {
+                in.flip();
+                boolean more = false;
+                while (true) {
+                    if (out.pending() >= OUTPUT_HIGH_WATER) {
+                        more = true;
+                        break;
+                    }
+                    int start = in.position();
+                    if (!parse()) {
+                        in.position(start);
+                        break;
+                    }
+                    commands.execute(args, out);
+                }
+                in.compact();
+                if (in.position() == 0 && in.capacity() > BUFFER_SIZE) {
+                    // give back the memory of an oversized request
+                    in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                }
+                if (!flush() || !more) {
+                    return;
+                }
+            }
+        }
+
+        // Returns false if the next command isn't complete yet.
+        private boolean parse() throws ProtocolException {
+            args.clear();
+            if (!in.hasRemaining()) {
+                return false;
+            }
+            if (in.get(in.position()) != '*') {
+                return parseInline();
+            }
+            in.get();
+            long count = readNumber();
+            if (count == Long.MIN_VALUE) {
+                return false;
+            }
+            if (count > MAX_ARGUMENTS) {
+                throw new ProtocolException("too many arguments");
+            }
+            for (long i = 0; i < count; i++) {
+                if (!in.hasRemaining()) {
+                    return false;
+                }
+                if (in.get() != '$') {
+                    throw new ProtocolException("expected a bulk string");
+                }
+                long length = readNumber();
+                if (length == Long.MIN_VALUE) {
+                    return false;
+                }
+                if (length < 0 || length > MAX_BULK_LENGTH) {
+                    throw new ProtocolException("invalid bulk length");
+                }
+                if (in.remaining() < length + 2) {
+                    return false;
+                }
+                byte[] arg = new byte[(int) length];
+                in.get(arg);
+                in.position(in.position() + 2);
+                args.add(arg);
+            }
+            return true;
+        }
+
+        // Telnet-style "GET key\r\n".
+        private boolean parseInline() throws ProtocolException {
+            int end = lineEnd();
+            if (end < 0) {
+                if (in.remaining() > BUFFER_SIZE) {
+                    throw new ProtocolException("inline command too long");
+                }
+                return false;
+            }
+            int tokenStart = -1;
+            for (int i = in.position(); i <= end; i++) {
+                boolean space = i == end || in.get(i) == ' ' || in.get(i) == '\t' || in.get(i) == '\r';
+                if (!space && tokenStart < 0) {
+                    tokenStart = i;
+                } else if (space && tokenStart >= 0) {
+                    byte[] arg = new byte[i - tokenStart];
+                    ByteBuffer token = in.duplicate();
+                    token.position(tokenStart);
+                    token.get(arg);
+                    args.add(arg);
+                    tokenStart = -1;
+                }
+            }
+            in.position(end + 1);
+            return true;
+        }
+
+        // Reads "<number>\r\n"; Long.MIN_VALUE if the line isn't complete yet.
+        private long readNumber() throws ProtocolException {
+            int end = lineEnd();
+            if (end < 0) {
+                return Long.MIN_VALUE;
+            }
+            int position = in.position();
+            boolean negative = position < end && in.get(position) == '-';
+            if (negative) {
+                position++;
+            }
+            if (position >= end - 1 || in.get(end - 1) != '\r') {
+                throw new ProtocolException("expected a number");
+            }
+            long value = 0;
+            for (; position < end - 1; position++) {
+                byte b = in.get(position);
+                if (b < '0' || b > '9' || value > Integer.MAX_VALUE) {
+                    throw new ProtocolException("expected a number");
+                }
+                value = value * 10 + (b - '0');
+            }
+            in.position(end + 1);
+            return negative ? -value : value;
+        }
+
+        // Index of the '\n' ending the current line, or -1.
+        private int lineEnd() {
+            for (int i = in.position(); i < in.limit(); i++) {
+                if (in.get(i) == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // Returns true once everything is written; otherwise waits for OP_WRITE and stops reading.
+        private boolean flush() throws IOException {
+            ByteBuffer buffer = out.buffer;
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) == 0) {
+                    break;
+                }
+            }
+            boolean done = !buffer.hasRemaining();
+            buffer.compact();
+            if (done && buffer.capacity() > BUFFER_SIZE) {
+                // give back the memory of an oversized reply
+                out.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            }
+            key.interestOps(done ? SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+            return done;
+        }
+
+        private ByteBuffer grow(ByteBuffer buffer) throws ProtocolException {
+            if (buffer.capacity() >= MAX_BULK_LENGTH + BUFFER_SIZE) {
+                throw new ProtocolException("request too large");
+            }
+            ByteBuffer grown = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+            buffer.flip();
+            grown.put(buffer);
+            return grown;
+        }
+
+        void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // nothing left to do with this connection
+            }
+        }
+    }
+}
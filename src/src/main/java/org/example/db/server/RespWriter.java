@@ -0,0 +1,108 @@
+package org.example.db.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Encodes RESP replies into a connection's direct output buffer, growing it for oversized replies.
+final class RespWriter {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] NULL_BULK = "$-1\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] OK = "+OK\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    ByteBuffer buffer;
+
+    RespWriter(int capacity) {
+        buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    void ok() {
+        ensure(OK.length);
+        buffer.put(OK);
+    }
+
+    void simple(String message) {
+        ensure(message.length() + 3);
+        buffer.put((byte) '+');
+        ascii(message);
+        buffer.put(CRLF);
+    }
+
+    void error(String message) {
+        ensure(message.length() + 3);
+        buffer.put((byte) '-');
+        ascii(message);
+        buffer.put(CRLF);
+    }
+
+    void integer(long value) {
+        ensure(23);
+        buffer.put((byte) ':');
+        number(value);
+        buffer.put(CRLF);
+    }
+
+    void arrayHeader(int length) {
+        ensure(14);
+        buffer.put((byte) '*');
+        number(length);
+        buffer.put(CRLF);
+    }
+
+    void bulk(byte[] value) {
+        if (value == null) {
+            ensure(NULL_BULK.length);
+            buffer.put(NULL_BULK);
+            return;
+        }
+        ensure(value.length + 16);
+        buffer.put((byte) '$');
+        number(value.length);
+        buffer.put(CRLF);
+        buffer.put(value);
+        buffer.put(CRLF);
+    }
+
+    int pending() {
+        return buffer.position();
+    }
+
+    private void ascii(String message) {
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            // RESP simple strings can't contain line breaks
+            buffer.put(c == '\r' || c == '\n' || c > 0x7f ? (byte) ' ' : (byte) c);
+        }
+    }
+
+    private void number(long value) {
+        if (value < 0) {
+            buffer.put((byte) '-');
+            if (value == Long.MIN_VALUE) {
+                ascii("9223372036854775808");
+                return;
+            }
+            value = -value;
+        }
+        long divisor = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + (value / divisor) % 10));
+        }
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        while (capacity - buffer.position() < bytes) {
+            capacity *= 2;
+        }
+        ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+}
@@ -0,0 +1,21 @@
+package org.example.local_db;
+
+// Where the latest value of a key lives: the only per-key state kept on the heap.
+final class KeyDirEntry {
+    final int segmentId;
+    final int recordOffset;
+    final int valueOffset;
+    // Segment.NULL_VALUE for a null value
+    final int valueLength;
+
+    KeyDirEntry(int segmentId, int recordOffset, int valueOffset, int valueLength) {
+        this.segmentId = segmentId;
+        this.recordOffset = recordOffset;
+        this.valueOffset = valueOffset;
+        this.valueLength = valueLength;
+    }
+
+    int recordLength() {
+        return valueOffset + Math.max(valueLength, 0) - recordOffset;
+    }
+}
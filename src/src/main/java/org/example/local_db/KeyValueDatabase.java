@@ -1,33 +1,328 @@
 package org.example.local_db;
 
-import java.util.HashMap;
+import org.example.db.Codec;
+import org.example.db.Codecs;
+import org.example.db.DatabaseStats;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Bitcask-style store: values live in append-only memory-mapped segment files and the heap only
+ * holds the keydir (key -> segment, offset, length). A background merge copies the live records
+ * out of old segments and deletes them.
+ */
 public class KeyValueDatabase<K,V> {
-    HashMap<K,V> database;
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final long MERGE_INTERVAL_SECONDS = 30;
+    private static final double MERGE_DEAD_RATIO = 0.5;
+    // what find() returns for a key stored with a null value
+    private static final ByteBuffer NULL_VALUE = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    ConcurrentHashMap<K, KeyDirEntry> database;
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private Path directory;
+    private int segmentSize;
+    private volatile Segment active;
+    private ScheduledExecutorService merger;
+    // whether init() made the directory, which close() then removes
+    private boolean temporary;
+    private volatile Exception lastMergeError;
+    private volatile boolean closed;
+    private final DatabaseStats stats = new DatabaseStats(() -> database == null ? 0 : database.size());
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+
+    // Java serialization for keys and values, which existing segment files were written with.
+    public KeyValueDatabase() {
+        this(Codecs.serializable(), Codecs.serializable());
+    }
+
+    // Records are encoded straight into the mapped segment, and decoded straight out of it.
+    public KeyValueDatabase(Codec<K> keyCodec, Codec<V> valueCodec) {
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+    }
+
+    // Keeps the segments in a temporary directory, deleted again by close().
     public void init() {
-         database = new HashMap<>();
+        try {
+            init(Files.createTempDirectory("local_db"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        temporary = true;
     }
+
+    public void init(Path directory) throws IOException {
+        init(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public void init(Path directory, int segmentSize) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        database = new ConcurrentHashMap<>();
+        for (Path path : segmentFiles()) {
+            Segment segment = Segment.open(segmentId(path), path, segmentSize);
+            segments.put(segment.id, segment);
+            load(segment);
+        }
+        active = segments.isEmpty() ? newSegment(0) : segments.lastEntry().getValue();
+        merger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "local-db-merge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        merger.scheduleWithFixedDelay(this::mergeIfWorthIt, MERGE_INTERVAL_SECONDS, MERGE_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
     public void set(K key,V value) {
-        database.put(key, value);
+        long start = System.nanoTime();
+        int keyLength = keyCodec.encodedSize(key);
+        int valueLength = value == null ? Segment.NULL_VALUE : valueCodec.encodedSize(value);
+        synchronized (this) {
+            ensureOpen();
+            KeyDirEntry entry = append(key, keyCodec, keyLength, value, valueCodec, valueLength);
+            retire(database.put(key, entry));
+        }
+        stats.recordSet(start);
     }
+
     public V get(K key) {
-        V value = null;
-        if(!database.containsKey(key)) {
-            System.out.println("Key doesn't exist in db: "+ key);
+        long start = System.nanoTime();
+        ByteBuffer value = find(key);
+        if (value == null) {
+            stats.recordMiss(key, start);
+            return null;
+        }
+        V result = value == NULL_VALUE ? null : valueCodec.decode(value);
+        stats.recordHit(start);
+        return result;
+    }
+
+    // Zero-copy read: a read-only view of the encoded value inside the mapped segment; null for a null value.
+    public ByteBuffer getBuffer(K key) {
+        long start = System.nanoTime();
+        ByteBuffer value = find(key);
+        if (value == null) {
+            stats.recordMiss(key, start);
         } else {
-            value = database.get(key);
-        } 
-        return value;
+            stats.recordHit(start);
+        }
+        return value == NULL_VALUE ? null : value;
+    }
+
+    public DatabaseStats stats() {
+        return stats;
+    }
+
+    private ByteBuffer find(K key) {
+        while (true) {
+            // close() drops the segments but not the keydir, so without this a lookup would retry forever
+            ensureOpen();
+            KeyDirEntry entry = database.get(key);
+            if (entry == null) {
+                return null;
+            }
+            Segment segment = segments.get(entry.segmentId);
+            if (segment != null) {
+                return entry.valueLength == Segment.NULL_VALUE ? NULL_VALUE
+                        : segment.slice(entry.valueOffset, entry.valueLength);
+            }
+            // the segment was merged away between the two lookups; the keydir already points elsewhere
+        }
     }
-    
+
     public boolean delete(K key) {
-        if(!database.containsKey(key)) {
-            System.out.println("Key doesn't exist in db: "+ key);
-            return false;
-        } else {
-            System.out.println("Key removed from db: "+ key);
-            database.remove(key);
-            return false;
+        long start = System.nanoTime();
+        int keyLength = keyCodec.encodedSize(key);
+        synchronized (this) {
+            ensureOpen();
+            if(!database.containsKey(key)) {
+                stats.recordDeleteMiss(key, start);
+                return false;
+            }
+            KeyDirEntry tombstone = append(key, keyCodec, keyLength, null, valueCodec, Segment.TOMBSTONE);
+            retire(database.remove(key));
+            active.markDead(tombstone.recordLength());
+        }
+        stats.recordDelete(start);
+        return true;
+    }
+
+    public void sync() {
+        for (Segment segment : segments.values()) {
+            segment.sync();
+        }
+    }
+
+    public void close() throws IOException {
+        merger.shutdown();
+        try {
+            merger.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        synchronized (this) {
+            closed = true;
+            sync();
+            for (Segment segment : segments.values()) {
+                if (temporary) {
+                    segment.delete();
+                } else {
+                    segment.close();
+                }
+            }
+            segments.clear();
+            if (temporary) {
+                Files.deleteIfExists(directory);
+            }
+        }
+    }
+
+    // The last error that made a background merge give up, or null; the next interval tries again.
+    public Exception lastMergeError() {
+        return lastMergeError;
+    }
+
+    // Rewrites the live records of every immutable segment into the active one and drops the old files.
+    public void merge() throws IOException {
+        List<Segment> immutable;
+        synchronized (this) {
+            immutable = new ArrayList<>(segments.headMap(active.id).values());
+        }
+        for (Segment segment : immutable) {
+            segment.scan((recordOffset, key, valueOffset, valueLength) -> {
+                if (valueLength == Segment.TOMBSTONE) {
+                    return;
+                }
+                K k = keyCodec.decode(key.duplicate());
+                KeyDirEntry current = database.get(k);
+                if (current == null || current.segmentId != segment.id || current.recordOffset != recordOffset) {
+                    return;
+                }
+                byte[] keyBytes = new byte[key.remaining()];
+                key.duplicate().get(keyBytes);
+                byte[] valueBytes = new byte[Math.max(valueLength, 0)];
+                segment.slice(valueOffset, valueBytes.length).get(valueBytes);
+                synchronized (this) {
+                    // only move the record if no writer replaced it meanwhile
+                    if (database.get(k) == current) {
+                        database.put(k, append(keyBytes, Codecs.bytes(), keyBytes.length, valueBytes, Codecs.bytes(),
+                                valueLength));
+                    }
+                }
+            });
+        }
+        // the moved records must be on disk before the only other copy goes
+        for (Segment segment : segments.values()) {
+            if (!immutable.contains(segment)) {
+                segment.sync();
+            }
+        }
+        // oldest first, so a crash mid-way can never resurrect a value whose tombstone was already dropped
+        for (Segment segment : immutable) {
+            segments.remove(segment.id);
+            segment.delete();
+        }
+    }
+
+    private void mergeIfWorthIt() {
+        long dead = 0;
+        long total = 0;
+        for (Segment segment : segments.headMap(active.id).values()) {
+            dead += segment.deadBytes();
+            total += segment.writePosition();
+        }
+        if (total > 0 && dead >= total * MERGE_DEAD_RATIO) {
+            // anything escaping the task would cancel every later merge
+            try {
+                merge();
+            } catch (IOException | RuntimeException e) {
+                lastMergeError = e;
+            }
+        }
+    }
+
+    // Callers hold the monitor.
+    private <A,B> KeyDirEntry append(A key, Codec<? super A> keyCodec, int keyLength, B value,
+                                     Codec<? super B> valueCodec, int valueLength) {
+        int storedLength = Math.max(valueLength, 0);
+        if ((long) keyLength + storedLength + Segment.HEADER_SIZE > segmentSize) {
+            throw new IllegalArgumentException("Record of " + (keyLength + storedLength)
+                    + " bytes does not fit in a segment of " + segmentSize + " bytes");
+        }
+        if (!active.hasRoom(keyLength, storedLength)) {
+            try {
+                active = newSegment(active.id + 1);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        int offset = active.append(key, keyCodec, keyLength, value, valueCodec, valueLength);
+        return new KeyDirEntry(active.id, offset, offset + Segment.HEADER_SIZE + keyLength, valueLength);
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Database is closed");
+        }
+    }
+
+    private void retire(KeyDirEntry previous) {
+        if (previous != null) {
+            Segment segment = segments.get(previous.segmentId);
+            if (segment != null) {
+                segment.markDead(previous.recordLength());
+            }
+        }
+    }
+
+    private void load(Segment segment) {
+        segment.scan((recordOffset, key, valueOffset, valueLength) -> {
+            K k = keyCodec.decode(key);
+            KeyDirEntry previous;
+            if (valueLength == Segment.TOMBSTONE) {
+                previous = database.remove(k);
+                segment.markDead(valueOffset - recordOffset);
+            } else {
+                previous = database.put(k, new KeyDirEntry(segment.id, recordOffset, valueOffset, valueLength));
+            }
+            retire(previous);
+        });
+    }
+
+    private Segment newSegment(int id) throws IOException {
+        Segment segment = Segment.open(id, directory.resolve(String.format("%08d%s", id, SEGMENT_SUFFIX)),
+                segmentSize);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort((a, b) -> Integer.compare(segmentId(a), segmentId(b)));
+        return files;
+    }
+
+    private static int segmentId(Path path) {
+        String name = path.getFileName().toString();
+        return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
     }
 }
@@ -0,0 +1,151 @@
+package org.example.local_db;
+
+import org.example.db.Codec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/*
+ * One append-only, memory-mapped data file. Record layout:
+ *   int crc32 | int keyLength | int valueLength (-1 = tombstone, -2 = null value) | key | value
+ * The crc covers everything after itself. An all-zero header marks the end of the data.
+ */
+final class Segment implements Closeable {
+    static final int HEADER_SIZE = 12;
+    static final int TOMBSTONE = -1;
+    static final int NULL_VALUE = -2;
+
+    interface RecordVisitor {
+        void visit(int recordOffset, ByteBuffer key, int valueOffset, int valueLength);
+    }
+
+    final int id;
+    final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final ByteBuffer readView;
+    private final CRC32 crc = new CRC32();
+    private final AtomicLong deadBytes = new AtomicLong();
+    private volatile int writePosition;
+
+    private Segment(int id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+        this.id = id;
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.readView = buffer.asReadOnlyBuffer();
+    }
+
+    static Segment open(int id, Path path, int capacity) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long size = Math.max(capacity, channel.size());
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new Segment(id, path, channel, buffer);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Walks the intact records from the start of the file and leaves the write position after the last one.
+    void scan(RecordVisitor visitor) {
+        int position = 0;
+        int limit = buffer.capacity();
+        while (position + HEADER_SIZE <= limit) {
+            int checksum = buffer.getInt(position);
+            int keyLength = buffer.getInt(position + 4);
+            int valueLength = buffer.getInt(position + 8);
+            int storedValueLength = Math.max(valueLength, 0);
+            if (keyLength <= 0 || valueLength < NULL_VALUE
+                    || (long) position + HEADER_SIZE + keyLength + storedValueLength > limit) {
+                break;
+            }
+            int recordLength = HEADER_SIZE + keyLength + storedValueLength;
+            if (checksum(position, recordLength) != checksum) {
+                break;
+            }
+            ByteBuffer key = slice(position + HEADER_SIZE, keyLength);
+            visitor.visit(position, key, position + HEADER_SIZE + keyLength, valueLength);
+            position += recordLength;
+        }
+        writePosition = position;
+    }
+
+    boolean hasRoom(int keyLength, int valueLength) {
+        return (long) writePosition + HEADER_SIZE + keyLength + valueLength <= buffer.capacity();
+    }
+
+    // Single writer: callers serialize appends and check hasRoom() first. Key and value are encoded straight
+    // into the mapping; valueLength is TOMBSTONE or NULL_VALUE when there is no value. Returns the offset.
+    <A,B> int append(A key, Codec<? super A> keyCodec, int keyLength, B value, Codec<? super B> valueCodec,
+                     int valueLength) {
+        int position = writePosition;
+        buffer.putInt(position + 4, keyLength);
+        buffer.putInt(position + 8, valueLength);
+        ByteBuffer target = buffer.duplicate();
+        target.position(position + HEADER_SIZE);
+        keyCodec.encode(key, target);
+        if (valueLength >= 0) {
+            valueCodec.encode(value, target);
+        }
+        int recordLength = HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+        if (target.position() != position + recordLength) {
+            // nothing is published: the record has no checksum and the next append overwrites it
+            throw new IllegalStateException("Codec wrote a different length than encodedSize() reported");
+        }
+        buffer.putInt(position, checksum(position, recordLength));
+        writePosition = position + recordLength;
+        return position;
+    }
+
+    // Read-only view of the mapped bytes; nothing is copied.
+    ByteBuffer slice(int offset, int length) {
+        ByteBuffer view = readView.duplicate();
+        view.limit(offset + length).position(offset);
+        return view.slice();
+    }
+
+    int writePosition() {
+        return writePosition;
+    }
+
+    void markDead(int bytes) {
+        deadBytes.addAndGet(bytes);
+    }
+
+    long deadBytes() {
+        return deadBytes.get();
+    }
+
+    void sync() {
+        buffer.force();
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int checksum(int position, int recordLength) {
+        ByteBuffer covered = buffer.duplicate();
+        covered.limit(position + recordLength).position(position + 4);
+        crc.reset();
+        crc.update(covered);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,114 @@
+package org.example.db;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+
+public class BoundedEngineTest {
+    // each entry weighs its overhead plus 1 KB
+    private static final BoundedEngine.Weigher<Integer, String> KILOBYTE = (key, value) -> 1024;
+
+    @Test
+    @DisplayName("Test the engine evicts down to its budget")
+    void testStaysWithinBudget() {
+        BoundedEngine<Integer, String> engine = new BoundedEngine<>(100 * 1024, KILOBYTE);
+        for (int i = 0; i < 10_000; i++) {
+            engine.put(i, "v" + i);
+        }
+        engine.cleanUp();
+        assertTrue(engine.weightedSize() <= engine.maxWeight());
+        assertTrue(engine.evictionCount() > 0);
+        assertTrue(engine.size() < 100);
+    }
+
+    @Test
+    @DisplayName("Test frequently read keys survive a scan of keys read only once")
+    void testHotKeysSurviveScan() {
+        BoundedEngine<Integer, String> engine = new BoundedEngine<>(200 * 1024, KILOBYTE);
+        for (int i = 0; i < 50; i++) {
+            engine.put(i, "hot" + i);
+        }
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 50; i++) {
+                engine.get(i);
+            }
+            engine.cleanUp();
+        }
+        for (int i = 1000; i < 20_000; i++) {
+            engine.put(i, "cold" + i);
+        }
+        engine.cleanUp();
+        int survivors = 0;
+        for (int i = 0; i < 50; i++) {
+            if (engine.containsKey(i)) {
+                survivors++;
+            }
+        }
+        assertTrue(survivors >= 45, "only " + survivors + " hot keys survived");
+    }
+
+    @Test
+    @DisplayName("Test the listener hears of every eviction and of no explicit removal")
+    void testEvictionListener() {
+        BoundedEngine<Integer, String> engine = new BoundedEngine<>(50 * 1024, KILOBYTE);
+        Set<Integer> evicted = new HashSet<>();
+        engine.setEvictionListener((key, value) -> {
+            assertEquals("v" + key, value);
+            assertTrue(evicted.add(key));
+        });
+        for (int i = 0; i < 1000; i++) {
+            engine.put(i, "v" + i);
+        }
+        engine.cleanUp();
+        assertEquals(engine.evictionCount(), evicted.size());
+        for (int key : evicted) {
+            assertFalse(engine.containsKey(key));
+        }
+        int[] resident = new int[1];
+        engine.forEach((key, value) -> resident[0] = key);
+        engine.remove(resident[0]);
+        engine.cleanUp();
+        assertEquals(engine.evictionCount(), evicted.size());
+        assertFalse(evicted.contains(resident[0]));
+    }
+
+    @Test
+    @DisplayName("Test the database drops the ttl and index entries of evicted keys and publishes the eviction")
+    void testDatabaseForgetsEvictedKeys() throws IOException {
+        KeyValueDatabase<Integer, String> db = new KeyValueDatabase<>();
+        BoundedEngine<Integer, String> engine = new BoundedEngine<>(20 * 1024, KILOBYTE);
+        db.init(engine);
+        db.createIndex("parity", value -> Integer.parseInt(value.substring(1)) % 2);
+        ChangeFeed.Subscription<Integer, String> feed = db.enableChangeFeed(10_000).subscribe(0);
+        for (int i = 0; i < 500; i++) {
+            db.set(i, "v" + i, Duration.ofHours(1));
+        }
+        engine.cleanUp();
+        // the next operation cleans up after the evictions
+        db.get(0);
+
+        Set<Integer> evicted = new HashSet<>();
+        for (Change<Integer, String> change : feed.poll(10_000)) {
+            if (change.type() == Change.Type.EVICTED) {
+                evicted.add(change.key());
+            }
+        }
+        assertEquals(engine.evictionCount(), evicted.size());
+        for (int key : evicted) {
+            assertNull(db.get(key));
+            assertEquals(0, db.deadline(key));
+        }
+        // an index still holding evicted keys would look each of them up and miss
+        long misses = engine.missCount();
+        int indexed = db.getByIndex("parity", 0).size() + db.getByIndex("parity", 1).size();
+        assertEquals(engine.size(), indexed);
+        assertEquals(misses, engine.missCount());
+        db.close();
+    }
+}
@@ -0,0 +1,177 @@
+package org.example.db;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ChangeFeedTest {
+
+    @Test
+    @DisplayName("Test the feed publishes every kind of change with sequential offsets")
+    void testPublishesChanges() throws InterruptedException {
+        KeyValueDatabase<String, String> db = database();
+        ChangeFeed<String, String> feed = db.enableChangeFeed(100);
+        assertSame(feed, db.enableChangeFeed(5));
+        ChangeFeed.Subscription<String, String> subscription = feed.subscribe(feed.nextOffset());
+        db.set("a", "1");
+        db.set("t", "ttl", Duration.ofMillis(1));
+        db.expire("a", Duration.ofHours(1));
+        db.delete("a");
+        db.delete("missing");
+        Thread.sleep(20);
+        assertNull(db.get("t"));
+
+        List<Change<String, String>> changes = subscription.poll(100);
+        // a set with a ttl is published as the set and then the ttl
+        assertEquals(List.of(Change.Type.SET, Change.Type.SET, Change.Type.EXPIRE, Change.Type.EXPIRE,
+                Change.Type.DELETE, Change.Type.EXPIRED), types(changes));
+        for (int i = 0; i < changes.size(); i++) {
+            assertEquals(i, changes.get(i).offset());
+        }
+        assertEquals("1", changes.get(0).value());
+        assertEquals(0, changes.get(0).deadline());
+        assertEquals("t", changes.get(2).key());
+        assertTrue(changes.get(2).deadline() > 0);
+        assertEquals("a", changes.get(3).key());
+        assertTrue(changes.get(3).deadline() > System.currentTimeMillis());
+        assertEquals("a", changes.get(4).key());
+        assertEquals("t", changes.get(5).key());
+        assertEquals(6, subscription.offset());
+        assertTrue(subscription.poll(100).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test a subscriber lapped by the writers is told so and can resume from the oldest offset")
+    void testOverrun() {
+        KeyValueDatabase<String, Integer> db = new KeyValueDatabase<>();
+        db.init(new StripedEngine<>());
+        ChangeFeed<String, Integer> feed = db.enableChangeFeed(5);
+        assertEquals(8, feed.capacity());
+        ChangeFeed.Subscription<String, Integer> behind = feed.subscribe(0);
+        for (int i = 0; i < 20; i++) {
+            db.set("k", i);
+        }
+        assertThrows(IllegalStateException.class, () -> behind.poll(1));
+        assertEquals(12, feed.oldestOffset());
+        List<Change<String, Integer>> kept = feed.subscribe(feed.oldestOffset()).poll(100);
+        assertEquals(8, kept.size());
+        assertEquals(12, kept.get(0).value());
+        assertEquals(19, kept.get(7).value());
+        assertThrows(IllegalArgumentException.class, () -> feed.subscribe(-1));
+        assertThrows(IllegalArgumentException.class, () -> database().enableChangeFeed(0));
+    }
+
+    @Test
+    @DisplayName("Test a blocking poll wakes up for a change and otherwise times out empty")
+    void testBlockingPoll() throws Exception {
+        KeyValueDatabase<String, String> db = database();
+        ChangeFeed<String, String> feed = db.enableChangeFeed(16);
+        ChangeFeed.Subscription<String, String> subscription = feed.subscribe(0);
+        assertTrue(subscription.poll(10, Duration.ofMillis(20)).isEmpty());
+
+        CompletableFuture<List<Change<String, String>>> polled = CompletableFuture.supplyAsync(() -> {
+            try {
+                return subscription.poll(10, Duration.ofSeconds(10));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(50);
+        db.set("k", "v");
+        List<Change<String, String>> changes = polled.get(5, TimeUnit.SECONDS);
+        assertEquals(1, changes.size());
+        assertEquals("v", changes.get(0).value());
+    }
+
+    @Test
+    @DisplayName("Test each key's changes come in the order they were applied")
+    void testPerKeyOrder() throws Exception {
+        KeyValueDatabase<Integer, Integer> db = new KeyValueDatabase<>();
+        db.init(new StripedEngine<>());
+        ChangeFeed<Integer, Integer> feed = db.enableChangeFeed(1 << 20);
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            writers[t] = new Thread(() -> {
+                // every writer bumps the same keys, each to one more than it holds now
+                for (int i = 0; i < 10_000; i++) {
+                    int key = i % 16;
+                    db.transaction(tx -> {
+                        Integer current = tx.get(key);
+                        tx.set(key, current == null ? 0 : current + 1);
+                        return null;
+                    });
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        Map<Integer, Integer> last = new HashMap<>();
+        ChangeFeed.Subscription<Integer, Integer> subscription = feed.subscribe(0);
+        List<Change<Integer, Integer>> batch;
+        while (!(batch = subscription.poll(1_000)).isEmpty()) {
+            for (Change<Integer, Integer> change : batch) {
+                Integer previous = last.put(change.key(), change.value());
+                assertEquals(previous == null ? 0 : previous + 1, change.value());
+            }
+        }
+        assertEquals(40_000, subscription.offset());
+    }
+
+    @Test
+    @DisplayName("Test watchers wake up for the key's next change only, with or without a feed")
+    void testWatch() throws Exception {
+        KeyValueDatabase<String, String> db = database();
+        db.set("k", "before");
+        assertNull(db.watch("k", Duration.ofMillis(20)));
+
+        int waiters = 3;
+        CountDownLatch started = new CountDownLatch(waiters);
+        List<CompletableFuture<Change<String, String>>> watched = new ArrayList<>();
+        for (int i = 0; i < waiters; i++) {
+            watched.add(CompletableFuture.supplyAsync(() -> {
+                started.countDown();
+                try {
+                    return db.watch("k", Duration.ofSeconds(10));
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        started.await();
+        Thread.sleep(50);
+        db.set("other", "x");
+        db.delete("k");
+        for (CompletableFuture<Change<String, String>> future : watched) {
+            Change<String, String> change = future.get(5, TimeUnit.SECONDS);
+            assertEquals(Change.Type.DELETE, change.type());
+            assertEquals("k", change.key());
+            assertEquals(-1, change.offset());
+        }
+    }
+
+    private static KeyValueDatabase<String, String> database() {
+        KeyValueDatabase<String, String> db = new KeyValueDatabase<>();
+        db.init(new StripedEngine<>());
+        return db;
+    }
+
+    private static <K,V> List<Change.Type> types(List<Change<K,V>> changes) {
+        List<Change.Type> types = new ArrayList<>();
+        for (Change<K,V> change : changes) {
+            types.add(change.type());
+        }
+        return types;
+    }
+}
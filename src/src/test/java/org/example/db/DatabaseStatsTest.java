@@ -0,0 +1,88 @@
+package org.example.db;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class DatabaseStatsTest {
+
+    @Test
+    @DisplayName("Test the database counts hits, misses, sets, deletes and its size")
+    void testDatabaseCounters() {
+        KeyValueDatabase<String, String> db = new KeyValueDatabase<>();
+        db.init(new StripedEngine<>());
+        DatabaseStats stats = db.stats();
+        assertEquals(1.0, stats.hitRatio());
+
+        db.set("a", "1");
+        db.set("b", "2");
+        db.get("a");
+        db.get("a");
+        db.get("a");
+        db.get("missing");
+        db.delete("b");
+        db.delete("b");
+        db.write(new WriteBatch<String, String>().put("c", "3").put("d", "4").delete("c"));
+
+        assertEquals(3, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(0.75, stats.hitRatio());
+        assertEquals(4, stats.sets());
+        assertEquals(2, stats.deletes());
+        assertEquals(1, stats.deleteMisses());
+        assertEquals(2, stats.size());
+        assertEquals(4, stats.getLatency().count());
+        assertEquals(2, stats.setLatency().count());
+        assertEquals(2, stats.deleteLatency().count());
+        assertNull(stats.compression());
+        assertThrows(IllegalArgumentException.class, () -> stats.setMissLogSampling(-1));
+    }
+
+    @Test
+    @DisplayName("Test percentiles stay within a bucket's 12.5% of the exact ones")
+    void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentileNanos(99));
+        Random random = new Random(5);
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            // spread over several powers of two
+            values[i] = (long) Math.exp(random.nextDouble() * 16);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double percentile : new double[] {1, 50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(values.length * percentile / 100) - 1];
+            long estimate = histogram.percentileNanos(percentile);
+            assertTrue(estimate >= exact && estimate <= exact + exact / 8 + 1,
+                    percentile + ": " + estimate + " vs " + exact);
+        }
+        assertEquals(values[values.length - 1], histogram.maxNanos());
+        assertEquals(values[values.length - 1], histogram.percentileNanos(100));
+        assertEquals(values.length, histogram.count());
+        assertEquals(Arrays.stream(values).average().orElse(0), histogram.meanNanos(), 1e-6);
+
+        // a clock that stepped back records as 0
+        histogram.record(-5);
+        assertEquals(0, histogram.percentileNanos(0));
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.maxNanos());
+        assertEquals(0, histogram.percentileNanos(50));
+    }
+
+    @Test
+    @DisplayName("Test small latencies get exact buckets")
+    void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 0; value < 8; value++) {
+            histogram.record(value);
+        }
+        assertEquals(3, histogram.percentileNanos(50));
+        assertEquals(7, histogram.percentileNanos(100));
+    }
+}
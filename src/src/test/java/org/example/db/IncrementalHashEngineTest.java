@@ -0,0 +1,96 @@
+package org.example.db;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class IncrementalHashEngineTest {
+
+    private IncrementalHashEngine<Integer, String> engine;
+
+    @BeforeEach
+    void setUp() {
+        engine = new IncrementalHashEngine<>();
+    }
+
+    @Test
+    @DisplayName("Test get, put and remove agree with a HashMap while rehashes are running")
+    void testOperationsDuringRehash() {
+        Map<Integer, String> model = new HashMap<>();
+        Random random = new Random(7);
+        int rehashingChecks = 0;
+        for (int i = 0; i < 200_000; i++) {
+            int key = random.nextInt(50_000);
+            int op = random.nextInt(10);
+            if (op < 6) {
+                engine.put(key, "v" + i);
+                model.put(key, "v" + i);
+            } else if (op < 8) {
+                engine.remove(key);
+                model.remove(key);
+            } else {
+                assertEquals(model.get(key), engine.get(key));
+                assertEquals(model.containsKey(key), engine.containsKey(key));
+            }
+            if (engine.isRehashing()) {
+                rehashingChecks++;
+            }
+        }
+        assertTrue(rehashingChecks > 0, "no operation ran during a rehash");
+        assertEquals(model.size(), engine.size());
+        Map<Integer, String> listed = new HashMap<>();
+        engine.forEach((key, value) -> assertNull(listed.put(key, value), "visited twice: " + key));
+        assertEquals(model, listed);
+    }
+
+    @Test
+    @DisplayName("Test every key stays readable in the middle of a rehash")
+    void testGetInMiddleOfRehash() {
+        int key = 0;
+        while (!engine.isRehashing()) {
+            engine.put(key, "v" + key);
+            key++;
+        }
+        for (int i = 0; i < key; i++) {
+            assertEquals("v" + i, engine.get(i));
+        }
+        engine.remove(0);
+        assertNull(engine.get(0));
+        assertEquals(key - 1, engine.size());
+    }
+
+    @Test
+    @DisplayName("Test a call from another thread while one is running fails instead of corrupting the table")
+    void testOverlappingCallsFail() {
+        engine.put(1, "one");
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        engine.forEach((key, value) -> {
+            // calls back on the same thread are fine
+            assertEquals("one", engine.get(key));
+            Thread other = new Thread(() -> {
+                try {
+                    engine.get(key);
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            other.start();
+            try {
+                other.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertInstanceOf(ConcurrentModificationException.class, failure.get());
+        // and the table is free again once the call returns
+        assertEquals("one", engine.get(1));
+    }
+}
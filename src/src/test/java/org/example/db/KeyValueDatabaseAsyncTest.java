@@ -0,0 +1,97 @@
+package org.example.db;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class KeyValueDatabaseAsyncTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Test calls that stay in memory complete on the calling thread")
+    void testInMemoryCallsCompleteInline() throws IOException {
+        KeyValueDatabase<String, String> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.utf8());
+        db.init(new StripedEngine<>());
+        AtomicInteger executed = new AtomicInteger();
+        db.setAsyncExecutor(command -> {
+            executed.incrementAndGet();
+            command.run();
+        });
+        CompletableFuture<Void> set = db.setAsync("a", "1");
+        assertTrue(set.isDone());
+        CompletableFuture<String> get = db.getAsync("a");
+        assertTrue(get.isDone());
+        assertEquals("1", get.join());
+        assertTrue(db.deleteAsync("a").join());
+        assertFalse(db.deleteAsync("a").join());
+        assertEquals(0, executed.get());
+        db.close();
+    }
+
+    @Test
+    @DisplayName("Test fsync writes run on the configured executor and failures complete the future")
+    void testDiskCallsRunOnExecutor() throws Exception {
+        KeyValueDatabase<String, String> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.utf8());
+        db.init(new StripedEngine<>(), directory.resolve("wal.log"), Durability.FSYNC);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        AtomicInteger executed = new AtomicInteger();
+        Executor counting = command -> {
+            executed.incrementAndGet();
+            pool.execute(command);
+        };
+        db.setAsyncExecutor(counting);
+        db.setAsync("a", "1").get(10, TimeUnit.SECONDS);
+        assertEquals(1, executed.get());
+        assertEquals("1", db.get("a"));
+
+        pool.shutdown();
+        CompletableFuture<Void> rejected = db.setAsync("b", "2");
+        assertTrue(rejected.isCompletedExceptionally());
+        db.close();
+    }
+
+    @Test
+    @DisplayName("Test async calls on a single-threaded engine keep their order, also while hydrating")
+    void testSingleThreadedEngineWhileHydrating() throws Exception {
+        KeyValueDatabase<String, String> writer = new KeyValueDatabase<>(Codecs.utf8(), Codecs.utf8());
+        writer.init(new IncrementalHashEngine<>(), directory, Durability.FSYNC, null);
+        for (int i = 0; i < 5000; i++) {
+            writer.set("k" + i, "v" + i);
+        }
+        writer.checkpoint();
+        writer.close();
+
+        KeyValueDatabase<String, String> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.utf8());
+        db.init(new IncrementalHashEngine<>(), directory, Durability.FSYNC, null);
+        assertTrue(db.isHydrating());
+        List<CompletableFuture<String>> reads = new ArrayList<>();
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            // fsync writes go to the engine's own thread; reads must neither overtake them nor touch the engine
+            writes.add(db.setAsync("k" + i, "w" + i, Durability.FSYNC));
+            reads.add(db.getAsync("k" + i));
+            reads.add(db.getAsync("k" + (4999 - i)));
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).get(1, TimeUnit.MINUTES);
+        for (int i = 0; i < 500; i++) {
+            assertEquals("w" + i, reads.get(2 * i).get(1, TimeUnit.MINUTES));
+            assertEquals("v" + (4999 - i), reads.get(2 * i + 1).get(1, TimeUnit.MINUTES));
+        }
+        db.close();
+    }
+}
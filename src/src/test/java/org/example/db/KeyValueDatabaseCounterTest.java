@@ -0,0 +1,108 @@
+package org.example.db;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+public class KeyValueDatabaseCounterTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Test increments reach get() only once flushed, while sum() always sees them")
+    void testFlushCounters() throws IOException {
+        KeyValueDatabase<String, Long> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.int64());
+        db.init(new StripedEngine<>());
+        db.set("hits", 10L);
+        db.incrementBy("hits", 5);
+        db.decrementBy("hits", 2);
+        db.incrementBy("fresh", 1);
+
+        assertEquals(13, db.sum("hits"));
+        assertEquals(10L, db.get("hits"));
+        db.flushCounters();
+        assertEquals(13L, db.get("hits"));
+        assertEquals(1L, db.get("fresh"));
+
+        // a flush with nothing pending retires the counter; later increments start a new one
+        db.flushCounters();
+        db.incrementBy("hits", 7);
+        db.flushCounters();
+        assertEquals(20L, db.get("hits"));
+        assertEquals(20, db.sum("hits"));
+        db.close();
+    }
+
+    @Test
+    @DisplayName("Test a set replaces the counter along with its pending increments")
+    void testSetReplacesCounter() throws IOException {
+        KeyValueDatabase<String, Long> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.int64());
+        db.init(new StripedEngine<>());
+        db.incrementBy("hits", 5);
+        db.set("hits", 100L);
+        db.flushCounters();
+        assertEquals(100L, db.get("hits"));
+        db.close();
+    }
+
+    @Test
+    @DisplayName("Test no increment is lost while threads race the flusher")
+    void testConcurrentIncrementsWithFlusher() throws Exception {
+        KeyValueDatabase<String, Long> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.int64());
+        db.init(new StripedEngine<>());
+        db.flushCountersEvery(Duration.ofMillis(1));
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    db.incrementBy("k" + (i % 10), 1);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        db.flushCounters();
+        for (int k = 0; k < 10; k++) {
+            assertEquals(20_000L, db.get("k" + k));
+        }
+        db.close();
+    }
+
+    @Test
+    @DisplayName("Test a single-threaded engine flushes in the caller's next operation once the interval is up")
+    void testScheduledFlushOnCallerThread() throws Exception {
+        KeyValueDatabase<String, Long> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.int64());
+        db.init();
+        db.incrementBy("hits", 3);
+        db.flushCountersEvery(Duration.ofMillis(10));
+        Thread.sleep(100);
+        assertEquals(3L, db.get("hits"));
+        db.close();
+    }
+
+    @Test
+    @DisplayName("Test flushed counts survive a crash")
+    void testFlushedCountersAreLogged() throws IOException {
+        Path log = directory.resolve("wal.log");
+        KeyValueDatabase<String, Long> crashed = new KeyValueDatabase<>(Codecs.utf8(), Codecs.int64());
+        crashed.init(new StripedEngine<>(), log, Durability.FSYNC);
+        crashed.incrementBy("hits", 42);
+        crashed.flushCounters();
+
+        KeyValueDatabase<String, Long> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.int64());
+        db.init(new StripedEngine<>(), log, Durability.FSYNC);
+        assertEquals(42L, db.get("hits"));
+        db.close();
+    }
+}
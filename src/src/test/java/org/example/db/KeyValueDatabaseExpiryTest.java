@@ -0,0 +1,62 @@
+package org.example.db;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.time.Duration;
+
+public class KeyValueDatabaseExpiryTest {
+
+    @Test
+    @DisplayName("Test a key with a ttl disappears once it runs out on a single-threaded engine")
+    void testExpiryOnCallerThread() throws Exception {
+        KeyValueDatabase<String, String> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.utf8());
+        db.init();
+        db.set("short", "1", Duration.ofMillis(50));
+        db.set("long", "2", Duration.ofHours(1));
+        db.set("plain", "3");
+        assertEquals("1", db.get("short"));
+        assertTrue(db.deadline("short") > 0);
+        assertEquals(0, db.deadline("plain"));
+
+        Thread.sleep(200);
+        assertNull(db.get("short"));
+        assertEquals(0, db.deadline("short"));
+        assertEquals("2", db.get("long"));
+        assertEquals("3", db.get("plain"));
+        db.close();
+    }
+
+    @Test
+    @DisplayName("Test the background expirer removes keys of a concurrent engine without any reads")
+    void testBackgroundExpiry() throws Exception {
+        KeyValueDatabase<String, String> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.utf8());
+        db.init(new StripedEngine<>());
+        db.set("short", "1", Duration.ofMillis(50));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (db.stats().size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, db.stats().size());
+        db.close();
+    }
+
+    @Test
+    @DisplayName("Test expire sets a ttl on an existing key and a set clears it")
+    void testExpireAndOverwrite() throws IOException {
+        KeyValueDatabase<String, String> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.utf8());
+        db.init(new StripedEngine<>());
+        assertFalse(db.expire("missing", Duration.ofMinutes(1)));
+        db.set("a", "1");
+        assertTrue(db.expire("a", Duration.ofMinutes(1)));
+        assertTrue(db.deadline("a") > System.currentTimeMillis());
+        db.set("a", "2");
+        assertEquals(0, db.deadline("a"));
+        assertTrue(db.expire("a", Duration.ZERO));
+        assertNull(db.get("a"));
+        db.close();
+    }
+}
@@ -0,0 +1,145 @@
+package org.example.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// A crash is a database that is dropped without close(); FSYNC writes must all come back.
+public class KeyValueDatabaseRecoveryTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<KeyValueDatabase<String, String>> opened = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (KeyValueDatabase<String, String> db : opened) {
+            db.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Test log-only mode replays sets, deletes and ttls after a crash")
+    void testLogReplayAfterCrash() throws IOException {
+        Path log = directory.resolve("wal.log");
+        KeyValueDatabase<String, String> crashed = new KeyValueDatabase<>(Codecs.utf8(), Codecs.utf8());
+        crashed.init(new StripedEngine<>(), log, Durability.FSYNC);
+        crashed.set("a", "1");
+        crashed.set("b", "2");
+        crashed.set("a", "3");
+        crashed.delete("b");
+        crashed.set("t", "ttl", Duration.ofHours(1));
+
+        KeyValueDatabase<String, String> db = open(log);
+        assertEquals("3", db.get("a"));
+        assertNull(db.get("b"));
+        assertEquals("ttl", db.get("t"));
+        assertTrue(db.deadline("t") > System.currentTimeMillis());
+    }
+
+    @Test
+    @DisplayName("Test directory mode restores the checkpoint plus the log written after it")
+    void testCheckpointAndLogAfterCrash() throws IOException {
+        KeyValueDatabase<String, String> crashed = openDirectory();
+        for (int i = 0; i < 500; i++) {
+            crashed.set("k" + i, "v" + i);
+        }
+        crashed.set("t", "ttl", Duration.ofHours(1));
+        crashed.checkpoint();
+        crashed.set("k0", "changed");
+        crashed.delete("k1");
+        crashed.set("new", "after");
+
+        assertEquals(List.of("snapshot-0000000001.kvs", "wal-0000000001.log"), files());
+        // a checkpoint that was being written when the process died
+        Files.write(directory.resolve("snapshot-0000000002.kvs.tmp"), new byte[]{1, 2, 3});
+
+        KeyValueDatabase<String, String> db = openDirectory();
+        assertEquals("changed", db.get("k0"));
+        assertNull(db.get("k1"));
+        assertEquals("v499", db.get("k499"));
+        assertEquals("after", db.get("new"));
+        assertTrue(db.deadline("t") > System.currentTimeMillis());
+        assertFalse(Files.exists(directory.resolve("snapshot-0000000002.kvs.tmp")));
+    }
+
+    @Test
+    @DisplayName("Test a second checkpoint replaces the first and its log")
+    void testCheckpointDropsSupersededFiles() throws IOException {
+        KeyValueDatabase<String, String> db = openDirectory();
+        db.set("a", "1");
+        db.checkpoint();
+        db.set("b", "2");
+        db.checkpoint();
+
+        assertEquals(List.of("snapshot-0000000002.kvs", "wal-0000000002.log"), files());
+        KeyValueDatabase<String, String> reopened = openDirectory();
+        assertEquals("1", reopened.get("a"));
+        assertEquals("2", reopened.get("b"));
+    }
+
+    @Test
+    @DisplayName("Test a scheduled checkpoint that fails on the caller's thread is reported and retried, not thrown")
+    void testFailedScheduledCheckpointIsRetried() throws Exception {
+        boolean[] listable = {false};
+        StorageEngine<String, String> engine = new IncrementalHashEngine<>() {
+            @Override
+            public void forEach(BiConsumer<? super String, ? super String> action) {
+                if (!listable[0]) {
+                    throw new UnsupportedOperationException("not yet");
+                }
+                super.forEach(action);
+            }
+        };
+        KeyValueDatabase<String, String> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.utf8());
+        db.init(engine, directory, Durability.FSYNC, Duration.ofMillis(10));
+        opened.add(db);
+        db.set("a", "1");
+        Thread.sleep(50);
+        assertEquals("1", db.get("a"));
+        assertInstanceOf(UnsupportedOperationException.class, db.lastCheckpointError());
+
+        listable[0] = true;
+        db.set("b", "2");
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!files().contains("snapshot-0000000001.kvs") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            db.get("a");
+        }
+        assertTrue(files().contains("snapshot-0000000001.kvs"));
+    }
+
+    private KeyValueDatabase<String, String> open(Path log) throws IOException {
+        KeyValueDatabase<String, String> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.utf8());
+        db.init(new StripedEngine<>(), log, Durability.FSYNC);
+        opened.add(db);
+        return db;
+    }
+
+    private KeyValueDatabase<String, String> openDirectory() throws IOException {
+        KeyValueDatabase<String, String> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.utf8());
+        db.init(new StripedEngine<>(), directory, Durability.FSYNC, null);
+        opened.add(db);
+        return db;
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.example.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class KeyValueDatabaseStreamTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<KeyValueDatabase<String, byte[]>> opened = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (KeyValueDatabase<String, byte[]> db : opened) {
+            db.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Test a streamed value reads back whole and is replaced by a set")
+    void testStreamRoundTrip() throws IOException {
+        KeyValueDatabase<String, byte[]> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.bytes());
+        db.init();
+        opened.add(db);
+        byte[] big = random(200_000, 1);
+        write(db, "big", big);
+
+        assertArrayEquals(big, read(db, "big"));
+        assertNull(db.get("big"));
+
+        // a reader keeps the value it opened
+        InputStream open = db.openValueStream("big");
+        db.set("big", new byte[] {7});
+        assertArrayEquals(new byte[] {7}, read(db, "big"));
+        assertArrayEquals(big, open.readAllBytes());
+
+        write(db, "empty", new byte[0]);
+        assertArrayEquals(new byte[0], read(db, "empty"));
+        assertNull(db.openValueStream("missing"));
+    }
+
+    @Test
+    @DisplayName("Test checkpoints write streamed values beside the snapshot and crashes bring them back")
+    void testStreamsSurviveCheckpointAndCrash() throws IOException {
+        byte[] first = random(300_000, 2);
+        byte[] second = random(70_000, 3);
+        KeyValueDatabase<String, byte[]> crashed = openDirectory();
+        write(crashed, "first", first);
+        crashed.set("whole", new byte[] {1, 2, 3});
+        crashed.checkpoint();
+
+        // the chunks went to the side file, not to the log the checkpoint started
+        assertTrue(files().contains("streams-0000000001.log"), files().toString());
+        assertTrue(Files.size(directory.resolve("wal-0000000001.log")) < first.length);
+        write(crashed, "second", second);
+
+        KeyValueDatabase<String, byte[]> db = openDirectory();
+        assertArrayEquals(first, read(db, "first"));
+        assertArrayEquals(second, read(db, "second"));
+        assertArrayEquals(new byte[] {1, 2, 3}, db.get("whole"));
+
+        db.delete("first");
+        db.checkpoint();
+        assertFalse(files().contains("streams-0000000001.log"), files().toString());
+        KeyValueDatabase<String, byte[]> reopened = openDirectory();
+        assertNull(reopened.openValueStream("first"));
+        assertArrayEquals(second, read(reopened, "second"));
+    }
+
+    @Test
+    @DisplayName("Test a checkpoint of a database without streamed values writes no side file")
+    void testNoSideFileWithoutStreams() throws IOException {
+        KeyValueDatabase<String, byte[]> db = openDirectory();
+        db.set("a", new byte[] {1});
+        db.checkpoint();
+        assertTrue(files().stream().noneMatch(name -> name.startsWith("streams-")), files().toString());
+    }
+
+    private KeyValueDatabase<String, byte[]> openDirectory() throws IOException {
+        KeyValueDatabase<String, byte[]> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.bytes());
+        db.init(new StripedEngine<>(), directory, Durability.FSYNC, null);
+        opened.add(db);
+        return db;
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static void write(KeyValueDatabase<String, byte[]> db, String key, byte[] value) throws IOException {
+        try (OutputStream out = db.writeValueStream(key)) {
+            // uneven writes, so chunks fill across calls
+            for (int i = 0; i < value.length; i += 9_999) {
+                out.write(value, i, Math.min(9_999, value.length - i));
+            }
+        }
+    }
+
+    private static byte[] read(KeyValueDatabase<String, byte[]> db, String key) throws IOException {
+        try (InputStream in = db.openValueStream(key)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
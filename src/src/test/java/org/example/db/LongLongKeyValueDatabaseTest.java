@@ -0,0 +1,90 @@
+package org.example.db;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class LongLongKeyValueDatabaseTest {
+
+    @Test
+    @DisplayName("Test random sets and deletes match a HashMap, through growth and back-shifting deletes")
+    void testMatchesHashMap() {
+        LongLongKeyValueDatabase db = new LongLongKeyValueDatabase();
+        db.init();
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            // a small key range keeps probe chains long and makes deletes hit
+            long key = random.nextInt(5_000) - 100;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, db.delete(key));
+            } else {
+                long value = random.nextLong();
+                expected.put(key, value);
+                db.set(key, value);
+            }
+        }
+        assertEquals(expected.size(), db.size());
+        for (long key = -100; key < 4_900; key++) {
+            assertEquals(expected.containsKey(key), db.containsKey(key));
+            assertEquals(expected.getOrDefault(key, db.missingValue()), db.get(key));
+        }
+    }
+
+    @Test
+    @DisplayName("Test key 0 is stored apart and missing keys read as the configured value")
+    void testZeroKeyAndMissingValue() {
+        LongLongKeyValueDatabase db = new LongLongKeyValueDatabase();
+        db.init(4, -1);
+        assertEquals(-1, db.get(0));
+        assertFalse(db.containsKey(0));
+
+        db.set(0, 5);
+        db.set(0, 6);
+        assertEquals(1, db.size());
+        assertEquals(6, db.get(0));
+        db.set(7, -1);
+        assertTrue(db.containsKey(7));
+        assertEquals(-1, db.get(8));
+
+        assertTrue(db.delete(0));
+        assertFalse(db.delete(0));
+        assertEquals(1, db.size());
+        assertEquals(LongLongKeyValueDatabase.DEFAULT_MISSING_VALUE, newDefault().get(1));
+    }
+
+    @Test
+    @DisplayName("Test forEach and the cursor visit every entry once, the zero key included")
+    void testIteration() {
+        LongLongKeyValueDatabase db = new LongLongKeyValueDatabase();
+        db.init();
+        Map<Long, Long> expected = new HashMap<>();
+        for (long key = 0; key < 1_000; key++) {
+            db.set(key, key * 3);
+            expected.put(key, key * 3);
+        }
+
+        Map<Long, Long> visited = new HashMap<>();
+        db.forEach((key, value) -> assertNull(visited.put(key, value)));
+        assertEquals(expected, visited);
+
+        visited.clear();
+        LongLongKeyValueDatabase.Cursor cursor = db.cursor();
+        while (cursor.advance()) {
+            assertNull(visited.put(cursor.key(), cursor.value()));
+        }
+        assertEquals(expected, visited);
+        assertFalse(cursor.advance());
+    }
+
+    private static LongLongKeyValueDatabase newDefault() {
+        LongLongKeyValueDatabase db = new LongLongKeyValueDatabase();
+        db.init();
+        return db;
+    }
+}
@@ -0,0 +1,76 @@
+package org.example.db;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+public class Lz4Test {
+
+    private final Random random = new Random(42);
+
+    @Test
+    @DisplayName("Test inputs of every kind come back unchanged")
+    void testRoundTrip() {
+        for (int length : new int[]{0, 1, 5, 12, 13, 100, 4096, 70_000}) {
+            assertArrayEquals(randomBytes(length), roundTrip(new byte[0], randomBytes(length)));
+            byte[] text = repetitive(length);
+            assertArrayEquals(text, roundTrip(new byte[0], text));
+        }
+    }
+
+    @Test
+    @DisplayName("Test repetitive input shrinks")
+    void testCompressesRepetitiveInput() {
+        byte[] text = repetitive(10_000);
+        byte[] out = new byte[Lz4.maxCompressedLength(text.length)];
+        int[] table = new int[1 << Lz4.HASH_BITS];
+        Lz4.seed(text, 0, table);
+        assertTrue(Lz4.compress(text, 0, text.length, table, out) < text.length / 4);
+    }
+
+    @Test
+    @DisplayName("Test input matched against a dictionary decompresses with the same dictionary")
+    void testRoundTripWithDictionary() {
+        byte[] dictionary = repetitive(2000);
+        byte[] input = Arrays.copyOfRange(dictionary, 500, 1500);
+        assertArrayEquals(input, roundTrip(dictionary, input));
+        byte[] mixed = randomBytes(3000);
+        System.arraycopy(dictionary, 0, mixed, 1000, 1000);
+        assertArrayEquals(mixed, roundTrip(dictionary, mixed));
+    }
+
+    private static byte[] roundTrip(byte[] dictionary, byte[] input) {
+        byte[] all = new byte[dictionary.length + input.length];
+        System.arraycopy(dictionary, 0, all, 0, dictionary.length);
+        System.arraycopy(input, 0, all, dictionary.length, input.length);
+        int[] table = new int[1 << Lz4.HASH_BITS];
+        Lz4.seed(all, dictionary.length, table);
+        byte[] out = new byte[Lz4.maxCompressedLength(input.length)];
+        int length = Lz4.compress(all, dictionary.length, all.length, table, out);
+
+        byte[] restored = new byte[input.length];
+        Lz4.decompress(ByteBuffer.wrap(out), length, dictionary.length == 0 ? null : ByteBuffer.wrap(dictionary),
+                restored);
+        return restored;
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private byte[] repetitive(int length) {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            text.append("{\"user\":").append(random.nextInt(100)).append(",\"active\":true}");
+        }
+        return Arrays.copyOf(text.toString().getBytes(StandardCharsets.UTF_8), length);
+    }
+}
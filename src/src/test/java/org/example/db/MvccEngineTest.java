@@ -0,0 +1,99 @@
+package org.example.db;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+public class MvccEngineTest {
+
+    @Test
+    @DisplayName("Test a snapshot keeps reading the values of its point in time")
+    void testSnapshotIsolation() {
+        MvccEngine<String, String> engine = new MvccEngine<>();
+        engine.put("a", "1");
+        engine.put("b", "1");
+        engine.put(null, "null key");
+        Snapshot<String, String> first = engine.snapshot();
+        engine.put("a", "2");
+        engine.remove("b");
+        engine.put("c", null);
+        Snapshot<String, String> second = engine.snapshot();
+        engine.put("a", "3");
+
+        assertEquals("1", first.get("a"));
+        assertEquals("1", first.get("b"));
+        assertEquals("null key", first.get(null));
+        assertFalse(first.containsKey("c"));
+        assertEquals("2", second.get("a"));
+        assertFalse(second.containsKey("b"));
+        assertTrue(second.containsKey("c"));
+        assertNull(second.get("c"));
+        assertEquals("3", engine.get("a"));
+        assertFalse(engine.containsKey("b"));
+
+        Map<String, String> visited = new HashMap<>();
+        first.forEach(visited::put);
+        assertEquals("null key", visited.remove(null));
+        assertEquals(Map.of("a", "1", "b", "1"), visited);
+        assertEquals(2, engine.openSnapshots());
+        first.close();
+        first.close();
+        assertEquals(1, engine.openSnapshots());
+        assertEquals("2", second.get("a"));
+        second.close();
+        assertEquals(0, engine.openSnapshots());
+    }
+
+    @Test
+    @DisplayName("Test a snapshot taken under a running writer sees exactly a prefix of its writes")
+    void testSnapshotUnderConcurrentWriter() throws Exception {
+        int keys = 64;
+        MvccEngine<Integer, Long> engine = new MvccEngine<>();
+        for (int key = 0; key < keys; key++) {
+            engine.put(key, (long) key);
+        }
+        // write n sets key n % keys to n, so every prefix of the writes leaves keys consecutive values
+        Thread writer = new Thread(() -> {
+            for (long n = keys; n < 2_000_000 && !Thread.currentThread().isInterrupted(); n++) {
+                engine.put((int) (n % keys), n);
+            }
+        });
+        writer.start();
+        try {
+            for (int round = 0; round < 200; round++) {
+                TreeSet<Long> seen = new TreeSet<>();
+                try (Snapshot<Integer, Long> snapshot = engine.snapshot()) {
+                    snapshot.forEach((key, value) -> {
+                        assertEquals(key.longValue(), value % keys);
+                        seen.add(value);
+                    });
+                }
+                assertEquals(keys, seen.size());
+                assertEquals(keys - 1, seen.last() - seen.first(), seen.toString());
+            }
+        } finally {
+            writer.interrupt();
+            writer.join();
+        }
+        assertEquals(0, engine.openSnapshots());
+    }
+
+    @Test
+    @DisplayName("Test the database hands out the engine's snapshots")
+    void testDatabaseSnapshot() {
+        KeyValueDatabase<String, Integer> db = new KeyValueDatabase<>();
+        db.init(new MvccEngine<>());
+        db.set("x", 1);
+        try (Snapshot<String, Integer> snapshot = db.snapshot()) {
+            db.set("x", 2);
+            db.delete("x");
+            assertEquals(1, snapshot.get("x"));
+        }
+        assertNull(db.get("x"));
+    }
+}
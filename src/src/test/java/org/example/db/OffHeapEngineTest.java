@@ -0,0 +1,82 @@
+package org.example.db;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class OffHeapEngineTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Test values round-trip through the arena and freed chunks are given back")
+    void testPutGetRemove() {
+        OffHeapEngine<Integer> engine = new OffHeapEngine<>();
+        Map<Integer, byte[]> model = new HashMap<>();
+        Random random = new Random(5);
+        for (int i = 0; i < 5000; i++) {
+            byte[] value = new byte[random.nextInt(3000)];
+            random.nextBytes(value);
+            engine.put(i % 1000, value);
+            model.put(i % 1000, value);
+        }
+        engine.put(-1, null);
+        assertTrue(engine.containsKey(-1));
+        assertNull(engine.get(-1));
+        for (Map.Entry<Integer, byte[]> entry : model.entrySet()) {
+            assertArrayEquals(entry.getValue(), engine.get(entry.getKey()));
+        }
+        ByteBuffer view = engine.getView(7);
+        byte[] viewed = new byte[view.remaining()];
+        view.get(viewed);
+        assertArrayEquals(model.get(7), viewed);
+        assertEquals(1001, engine.size());
+
+        Map<Integer, byte[]> listed = new HashMap<>();
+        engine.forEach(listed::put);
+        assertEquals(1001, listed.size());
+        assertArrayEquals(model.get(999), listed.get(999));
+
+        for (int key = -1; key < 1000; key++) {
+            engine.remove(key);
+        }
+        assertEquals(0, engine.size());
+        assertEquals(0, engine.arena().usedBytes());
+        assertNull(engine.get(7));
+    }
+
+    @Test
+    @DisplayName("Test a value too large for the arena is rejected before it reaches the log")
+    void testOversizedValueIsNotLogged() throws IOException {
+        Path log = directory.resolve("wal.log");
+        KeyValueDatabase<String, byte[]> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.bytes());
+        db.init(new OffHeapEngine<>(), log, Durability.FSYNC);
+        db.set("small", new byte[]{1, 2, 3});
+        byte[] big = new byte[OffHeapArena.MAX_VALUE_SIZE + 1];
+        assertThrows(IllegalArgumentException.class, () -> db.set("big", big));
+        WriteBatch<String, byte[]> batch = new WriteBatch<>();
+        batch.put("other", new byte[]{4});
+        batch.put("big", big);
+        assertThrows(IllegalArgumentException.class, () -> db.write(batch));
+        assertNull(db.get("other"));
+        assertThrows(IllegalArgumentException.class, () -> db.computeIfAbsent("big", key -> big));
+        db.close();
+
+        KeyValueDatabase<String, byte[]> reopened = new KeyValueDatabase<>(Codecs.utf8(), Codecs.bytes());
+        reopened.init(new OffHeapEngine<>(), log, Durability.FSYNC);
+        assertArrayEquals(new byte[]{1, 2, 3}, reopened.get("small"));
+        assertNull(reopened.get("big"));
+        assertNull(reopened.get("other"));
+        reopened.close();
+    }
+}
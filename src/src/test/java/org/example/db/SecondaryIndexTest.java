@@ -0,0 +1,131 @@
+package org.example.db;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+
+public class SecondaryIndexTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Test the index follows sets, overwrites, deletes, batches and expiry")
+    void testIndexFollowsWrites() throws InterruptedException {
+        KeyValueDatabase<String, String> db = new KeyValueDatabase<>();
+        db.init(new StripedEngine<>());
+        db.createIndex("city", SecondaryIndexTest::city);
+        db.set("ann", "Oslo:ann");
+        db.set("bob", "Oslo:bob");
+        db.set("cid", "Rome:cid");
+        assertEquals(Set.of("ann", "bob"), db.getByIndex("city", "Oslo").keySet());
+        assertEquals(Map.of("cid", "Rome:cid"), db.getByIndex("city", "Rome"));
+
+        db.set("bob", "Rome:bob");
+        db.delete("ann");
+        assertTrue(db.getByIndex("city", "Oslo").isEmpty());
+        assertEquals(Set.of("bob", "cid"), db.getByIndex("city", "Rome").keySet());
+
+        db.write(new WriteBatch<String, String>().put("dan", "Oslo:dan").delete("cid"));
+        assertEquals(Set.of("dan"), db.getByIndex("city", "Oslo").keySet());
+        assertEquals(Set.of("bob"), db.getByIndex("city", "Rome").keySet());
+
+        db.set("eve", "Oslo:eve", Duration.ofMillis(1));
+        Thread.sleep(20);
+        assertEquals(Set.of("dan"), db.getByIndex("city", "Oslo").keySet());
+        assertTrue(db.getByIndex("city", "Nowhere").isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test creating an index covers existing entries, and names are checked")
+    void testCreateAndDrop() {
+        KeyValueDatabase<String, String> db = new KeyValueDatabase<>();
+        db.init(new StripedEngine<>());
+        for (int i = 0; i < 100; i++) {
+            db.set("k" + i, (i % 3 == 0 ? "Oslo:" : "Rome:") + i);
+        }
+        db.set("none", null);
+        db.createIndex("city", SecondaryIndexTest::city);
+        assertEquals(34, db.getByIndex("city", "Oslo").size());
+        assertEquals(66, db.getByIndex("city", "Rome").size());
+
+        assertThrows(IllegalArgumentException.class, () -> db.createIndex("city", SecondaryIndexTest::city));
+        assertTrue(db.dropIndex("city"));
+        assertFalse(db.dropIndex("city"));
+        assertThrows(IllegalArgumentException.class, () -> db.getByIndex("city", "Oslo"));
+    }
+
+    @Test
+    @DisplayName("Test an index created before init is built from the checkpoint and the log")
+    void testIndexBuiltOnLoad() throws IOException {
+        KeyValueDatabase<String, String> first = new KeyValueDatabase<>(Codecs.utf8(), Codecs.utf8());
+        first.init(new StripedEngine<>(), directory, Durability.FSYNC, null);
+        first.set("ann", "Oslo:ann");
+        first.set("bob", "Oslo:bob");
+        first.checkpoint();
+        first.set("cid", "Oslo:cid");
+        first.delete("ann");
+        first.close();
+
+        KeyValueDatabase<String, String> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.utf8());
+        db.createIndex("city", SecondaryIndexTest::city);
+        db.init(new StripedEngine<>(), directory, Durability.FSYNC, null);
+        assertEquals(Set.of("bob", "cid"), db.getByIndex("city", "Oslo").keySet());
+        db.close();
+    }
+
+    @Test
+    @DisplayName("Test concurrent writers leave every key indexed under its final value")
+    void testConcurrentWriters() throws Exception {
+        KeyValueDatabase<Integer, String> db = new KeyValueDatabase<>();
+        db.init(new StripedEngine<>());
+        db.createIndex("city", SecondaryIndexTest::city);
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            String city = t % 2 == 0 ? "Oslo:" : "Rome:";
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    db.set(i % 500, city + i);
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        Map<Integer, String> oslo = db.getByIndex("city", "Oslo");
+        Map<Integer, String> rome = db.getByIndex("city", "Rome");
+        assertEquals(500, oslo.size() + rome.size());
+        for (int key = 0; key < 500; key++) {
+            String value = db.get(key);
+            assertEquals(value, (city(value).equals("Oslo") ? oslo : rome).get(key));
+        }
+    }
+
+    @Test
+    @DisplayName("Test an emptied bucket goes away and null extractions aren't indexed")
+    void testBuckets() {
+        SecondaryIndex<String, String> index = new SecondaryIndex<>("city", SecondaryIndexTest::city);
+        index.add("ann", "Oslo:ann");
+        index.add("bob", null);
+        index.add("cid", "nocity");
+        assertEquals(Set.of("ann"), index.keys("Oslo"));
+        index.remove("ann", "Oslo:ann");
+        assertTrue(index.keys("Oslo").isEmpty());
+        index.add("ann", "Oslo:ann");
+        assertEquals(Set.of("ann"), index.keys("Oslo"));
+    }
+
+    private static String city(String value) {
+        int colon = value.indexOf(':');
+        return colon < 0 ? null : value.substring(0, colon);
+    }
+}
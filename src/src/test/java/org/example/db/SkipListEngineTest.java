@@ -0,0 +1,105 @@
+package org.example.db;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class SkipListEngineTest {
+
+    @Test
+    @DisplayName("Test range scans return [from, to) in order, both ways, with open bounds")
+    void testRangeScan() {
+        KeyValueDatabase<Integer, String> db = database();
+        assertEquals(List.of(10, 11, 12, 13, 14), keys(db.scan(10, 15, 100)));
+        assertEquals(List.of(14, 13, 12, 11, 10), keys(db.scan(10, 15, 100, true)));
+        assertEquals(List.of(0, 1, 2), keys(db.scan(null, 3, 100)));
+        assertEquals(List.of(99, 98), keys(db.scan(null, null, 2, true)));
+        assertTrue(db.scan(50, 50, 10).entries().isEmpty());
+        assertEquals("v12", db.scan(12, 13, 1).entries().get(0).getValue());
+    }
+
+    @Test
+    @DisplayName("Test paging through a scan visits every key once, including keys written between pages")
+    void testPagedScan() {
+        KeyValueDatabase<Integer, String> db = database();
+        List<Integer> visited = new ArrayList<>();
+        ScanPage<Integer, String> page = db.scan(null, null, 7);
+        visited.addAll(keys(page));
+        // a page boundary holds keys, so deleting the last key seen and adding new ones doesn't upset it
+        db.delete(visited.get(visited.size() - 1));
+        db.set(1_000, "later");
+        while (page.hasMore()) {
+            page = db.scan(page.next(), 7);
+            visited.addAll(keys(page));
+        }
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            expected.add(i);
+        }
+        expected.add(1_000);
+        assertEquals(expected, visited);
+
+        List<Integer> reversed = new ArrayList<>();
+        page = db.scan(20, 40, 6, true);
+        reversed.addAll(keys(page));
+        while (page.hasMore()) {
+            page = db.scan(page.next(), 6);
+            reversed.addAll(keys(page));
+        }
+        assertEquals(20, reversed.size());
+        assertEquals(39, reversed.get(0));
+        assertEquals(20, reversed.get(19));
+    }
+
+    @Test
+    @DisplayName("Test prefix scans return exactly the keys starting with the prefix")
+    void testPrefixScan() {
+        KeyValueDatabase<String, Integer> db = new KeyValueDatabase<>();
+        db.init(new SkipListEngine<>());
+        for (String key : List.of("user:1", "user:2", "user:10", "user;", "use", "users", "order:1",
+                "\uffff", "\uffff\uffffx")) {
+            db.set(key, key.length());
+        }
+        assertEquals(List.of("user:1", "user:10", "user:2"), keys(db.prefixScan("user:")));
+        assertEquals(List.of("user:1"), keys(db.prefixScan("user:", 1)));
+        assertEquals(List.of("\uffff", "\uffff\uffffx"), keys(db.prefixScan("\uffff")));
+        assertEquals(9, db.prefixScan("").entries().size());
+    }
+
+    @Test
+    @DisplayName("Test scans skip expired keys and unordered engines refuse them")
+    void testScanEdgeCases() throws InterruptedException {
+        KeyValueDatabase<Integer, String> db = database();
+        db.set(5, "short", Duration.ofMillis(1));
+        Thread.sleep(20);
+        assertEquals(List.of(4, 6), keys(db.scan(4, 7, 10)));
+        assertThrows(IllegalArgumentException.class, () -> db.scan(0, 1, 0));
+
+        KeyValueDatabase<Integer, String> unordered = new KeyValueDatabase<>();
+        unordered.init(new StripedEngine<>());
+        assertThrows(UnsupportedOperationException.class, () -> unordered.scan(0, 1, 10));
+    }
+
+    private static KeyValueDatabase<Integer, String> database() {
+        KeyValueDatabase<Integer, String> db = new KeyValueDatabase<>();
+        db.init(new SkipListEngine<>());
+        for (int i = 99; i >= 0; i--) {
+            db.set(i, "v" + i);
+        }
+        return db;
+    }
+
+    private static <K> List<K> keys(ScanPage<K, ?> page) {
+        List<K> keys = new ArrayList<>();
+        for (Map.Entry<K, ?> entry : page.entries()) {
+            keys.add(entry.getKey());
+        }
+        return keys;
+    }
+}
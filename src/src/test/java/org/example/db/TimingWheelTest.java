@@ -0,0 +1,68 @@
+package org.example.db;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class TimingWheelTest {
+    private static final long TICK = 10;
+
+    @Test
+    @DisplayName("Test every timer fires on the first advance that reaches its tick, never earlier")
+    void testFiresOnTime() {
+        Random random = new Random(11);
+        long now = 1_000_000;
+        TimingWheel<Integer> wheel = new TimingWheel<>(TICK, now);
+        List<TimingWheel.Timer<Integer>> pending = new ArrayList<>();
+        Set<Integer> cancelled = new HashSet<>();
+        for (int i = 0; i < 20_000; i++) {
+            // from a few ticks to past the top level of the wheel
+            long delay = random.nextInt(4) == 0 ? random.nextInt(100)
+                    : (long) Math.pow(64, random.nextDouble() * 5.5) * TICK;
+            TimingWheel.Timer<Integer> timer = new TimingWheel.Timer<>(i, now + delay);
+            wheel.schedule(timer);
+            pending.add(timer);
+            if (random.nextInt(20) == 0) {
+                wheel.cancel(timer);
+                cancelled.add(i);
+            }
+        }
+        Set<Integer> fired = new HashSet<>();
+        for (int step = 0; step < 500 && fired.size() + cancelled.size() < pending.size(); step++) {
+            now += random.nextInt(3) == 0 ? random.nextInt(5) : (long) Math.pow(64, random.nextDouble() * 4) * TICK;
+            for (TimingWheel.Timer<Integer> timer : wheel.advance(now)) {
+                assertTrue(fired.add(timer.key), "fired twice: " + timer.key);
+                assertFalse(cancelled.contains(timer.key), "cancelled timer fired: " + timer.key);
+            }
+            for (TimingWheel.Timer<Integer> timer : pending) {
+                boolean due = (timer.deadline + TICK - 1) / TICK <= now / TICK;
+                if (!cancelled.contains(timer.key)) {
+                    assertEquals(due, fired.contains(timer.key), "timer " + timer.key + " at " + now);
+                }
+            }
+        }
+        // far past every deadline, including those parked beyond the top level
+        for (TimingWheel.Timer<Integer> timer : wheel.advance(now + (1L << 40) * TICK)) {
+            assertTrue(fired.add(timer.key), "fired twice: " + timer.key);
+        }
+        assertEquals(pending.size(), fired.size() + cancelled.size());
+    }
+
+    @Test
+    @DisplayName("Test an advance where nothing fires allocates nothing")
+    void testIdleAdvanceReturnsSharedEmptyList() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 0);
+        wheel.schedule(new TimingWheel.Timer<>("later", 100_000));
+        assertSame(Collections.emptyList(), wheel.advance(5));
+        assertSame(Collections.emptyList(), wheel.advance(500));
+        assertEquals(1, wheel.advance(100_000).size());
+    }
+}
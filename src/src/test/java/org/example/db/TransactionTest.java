@@ -0,0 +1,160 @@
+package org.example.db;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TransactionTest {
+
+    @Test
+    @DisplayName("Test compareAndSet only sets over the expected value")
+    void testCompareAndSet() {
+        KeyValueDatabase<String, String> db = database();
+        assertTrue(db.compareAndSet("k", null, "1"));
+        assertFalse(db.compareAndSet("k", null, "2"));
+        assertFalse(db.compareAndSet("k", "0", "2"));
+        assertTrue(db.compareAndSet("k", "1", "2"));
+        assertEquals("2", db.get("k"));
+    }
+
+    @Test
+    @DisplayName("Test concurrent compareAndSet increments lose no update")
+    void testConcurrentCompareAndSet() throws Exception {
+        KeyValueDatabase<String, Integer> db = new KeyValueDatabase<>();
+        db.init(new StripedEngine<>());
+        db.set("n", 0);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    Integer current;
+                    do {
+                        current = db.get("n");
+                    } while (!db.compareAndSet("n", current, current + 1));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(20_000, db.get("n"));
+    }
+
+    @Test
+    @DisplayName("Test computeIfAbsent maps a key once however many threads ask")
+    void testComputeIfAbsent() throws Exception {
+        KeyValueDatabase<String, String> db = database();
+        AtomicInteger calls = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> assertEquals("computed", db.computeIfAbsent("k", key -> {
+                calls.incrementAndGet();
+                return "computed";
+            })));
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, calls.get());
+        assertNull(db.computeIfAbsent("nothing", key -> null));
+        assertNull(db.get("nothing"));
+        assertEquals("computed", db.computeIfAbsent("k", key -> "other"));
+    }
+
+    @Test
+    @DisplayName("Test a transaction reads its own writes and commits them together")
+    void testReadYourWrites() {
+        KeyValueDatabase<String, String> db = database();
+        db.set("a", "1");
+        Transaction<String, String> tx = db.beginTransaction();
+        assertEquals("1", tx.get("a"));
+        tx.set("a", "2").set("b", "3").delete("c");
+        assertEquals("2", tx.get("a"));
+        assertNull(tx.get("c"));
+        assertEquals("1", db.get("a"));
+        assertNull(db.get("b"));
+
+        assertTrue(tx.commit());
+        assertEquals("2", db.get("a"));
+        assertEquals("3", db.get("b"));
+        assertThrows(IllegalStateException.class, () -> tx.set("x", "y"));
+        assertThrows(IllegalStateException.class, tx::commit);
+    }
+
+    @Test
+    @DisplayName("Test a commit fails and writes nothing when a key it read changed, even to the same value")
+    void testConflict() {
+        KeyValueDatabase<String, String> db = database();
+        db.set("a", "1");
+        Transaction<String, String> tx = db.beginTransaction();
+        tx.get("a");
+        tx.get("missing");
+        tx.set("b", "written");
+        db.set("a", "1");
+        assertFalse(tx.commit());
+        assertNull(db.get("b"));
+
+        Transaction<String, String> absent = db.beginTransaction();
+        absent.get("missing");
+        db.set("missing", "now");
+        absent.set("b", "written");
+        assertFalse(absent.commit());
+        assertNull(db.get("b"));
+
+        // a write to a key that was only written, not read, doesn't conflict
+        Transaction<String, String> blind = db.beginTransaction();
+        blind.set("a", "blind");
+        db.set("a", "2");
+        assertTrue(blind.commit());
+        assertEquals("blind", db.get("a"));
+    }
+
+    @Test
+    @DisplayName("Test retried transfers keep the total however they interleave")
+    void testTransactionRetries() throws Exception {
+        KeyValueDatabase<Integer, Integer> db = new KeyValueDatabase<>();
+        db.init(new StripedEngine<>());
+        int accounts = 10;
+        for (int i = 0; i < accounts; i++) {
+            db.set(i, 100);
+        }
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int seed = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 2_000; i++) {
+                    int from = (seed + i) % accounts;
+                    int to = (seed * 7 + i * 3 + 1) % accounts;
+                    if (from == to) {
+                        continue;
+                    }
+                    db.transaction(tx -> {
+                        tx.set(from, tx.get(from) - 1);
+                        tx.set(to, tx.get(to) + 1);
+                        return null;
+                    });
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        int total = 0;
+        for (int i = 0; i < accounts; i++) {
+            total += db.get(i);
+        }
+        assertEquals(accounts * 100, total);
+    }
+
+    private static KeyValueDatabase<String, String> database() {
+        KeyValueDatabase<String, String> db = new KeyValueDatabase<>();
+        db.init(new StripedEngine<>());
+        return db;
+    }
+}
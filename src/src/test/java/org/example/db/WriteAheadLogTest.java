@@ -0,0 +1,95 @@
+package org.example.db;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+public class WriteAheadLogTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Test records replay in the order they were appended")
+    void testReplayInOrder() throws IOException {
+        Path file = directory.resolve("wal.log");
+        try (WriteAheadLog log = WriteAheadLog.open(file, (op, key, value) -> fail("new log has records"))) {
+            log.append(WriteAheadLog.OP_SET, bytes("a"), bytes("1"));
+            log.append(WriteAheadLog.OP_SET, bytes("b"), bytes("2"));
+            long seq = log.append(WriteAheadLog.OP_DELETE, bytes("a"), null);
+            log.await(seq, Durability.FSYNC);
+        }
+
+        List<String> records = replay(file);
+        assertEquals(List.of("1 a=1", "1 b=2", "2 a"), records);
+    }
+
+    @Test
+    @DisplayName("Test a torn last record is cut off and appends continue after the intact ones")
+    void testTornTailTruncated() throws IOException {
+        Path file = directory.resolve("wal.log");
+        try (WriteAheadLog log = WriteAheadLog.open(file, (op, key, value) -> { })) {
+            log.append(WriteAheadLog.OP_SET, bytes("a"), bytes("1"));
+            long seq = log.append(WriteAheadLog.OP_SET, bytes("b"), bytes("2"));
+            log.await(seq, Durability.FSYNC);
+        }
+        long intact = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            // a crash halfway through the third record
+            channel.position(intact);
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 40, 1, 2, 3, 4, 1, 0}));
+        }
+
+        try (WriteAheadLog log = WriteAheadLog.open(file, (op, key, value) -> { })) {
+            assertEquals(intact, Files.size(file));
+            log.await(log.append(WriteAheadLog.OP_SET, bytes("c"), bytes("3")), Durability.FSYNC);
+        }
+        assertEquals(List.of("1 a=1", "1 b=2", "1 c=3"), replay(file));
+    }
+
+    @Test
+    @DisplayName("Test replay stops at a record whose checksum doesn't match")
+    void testCorruptRecordEndsReplay() throws IOException {
+        Path file = directory.resolve("wal.log");
+        long firstEnd;
+        try (WriteAheadLog log = WriteAheadLog.open(file, (op, key, value) -> { })) {
+            log.await(log.append(WriteAheadLog.OP_SET, bytes("a"), bytes("1")), Durability.FSYNC);
+            firstEnd = Files.size(file);
+            log.await(log.append(WriteAheadLog.OP_SET, bytes("b"), bytes("2")), Durability.FSYNC);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            // last byte of the second record's value
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), Files.size(file) - 1);
+        }
+
+        assertEquals(List.of("1 a=1"), replay(file));
+        assertEquals(firstEnd, Files.size(file));
+    }
+
+    private static List<String> replay(Path file) throws IOException {
+        List<String> records = new ArrayList<>();
+        WriteAheadLog.open(file, (op, key, value) -> records.add(op + " " + string(key)
+                + (value == null ? "" : "=" + string(value)))).close();
+        return records;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,104 @@
+package org.example.db;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class WriteBatchTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Test a batch applies its puts and deletes in order")
+    void testBatchOrder() {
+        KeyValueDatabase<String, String> db = new KeyValueDatabase<>();
+        db.init(new StripedEngine<>());
+        db.set("gone", "x", Duration.ofHours(1));
+        db.write(new WriteBatch<String, String>()
+                .put("a", "1")
+                .put("a", "2")
+                .put("b", "1")
+                .delete("b")
+                .delete("gone")
+                .put("gone", "back"));
+
+        assertEquals("2", db.get("a"));
+        assertNull(db.get("b"));
+        assertEquals("back", db.get("gone"));
+        assertEquals(0, db.deadline("gone"));
+    }
+
+    @Test
+    @DisplayName("Test multiGet returns the existing keys in the order asked and multiSet writes them all")
+    void testMultiGetAndMultiSet() {
+        KeyValueDatabase<String, String> db = new KeyValueDatabase<>();
+        db.init(new StripedEngine<>());
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            entries.put("k" + i, "v" + i);
+        }
+        db.multiSet(entries);
+
+        Map<String, String> found = db.multiGet(List.of("k9", "missing", "k3", "k50"));
+        assertEquals(List.of("k9", "k3", "k50"), new ArrayList<>(found.keySet()));
+        assertEquals("v3", found.get("k3"));
+        assertEquals(entries, db.multiGet(entries.keySet()));
+    }
+
+    @Test
+    @DisplayName("Test concurrent batches over the same keys never interleave")
+    void testBatchesAreAtomic() throws Exception {
+        KeyValueDatabase<Integer, Integer> db = new KeyValueDatabase<>();
+        db.init(new StripedEngine<>());
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            int value = t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < 2_000; i++) {
+                    WriteBatch<Integer, Integer> batch = new WriteBatch<>();
+                    for (int key = 0; key < 32; key++) {
+                        batch.put(key, value);
+                    }
+                    db.write(batch);
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        Integer winner = db.get(0);
+        for (int key = 1; key < 32; key++) {
+            assertEquals(winner, db.get(key));
+        }
+    }
+
+    @Test
+    @DisplayName("Test a logged batch replays whole after a crash")
+    void testBatchReplays() throws IOException {
+        Path log = directory.resolve("wal.log");
+        KeyValueDatabase<String, String> crashed = new KeyValueDatabase<>(Codecs.utf8(), Codecs.utf8());
+        crashed.init(new StripedEngine<>(), log, Durability.FSYNC);
+        crashed.set("old", "x");
+        crashed.write(new WriteBatch<String, String>().put("a", "1").delete("old").put("b", "2"));
+
+        KeyValueDatabase<String, String> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.utf8());
+        db.init(new StripedEngine<>(), log, Durability.FSYNC);
+        assertEquals("1", db.get("a"));
+        assertEquals("2", db.get("b"));
+        assertNull(db.get("old"));
+        db.close();
+        crashed.close();
+    }
+}
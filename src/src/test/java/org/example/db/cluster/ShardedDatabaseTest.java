@@ -0,0 +1,112 @@
+package org.example.db.cluster;
+
+import org.example.db.Codecs;
+import org.example.db.KeyValueDatabase;
+import org.example.db.StripedEngine;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ShardedDatabaseTest {
+    private static final int KEYS = 5000;
+
+    private ShardedDatabase<String, String> cluster;
+
+    @BeforeEach
+    void setUp() throws InterruptedException {
+        cluster = new ShardedDatabase<>();
+        cluster.addShard("a", shard());
+        cluster.addShard("b", shard());
+        for (int i = 0; i < KEYS; i++) {
+            cluster.set("k" + i, "v" + i);
+        }
+        cluster.set("ttl", "expiring", Duration.ofHours(1));
+    }
+
+    @Test
+    @DisplayName("Test adding a shard moves its share of the keys to it and nothing is lost")
+    void testAddShard() throws InterruptedException {
+        long deadline = owner("ttl").deadline("ttl");
+        cluster.addShard("c", shard());
+        assertTrue(cluster.awaitMigration(Duration.ofMinutes(1)));
+        assertNull(cluster.lastMigrationError());
+
+        assertTrue(cluster.movedKeys() > 0);
+        assertTrue(count(cluster.shards().get("c")) > 0);
+        assertAllReadable();
+        assertEquals(deadline, owner("ttl").deadline("ttl"));
+    }
+
+    @Test
+    @DisplayName("Test removing a shard moves every key it held to the remaining shards")
+    void testRemoveShard() throws InterruptedException {
+        long deadline = owner("ttl").deadline("ttl");
+        Shard<String, String> removed = cluster.removeShard("a");
+        assertTrue(cluster.awaitMigration(Duration.ofMinutes(1)));
+        assertNull(cluster.lastMigrationError());
+
+        assertEquals(0, count(removed));
+        assertEquals(KEYS + 1, count(cluster.shards().get("b")));
+        assertAllReadable();
+        assertEquals(deadline, owner("ttl").deadline("ttl"));
+    }
+
+    @Test
+    @DisplayName("Test writes made while a migration runs end up on the new owner")
+    void testWritesDuringMigration() throws InterruptedException {
+        cluster.addShard("c", shard());
+        for (int i = 0; i < KEYS; i++) {
+            cluster.set("k" + i, "w" + i);
+        }
+        cluster.delete("k0");
+        assertTrue(cluster.awaitMigration(Duration.ofMinutes(1)));
+
+        assertNull(cluster.get("k0"));
+        for (int i = 1; i < KEYS; i++) {
+            assertEquals("w" + i, cluster.get("k" + i));
+        }
+        assertNoDuplicates();
+    }
+
+    private void assertAllReadable() {
+        for (int i = 0; i < KEYS; i++) {
+            assertEquals("v" + i, cluster.get("k" + i));
+        }
+        assertEquals("expiring", cluster.get("ttl"));
+        assertNoDuplicates();
+    }
+
+    private void assertNoDuplicates() {
+        Map<String, String> seen = new HashMap<>();
+        for (Map.Entry<String, Shard<String, String>> shard : cluster.shards().entrySet()) {
+            shard.getValue().forEachKey(key -> assertNull(seen.put(key, shard.getKey()), "on two shards: " + key));
+        }
+    }
+
+    private Shard<String, String> owner(String key) {
+        for (Shard<String, String> shard : cluster.shards().values()) {
+            if (shard.get(key) != null) {
+                return shard;
+            }
+        }
+        throw new AssertionError("no shard holds " + key);
+    }
+
+    private static long count(Shard<String, String> shard) {
+        long[] count = new long[1];
+        shard.forEachKey(key -> count[0]++);
+        return count[0];
+    }
+
+    private static Shard<String, String> shard() {
+        KeyValueDatabase<String, String> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.utf8());
+        db.init(new StripedEngine<>());
+        return new LocalShard<>(db);
+    }
+}
@@ -0,0 +1,114 @@
+package org.example.db.lsm;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+public class LsmEngineTest {
+    // small enough that the writes below go through dozens of flushes and several level-0 compactions
+    private static final int MEMTABLE_ENTRIES = 64;
+
+    @TempDir
+    Path directory;
+
+    private LsmEngine<Integer, String> engine;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (engine != null) {
+            engine.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Test gets see the newest write across memtables, flushed tables and compacted tables")
+    void testGetAfterFlushAndCompaction() throws IOException {
+        engine = open();
+        TreeMap<Integer, String> model = write(engine, 20_000);
+        assertMatches(model, engine);
+
+        engine.close();
+        assertTrue(tables() > 0);
+        // four level-0 tables trigger a compaction, so dozens of flushes must have been merged
+        assertTrue(tables() < 20, "tables weren't compacted: " + tables());
+
+        engine = open();
+        assertMatches(model, engine);
+    }
+
+    @Test
+    @DisplayName("Test a delete hides every older value of the key, in memory and after reopening")
+    void testDeleteShadowsOlderTables() throws IOException {
+        engine = open();
+        for (int i = 0; i < 1000; i++) {
+            engine.put(i, "old" + i);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            engine.remove(i);
+        }
+        // push the tombstones out of the memtable
+        for (int i = 1000; i < 2000; i++) {
+            engine.put(i, "filler");
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 2 == 0 ? null : "old" + i, engine.get(i));
+            assertEquals(i % 2 != 0, engine.containsKey(i));
+        }
+
+        engine.close();
+        engine = open();
+        assertNull(engine.get(0));
+        assertEquals("old1", engine.get(1));
+        engine.put(0, "back");
+        assertEquals("back", engine.get(0));
+    }
+
+    private LsmEngine<Integer, String> open() throws IOException {
+        return new LsmEngine<>(directory, Comparator.naturalOrder(), MEMTABLE_ENTRIES);
+    }
+
+    private static TreeMap<Integer, String> write(LsmEngine<Integer, String> engine, int operations) {
+        TreeMap<Integer, String> model = new TreeMap<>();
+        Random random = new Random(3);
+        for (int i = 0; i < operations; i++) {
+            int key = random.nextInt(2000);
+            if (random.nextInt(4) == 0) {
+                engine.remove(key);
+                model.remove(key);
+            } else {
+                engine.put(key, "v" + i);
+                model.put(key, "v" + i);
+            }
+        }
+        return model;
+    }
+
+    private static void assertMatches(TreeMap<Integer, String> model, LsmEngine<Integer, String> engine) {
+        for (int key = 0; key < 2000; key++) {
+            assertEquals(model.get(key), engine.get(key), "key " + key);
+        }
+        List<Map.Entry<Integer, String>> listed = new ArrayList<>();
+        engine.forEach((key, value) -> listed.add(Map.entry(key, value)));
+        assertEquals(new ArrayList<>(model.entrySet()), listed);
+    }
+
+    private long tables() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".sst")).count();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.example.db.replication;
+
+import org.example.db.Codecs;
+import org.example.db.KeyValueDatabase;
+import org.example.db.StripedEngine;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ReplicationTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final List<Closeable> opened = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (int i = opened.size() - 1; i >= 0; i--) {
+            opened.get(i).close();
+        }
+    }
+
+    @Test
+    @DisplayName("Test a follower bootstraps from a snapshot and then applies every change")
+    void testSnapshotThenChanges() throws Exception {
+        KeyValueDatabase<String, String> db = database();
+        for (int i = 0; i < 1_000; i++) {
+            db.set("k" + i, "v" + i);
+        }
+        db.set("short", "lived", Duration.ofMillis(300));
+        ReplicationLeader<String, String> leader = leader(db, 0, ReplicationLeader.DEFAULT_FEED_CAPACITY);
+        ReplicationFollower<String, String> follower = follower(leader.port());
+        assertTrue(follower.awaitBootstrap(TIMEOUT));
+        assertEquals("v999", follower.get("k999"));
+        assertEquals("lived", follower.get("short"));
+
+        db.set("k0", "changed");
+        db.delete("k1");
+        db.set("new", "value");
+        db.expire("k2", Duration.ofMillis(300));
+        assertTrue(follower.awaitOffset(db.changeFeed().nextOffset(), TIMEOUT));
+        assertEquals("changed", follower.get("k0"));
+        assertNull(follower.get("k1"));
+        assertEquals("value", follower.get("new"));
+        assertEquals(0, follower.changesBehind());
+        assertEquals(1, leader.followerCount());
+
+        // ttls run out on the follower by the leader's deadlines
+        Thread.sleep(500);
+        assertNull(follower.get("short"));
+        assertNull(follower.get("k2"));
+        assertEquals("v3", follower.get("k3"));
+    }
+
+    @Test
+    @DisplayName("Test a follower resumes from its offset after the leader restarts, or takes a new snapshot")
+    void testReconnect() throws Exception {
+        KeyValueDatabase<String, String> db = database();
+        db.set("a", "1");
+        ReplicationLeader<String, String> leader = leader(db, 0, 16);
+        int port = leader.port();
+        ReplicationFollower<String, String> follower = follower(port);
+        assertTrue(follower.awaitBootstrap(TIMEOUT));
+
+        // within the feed's capacity: the follower picks up where it left off
+        leader.close();
+        db.set("b", "2");
+        leader = leader(db, port, 16);
+        assertTrue(follower.awaitOffset(db.changeFeed().nextOffset(), TIMEOUT));
+        assertEquals("2", follower.get("b"));
+
+        // too far behind for the feed: the follower is sent a new snapshot
+        leader.close();
+        for (int i = 0; i < 100; i++) {
+            db.set("c", "v" + i);
+        }
+        db.delete("a");
+        leader(db, port, 16);
+        assertTrue(follower.awaitOffset(db.changeFeed().nextOffset(), TIMEOUT));
+        assertEquals("v99", follower.get("c"));
+        assertNull(follower.get("a"));
+        assertEquals("2", follower.get("b"));
+    }
+
+    @Test
+    @DisplayName("Test several followers converge on a leader taking concurrent writes")
+    void testConcurrentWrites() throws Exception {
+        KeyValueDatabase<String, String> db = database();
+        ReplicationLeader<String, String> leader = leader(db, 0, ReplicationLeader.DEFAULT_FEED_CAPACITY);
+        List<ReplicationFollower<String, String>> followers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            followers.add(follower(leader.port()));
+        }
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            int writer = t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    String key = "k" + (i % 200);
+                    if (i % 7 == 0) {
+                        db.delete(key);
+                    } else {
+                        db.set(key, writer + ":" + i);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        long offset = db.changeFeed().nextOffset();
+        for (ReplicationFollower<String, String> follower : followers) {
+            assertTrue(follower.awaitOffset(offset, TIMEOUT));
+            for (int i = 0; i < 200; i++) {
+                assertEquals(db.get("k" + i), follower.get("k" + i));
+            }
+        }
+    }
+
+    private KeyValueDatabase<String, String> database() {
+        KeyValueDatabase<String, String> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.utf8());
+        db.init(new StripedEngine<>());
+        opened.add(db::close);
+        return db;
+    }
+
+    private ReplicationLeader<String, String> leader(KeyValueDatabase<String, String> db, int port, int capacity)
+            throws IOException {
+        ReplicationLeader<String, String> leader = new ReplicationLeader<>(db, Codecs.utf8(), Codecs.utf8(),
+                new InetSocketAddress("127.0.0.1", port), capacity);
+        leader.start();
+        opened.add(leader);
+        return leader;
+    }
+
+    private ReplicationFollower<String, String> follower(int port) {
+        ReplicationFollower<String, String> follower =
+                new ReplicationFollower<>(Codecs.utf8(), Codecs.utf8(), "127.0.0.1", port);
+        follower.start();
+        opened.add(follower);
+        return follower;
+    }
+}
@@ -0,0 +1,205 @@
+package org.example.db.server;
+
+import org.example.db.Codecs;
+import org.example.db.KeyValueDatabase;
+import org.example.db.StripedEngine;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RespServerTest {
+    private KeyValueDatabase<String, byte[]> db;
+    private RespServer server;
+    private Socket socket;
+    private InputStream in;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.bytes());
+        db.init(new StripedEngine<>());
+        server = new RespServer(db, 0);
+        server.start();
+        socket = new Socket("127.0.0.1", server.port());
+        in = new BufferedInputStream(socket.getInputStream());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        socket.close();
+        server.close();
+        db.close();
+    }
+
+    @Test
+    @DisplayName("Test the supported commands reply as Redis does")
+    void testCommands() throws IOException {
+        assertEquals("PONG", call("PING"));
+        assertEquals("hello", call("ping", "hello"));
+        assertEquals("OK", call("SET", "a", "1"));
+        assertEquals("1", call("GET", "a"));
+        assertNull(call("GET", "missing"));
+        assertEquals("OK", call("MSET", "b", "2", "c", "3"));
+        assertEquals(List.of("1", "2", "nil", "3"), nilAsString(call("MGET", "a", "b", "x", "c")));
+        assertEquals(2L, call("DEL", "b", "c", "x"));
+
+        assertEquals(-1L, call("PTTL", "a"));
+        assertEquals(-2L, call("PTTL", "missing"));
+        assertEquals(1L, call("EXPIRE", "a", "100"));
+        long ttl = (Long) call("PTTL", "a");
+        assertTrue(ttl > 90_000 && ttl <= 100_000, String.valueOf(ttl));
+        assertEquals(0L, call("EXPIRE", "missing", "100"));
+        assertEquals("OK", call("SET", "p", "v", "PX", "100000"));
+        assertTrue((Long) call("PTTL", "p") > 90_000);
+        assertEquals("OK", call("set", "e", "v", "ex", "100"));
+        assertTrue((Long) call("PTTL", "e") > 90_000);
+
+        call("SET", "user:1", "x");
+        call("SET", "user:2", "y");
+        List<?> keys = (List<?>) call("KEYS", "user:*");
+        assertEquals(2, keys.size());
+        assertTrue(keys.contains("user:1") && keys.contains("user:2"));
+        assertEquals(List.of("a"), call("KEYS", "a"));
+        assertEquals(5, ((List<?>) call("KEYS", "*")).size());
+    }
+
+    @Test
+    @DisplayName("Test bad commands get error replies and leave the connection usable")
+    void testErrors() throws IOException {
+        assertTrue(error(call("NOPE")).startsWith("ERR unknown command"));
+        assertTrue(error(call("GET")).startsWith("ERR wrong number of arguments for 'get'"));
+        assertEquals("ERR syntax error", error(call("SET", "k", "v", "XX", "1")));
+        assertEquals("ERR value is not an integer or out of range", error(call("SET", "k", "v", "EX", "ten")));
+        assertEquals("ERR invalid expire time in 'set' command", error(call("SET", "k", "v", "PX", "0")));
+        assertTrue(error(call("KEYS", "a*b")).startsWith("ERR only"));
+        assertEquals("PONG", call("PING"));
+        assertNull(call("GET", "k"));
+    }
+
+    @Test
+    @DisplayName("Test pipelined commands, large values and binary data all come back intact and in order")
+    void testPipelineAndLargeValues() throws IOException {
+        byte[] big = new byte[1 << 20];
+        for (int i = 0; i < big.length; i++) {
+            big[i] = (byte) i;
+        }
+        ByteArrayOutputStream pipeline = new ByteArrayOutputStream();
+        for (int i = 0; i < 1_000; i++) {
+            write(pipeline, "SET".getBytes(), ("k" + i).getBytes(), ("v" + i).getBytes());
+        }
+        write(pipeline, "SET".getBytes(), "big".getBytes(), big);
+        for (int i = 0; i < 1_000; i++) {
+            write(pipeline, "GET".getBytes(), ("k" + i).getBytes());
+        }
+        OutputStream out = socket.getOutputStream();
+        out.write(pipeline.toByteArray());
+        out.flush();
+        for (int i = 0; i <= 1_000; i++) {
+            assertEquals("OK", read());
+        }
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals("v" + i, read());
+        }
+        assertArrayEquals(big, db.get("big"));
+
+        write(out, "GET".getBytes(), "big".getBytes());
+        assertArrayEquals(big, ((String) read()).getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private Object call(String... args) throws IOException {
+        byte[][] bytes = new byte[args.length][];
+        for (int i = 0; i < args.length; i++) {
+            bytes[i] = args[i].getBytes(StandardCharsets.ISO_8859_1);
+        }
+        write(socket.getOutputStream(), bytes);
+        return read();
+    }
+
+    private static void write(OutputStream out, byte[]... args) throws IOException {
+        out.write(("*" + args.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        for (byte[] arg : args) {
+            out.write(("$" + arg.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(arg);
+            out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    // Simple strings and bulk strings as String, integers as Long, arrays as List, nil as null and
+    // errors as an ErrorReply.
+    private Object read() throws IOException {
+        int type = in.read();
+        String line = line();
+        switch (type) {
+            case '+':
+                return line;
+            case '-':
+                return new ErrorReply(line);
+            case ':':
+                return Long.parseLong(line);
+            case '$': {
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    return null;
+                }
+                byte[] value = in.readNBytes(length);
+                assertEquals(length, value.length);
+                assertEquals("", line());
+                return new String(value, StandardCharsets.ISO_8859_1);
+            }
+            case '*': {
+                int count = Integer.parseInt(line);
+                List<Object> elements = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    elements.add(read());
+                }
+                return elements;
+            }
+            default:
+                throw new AssertionError("Unexpected reply type " + type);
+        }
+    }
+
+    private String line() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\r') {
+            assertTrue(b >= 0, "connection closed");
+            line.write(b);
+        }
+        assertEquals('\n', in.read());
+        return line.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    private static String error(Object reply) {
+        assertTrue(reply instanceof ErrorReply, String.valueOf(reply));
+        return ((ErrorReply) reply).message;
+    }
+
+    private static List<String> nilAsString(Object reply) {
+        List<String> values = new ArrayList<>();
+        for (Object value : (List<?>) reply) {
+            values.add(value == null ? "nil" : (String) value);
+        }
+        return values;
+    }
+
+    private static final class ErrorReply {
+        final String message;
+
+        ErrorReply(String message) {
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.example.local_db;
+
+import org.example.db.Codecs;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.stream.Stream;
+
+public class BitcaskKeyValueDatabaseTest {
+    // small enough that the writes below span many segments
+    private static final int SEGMENT_SIZE = 4096;
+
+    @TempDir
+    Path directory;
+
+    private KeyValueDatabase<String, String> db;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (db != null) {
+            db.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Test values, deletes and null values survive reopening the directory")
+    void testReopen() throws IOException {
+        db = open();
+        for (int i = 0; i < 500; i++) {
+            db.set("k" + i, "v" + i);
+        }
+        db.set("k0", "changed");
+        assertTrue(db.delete("k1"));
+        assertFalse(db.delete("k1"));
+        db.set("null", null);
+        assertTrue(segments() > 1);
+        db.close();
+
+        db = open();
+        assertEquals("changed", db.get("k0"));
+        assertNull(db.get("k1"));
+        assertEquals("v499", db.get("k499"));
+        assertNull(db.get("null"));
+        assertTrue(db.database.containsKey("null"));
+    }
+
+    @Test
+    @DisplayName("Test a merge drops the old segments and keeps every live value")
+    void testMerge() throws IOException {
+        db = open();
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 100; i++) {
+                db.set("k" + i, "v" + round + "-" + i);
+            }
+        }
+        db.delete("k0");
+        long before = segments();
+        db.merge();
+        assertTrue(segments() < before, "merge kept " + segments() + " of " + before + " segments");
+        assertNull(db.lastMergeError());
+        assertNull(db.get("k0"));
+        for (int i = 1; i < 100; i++) {
+            assertEquals("v4-" + i, db.get("k" + i));
+        }
+        db.close();
+
+        db = open();
+        assertNull(db.get("k0"));
+        assertEquals("v4-99", db.get("k99"));
+    }
+
+    @Test
+    @DisplayName("Test calls after close fail instead of spinning")
+    void testClosed() throws IOException {
+        db = open();
+        db.set("a", "1");
+        db.close();
+        KeyValueDatabase<String, String> closed = db;
+        db = null;
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            assertThrows(IllegalStateException.class, () -> closed.get("a"));
+            assertThrows(IllegalStateException.class, () -> closed.getBuffer("a"));
+            assertThrows(IllegalStateException.class, () -> closed.set("b", "2"));
+            assertThrows(IllegalStateException.class, () -> closed.delete("a"));
+        });
+    }
+
+    private KeyValueDatabase<String, String> open() throws IOException {
+        KeyValueDatabase<String, String> db = new KeyValueDatabase<>(Codecs.utf8(), Codecs.utf8());
+        db.init(directory, SEGMENT_SIZE);
+        return db;
+    }
+
+    private long segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".seg")).count();
+        }
+    }
+}